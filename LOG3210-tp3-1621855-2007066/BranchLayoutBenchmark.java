@@ -0,0 +1,96 @@
+package analyzer.visitors;
+
+import analyzer.ast.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Compare les branchements exécutés par le code de IntermediateCodeGenFallVisitor selon la disposition de ses blocs :
+ * le bloc alors toujours après la condition et la sortie des boucles en haut (FALL), la prédiction statique de
+ * BranchPrediction (STATIC) et, avec un profil, celle de l'exécution instrumentée (PROFILE).
+ * <p>
+ * Chaque disposition est générée à partir d'un nouvel AST et exécutée par IRInterpreter avec les mêmes entrées. Les
+ * variables du programme doivent avoir les mêmes valeurs finales. TAKEN compte les goto et les sauts conditionnels
+ * pris, qui interrompent le chargement des instructions qui suivent.
+ */
+public class BranchLayoutBenchmark {
+    /**
+     * Usage : BranchLayoutBenchmark fichier [-profile profil] [variable=valeur ...]
+     */
+    public static void main(String[] args) throws IOException, ParseException {
+        if (args.length < 1) {
+            System.err.println("Usage: BranchLayoutBenchmark <file> [-profile profile] [variable=value ...]");
+            System.exit(1);
+        }
+        byte[] source = Files.readAllBytes(Paths.get(args[0]));
+        ExecutionProfile profile = null;
+        HashMap<String, Integer> inputs = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-profile") && i + 1 < args.length) {
+                try (FileReader reader = new FileReader(args[++i])) {
+                    profile = ExecutionProfile.read(reader);
+                }
+                continue;
+            }
+            String[] input = args[i].split("=", 2);
+            if (input.length != 2) {
+                throw new IllegalArgumentException("Invalid input " + args[i] + ", expected variable=value");
+            }
+            inputs.put(input[0], Integer.parseInt(input[1]));
+        }
+
+        PrintWriter writer = new PrintWriter(System.out);
+        Map<String, Integer> expected = run(source, "FALL", false, null, inputs, writer);
+        check(expected, run(source, "STATIC", true, null, inputs, writer));
+        if (profile != null) {
+            check(expected, run(source, "PROFILE", true, profile, inputs, writer));
+        }
+        writer.flush();
+    }
+
+    /**
+     * Génère et exécute une disposition, puis écrit ses metrics.
+     *
+     * @return La valeur finale de chaque variable du programme
+     */
+    private static Map<String, Integer> run(byte[] source, String layout, boolean prediction, ExecutionProfile profile,
+                                            Map<String, Integer> inputs, PrintWriter writer) throws IOException, ParseException {
+        ASTProgram program = Parser.ParseTree(new ByteArrayInputStream(source));
+        StringWriter code = new StringWriter();
+        PrintWriter codeWriter = new PrintWriter(code);
+        IREmitter emitter = new IREmitter(codeWriter);
+        IntermediateCodeGenFallVisitor visitor = new IntermediateCodeGenFallVisitor(emitter);
+        visitor.StaticPrediction = prediction;
+        visitor.Profile = profile;
+        program.jjtAccept(visitor, null);
+        codeWriter.flush();
+
+        IRInterpreter interpreter = IRInterpreter.load(new StringReader(code.toString()));
+        int[] slots = interpreter.execute(inputs);
+        writer.println(String.format("{LAYOUT:%s, LINES:%d, EXECUTED:%d, BRANCHES:%d, TAKEN:%d}",
+                layout, emitter.instructions(), interpreter.EXECUTED, interpreter.BRANCHES, interpreter.TAKEN));
+
+        TreeMap<String, Integer> values = new TreeMap<>();
+        for (String variable : interpreter.variables()) {
+            if (!variable.startsWith("_")) values.put(variable, slots[interpreter.slotOf(variable)]);
+        }
+        return values;
+    }
+
+    private static void check(Map<String, Integer> expected, Map<String, Integer> actual) {
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException("Layouts disagree: " + expected + " and " + actual);
+        }
+    }
+}
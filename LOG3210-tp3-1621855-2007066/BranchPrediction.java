@@ -0,0 +1,118 @@
+package analyzer.visitors;
+
+import analyzer.ast.*;
+
+
+/**
+ * Prédit, pour IntermediateCodeGenFallVisitor, la direction des branchements d'un programme compilé sans profil
+ * d'exécution, d'après les heuristiques de Ball et Larus :
+ * <ul>
+ *     <li>boucle : la condition d'une boucle est vraie, le saut qui retourne au corps est pris. Seules une condition
+ *     false et une boucle for reconnue par RangeAnalysis qui ne fait aucun tour sont prédites fausses ;</li>
+ *     <li>sortie : un bloc qui contient un break, une sortie anticipée du switch, est peu probable ;</li>
+ *     <li>opcode : x == y est faux et x != y est vrai ; x &lt; 0 et x &lt;= 0 sont faux, x &gt; 0 et x &gt;= 0 sont
+ *     vrais, les valeurs négatives étant rares.</li>
+ * </ul>
+ * Pour un if, la première heuristique qui s'applique décide. ! inverse la prédiction de son opérande ; a &amp;&amp; b
+ * est vrai si a et b le sont et faux si l'un d'eux l'est, a || b vrai si l'un d'eux l'est et faux si les deux le sont.
+ * <p>
+ * Les vérifications des bornes des tableaux suivent déjà l'heuristique de sortie : le bloc hors des bornes est généré
+ * après le programme et l'accès valide suit la vérification sans saut.
+ */
+public class BranchPrediction {
+    // variables pour les metrics
+    public int LOOPS = 0;
+    public int TAKEN = 0;
+    public int NOT_TAKEN = 0;
+    public int UNPREDICTED = 0;
+
+    /**
+     * La direction prédite de la condition d'un if : vrai si le bloc alors est le plus probable, faux si c'est le bloc
+     * sinon, null si aucune heuristique ne s'applique.
+     */
+    public Boolean likely(ASTIfStmt node) {
+        Boolean prediction;
+        if (exits(node.jjtGetChild(1))) {
+            prediction = false;
+        } else if (node.jjtGetNumChildren() > 2 && exits(node.jjtGetChild(2))) {
+            prediction = true;
+        } else {
+            prediction = condition(node.jjtGetChild(0));
+        }
+
+        if (prediction == null) UNPREDICTED++;
+        else if (prediction) TAKEN++;
+        else NOT_TAKEN++;
+        return prediction;
+    }
+
+    /**
+     * Vrai si la boucle, un while ou un for, est prédite faire des tours.
+     */
+    public boolean loops(Node loop) {
+        Node condition = RangeAnalysis.strip(loop.jjtGetChild(loop instanceof ASTForStmt ? 1 : 0));
+        if (condition instanceof ASTBoolValue && !((ASTBoolValue) condition).getValue()) {
+            return false;
+        }
+        if (loop instanceof ASTForStmt) {
+            long[] range = RangeAnalysis.loopRange((ASTForStmt) loop);
+            if (range != null && range[0] > range[1]) return false;
+        }
+        LOOPS++;
+        return true;
+    }
+
+    /**
+     * Vrai si le bloc contient un break hors d'un switch imbriqué.
+     */
+    private static boolean exits(Node node) {
+        if (node instanceof ASTBreakStmt) return true;
+        if (node instanceof ASTSwitchStmt) return false;
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            if (exits(node.jjtGetChild(i))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * La direction prédite d'une condition par l'heuristique d'opcode, null si elle ne s'applique pas.
+     */
+    static Boolean condition(Node expression) {
+        Node node = RangeAnalysis.strip(expression);
+        if (node instanceof ASTBoolValue) {
+            return ((ASTBoolValue) node).getValue();
+        }
+        if (node instanceof ASTNotExpr) {
+            Boolean operand = condition(node.jjtGetChild(0));
+            if (operand == null || ((ASTNotExpr) node).getOps().size() % 2 == 0) return operand;
+            return !operand;
+        }
+        if (node instanceof ASTBoolExpr && node.jjtGetNumChildren() == 2) {
+            Boolean left = condition(node.jjtGetChild(0));
+            Boolean right = condition(node.jjtGetChild(1));
+            boolean and = "&&".equals(((ASTBoolExpr) node).getOps().get(0));
+            // a || b se lit !(!a && !b).
+            if (left != null && left != and) return left;
+            if (right != null && right != and) return right;
+            return left != null && right != null ? and : null;
+        }
+        if (node instanceof ASTCompExpr && node.jjtGetNumChildren() == 2) {
+            String op = ((ASTCompExpr) node).getValue();
+            if (op.equals("==")) return false;
+            if (op.equals("!=")) return true;
+            Long right = RangeAnalysis.constant(node.jjtGetChild(1));
+            if (right == null) {
+                // 0 < x se lit x > 0.
+                right = RangeAnalysis.constant(node.jjtGetChild(0));
+                op = RangeAnalysis.mirror(op);
+            }
+            if (right == null || right != 0 || op == null) return null;
+            return op.equals(">") || op.equals(">=");
+        }
+        return null;
+    }
+
+    public String metrics() {
+        return String.format("{LOOPS:%d, TAKEN:%d, NOT_TAKEN:%d, UNPREDICTED:%d}", LOOPS, TAKEN, NOT_TAKEN, UNPREDICTED);
+    }
+}
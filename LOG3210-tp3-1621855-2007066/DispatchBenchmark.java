@@ -0,0 +1,233 @@
+package analyzer.visitors;
+
+import analyzer.ast.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/**
+ * Mesure ce que la double dispatch de jjtAccept coûtait aux générateurs de code intermédiaire, qui choisissent
+ * maintenant la méthode de chaque noeud par un switch sur son type (SimpleNode.getId()), voir IntermediateCodeGenBase.
+ * <p>
+ * Deux parcours font le même travail sur chaque noeud. ACCEPT passe par jjtAccept et retourne un Object converti,
+ * comme les visiteurs. SWITCH passe par un switch sur le type du noeud vers des méthodes typées qui retournent un int.
+ * GENERATE est la génération complète par IntermediateCodeGenVisitor, sur un nouvel AST à chaque tour puisque le
+ * programme garde ses symboles. Les temps sont en nanosecondes par noeud, après autant de tours de chauffe que de tours
+ * mesurés. SAVED est la part du temps de GENERATE que SWITCH économise sur ACCEPT.
+ */
+public class DispatchBenchmark {
+    private static final String ROW = "%-24s %9s %9s %9s %9s %9s%n";
+
+    /**
+     * Usage : DispatchBenchmark fichier|dossier ... [-rounds n]
+     * <p>
+     * Un dossier compte pour tous ses fichiers, dans l'ordre de leurs noms.
+     */
+    public static void main(String[] args) throws IOException, ParseException {
+        ArrayList<Path> corpus = new ArrayList<>();
+        int rounds = 2000;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-rounds") && i + 1 < args.length) {
+                rounds = Integer.parseInt(args[++i]);
+            } else if (Files.isDirectory(Paths.get(args[i]))) {
+                try (Stream<Path> files = Files.list(Paths.get(args[i]))) {
+                    corpus.addAll(files.filter(Files::isRegularFile).sorted().collect(Collectors.toList()));
+                }
+            } else {
+                corpus.add(Paths.get(args[i]));
+            }
+        }
+        if (corpus.isEmpty()) {
+            System.err.println("Usage: DispatchBenchmark <file|directory> ... [-rounds n]");
+            System.exit(1);
+        }
+
+        PrintWriter writer = new PrintWriter(System.out);
+        writer.printf(ROW, "PROGRAM", "NODES", "ACCEPT", "SWITCH", "GENERATE", "SAVED");
+        for (Path file : corpus) {
+            byte[] source = Files.readAllBytes(file);
+            ASTProgram program = Parser.ParseTree(new ByteArrayInputStream(source));
+            int nodes = new SwitchWalker().walk(program);
+            if ((Integer) program.jjtAccept(new AcceptWalker(), null) != nodes) {
+                throw new IllegalStateException("Walks disagree on " + file);
+            }
+
+            double accept = 0;
+            double walk = 0;
+            double generate = 0;
+            for (int pass = 0; pass < 2; pass++) {
+                accept = perNode(timeAccept(program, rounds), rounds, nodes);
+                walk = perNode(timeSwitch(program, rounds), rounds, nodes);
+                generate = perNode(timeGenerate(source, rounds), rounds, nodes);
+            }
+            writer.printf(ROW, file.getFileName().toString(), nodes, format(accept), format(walk), format(generate),
+                    String.format("%.1f%%", 100 * (accept - walk) / generate));
+        }
+        writer.flush();
+    }
+
+    private static long timeAccept(ASTProgram program, int rounds) {
+        AcceptWalker walker = new AcceptWalker();
+        long sum = 0;
+        long started = System.nanoTime();
+        for (int i = 0; i < rounds; i++) sum += (Integer) program.jjtAccept(walker, null);
+        long elapsed = System.nanoTime() - started;
+        if (sum == 0) throw new IllegalStateException();
+        return elapsed;
+    }
+
+    private static long timeSwitch(ASTProgram program, int rounds) {
+        SwitchWalker walker = new SwitchWalker();
+        long sum = 0;
+        long started = System.nanoTime();
+        for (int i = 0; i < rounds; i++) sum += walker.walk(program);
+        long elapsed = System.nanoTime() - started;
+        if (sum == 0) throw new IllegalStateException();
+        return elapsed;
+    }
+
+    private static long timeGenerate(byte[] source, int rounds) throws ParseException {
+        ASTProgram[] programs = new ASTProgram[rounds];
+        for (int i = 0; i < rounds; i++) programs[i] = Parser.ParseTree(new ByteArrayInputStream(source));
+        PrintWriter output = new PrintWriter(Writer.nullWriter());
+        long started = System.nanoTime();
+        for (ASTProgram program : programs) program.jjtAccept(new IntermediateCodeGenVisitor(output), null);
+        return System.nanoTime() - started;
+    }
+
+    private static double perNode(long nanos, int rounds, int nodes) {
+        return (double) nanos / rounds / nodes;
+    }
+
+    private static String format(double nanos) {
+        return String.format("%.2f", nanos);
+    }
+
+    /**
+     * Compte les noeuds par jjtAccept, chaque type de noeud ayant sa méthode.
+     */
+    private static class AcceptWalker implements ParserVisitor {
+        private Object children(Node node, Object data) {
+            int count = 1;
+            for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+                count += (Integer) node.jjtGetChild(i).jjtAccept(this, data);
+            }
+            return count;
+        }
+
+        public Object visit(SimpleNode node, Object data) { return children(node, data); }
+        public Object visit(ASTProgram node, Object data) { return children(node, data); }
+        public Object visit(ASTBlock node, Object data) { return children(node, data); }
+        public Object visit(ASTStmt node, Object data) { return children(node, data); }
+        public Object visit(ASTDeclaration node, Object data) { return children(node, data); }
+        public Object visit(ASTAssignStmt node, Object data) { return children(node, data); }
+        public Object visit(ASTIfStmt node, Object data) { return children(node, data); }
+        public Object visit(ASTWhileStmt node, Object data) { return children(node, data); }
+        public Object visit(ASTForStmt node, Object data) { return children(node, data); }
+        public Object visit(ASTEnumStmt node, Object data) { return children(node, data); }
+        public Object visit(ASTSwitchStmt node, Object data) { return children(node, data); }
+        public Object visit(ASTCaseStmt node, Object data) { return children(node, data); }
+        public Object visit(ASTBreakStmt node, Object data) { return children(node, data); }
+        public Object visit(ASTFuncStmt node, Object data) { return children(node, data); }
+        public Object visit(ASTReturnStmt node, Object data) { return children(node, data); }
+        public Object visit(ASTExpr node, Object data) { return children(node, data); }
+        public Object visit(ASTBoolExpr node, Object data) { return children(node, data); }
+        public Object visit(ASTCompExpr node, Object data) { return children(node, data); }
+        public Object visit(ASTAddExpr node, Object data) { return children(node, data); }
+        public Object visit(ASTMulExpr node, Object data) { return children(node, data); }
+        public Object visit(ASTUnaExpr node, Object data) { return children(node, data); }
+        public Object visit(ASTNotExpr node, Object data) { return children(node, data); }
+        public Object visit(ASTGenValue node, Object data) { return children(node, data); }
+        public Object visit(ASTCallExpr node, Object data) { return children(node, data); }
+        public Object visit(ASTArrayExpr node, Object data) { return children(node, data); }
+        public Object visit(ASTArrayAccess node, Object data) { return children(node, data); }
+        public Object visit(ASTIdentifier node, Object data) { return children(node, data); }
+        public Object visit(ASTIntValue node, Object data) { return children(node, data); }
+        public Object visit(ASTBoolValue node, Object data) { return children(node, data); }
+    }
+
+    /**
+     * Compte les noeuds par un switch sur leur type, vers une méthode typée qui retourne un int.
+     */
+    private static class SwitchWalker {
+        int walk(Node node) {
+            switch (((SimpleNode) node).getId()) {
+                case ParserTreeConstants.JJTPROGRAM: return program((ASTProgram) node);
+                case ParserTreeConstants.JJTBLOCK: return block((ASTBlock) node);
+                case ParserTreeConstants.JJTSTMT: return stmt((ASTStmt) node);
+                case ParserTreeConstants.JJTDECLARATION: return declaration((ASTDeclaration) node);
+                case ParserTreeConstants.JJTASSIGNSTMT: return assignStmt((ASTAssignStmt) node);
+                case ParserTreeConstants.JJTIFSTMT: return ifStmt((ASTIfStmt) node);
+                case ParserTreeConstants.JJTWHILESTMT: return whileStmt((ASTWhileStmt) node);
+                case ParserTreeConstants.JJTFORSTMT: return forStmt((ASTForStmt) node);
+                case ParserTreeConstants.JJTENUMSTMT: return enumStmt((ASTEnumStmt) node);
+                case ParserTreeConstants.JJTSWITCHSTMT: return switchStmt((ASTSwitchStmt) node);
+                case ParserTreeConstants.JJTCASESTMT: return caseStmt((ASTCaseStmt) node);
+                case ParserTreeConstants.JJTBREAKSTMT: return breakStmt((ASTBreakStmt) node);
+                case ParserTreeConstants.JJTFUNCSTMT: return funcStmt((ASTFuncStmt) node);
+                case ParserTreeConstants.JJTRETURNSTMT: return returnStmt((ASTReturnStmt) node);
+                case ParserTreeConstants.JJTEXPR: return expr((ASTExpr) node);
+                case ParserTreeConstants.JJTBOOLEXPR: return boolExpr((ASTBoolExpr) node);
+                case ParserTreeConstants.JJTCOMPEXPR: return compExpr((ASTCompExpr) node);
+                case ParserTreeConstants.JJTADDEXPR: return addExpr((ASTAddExpr) node);
+                case ParserTreeConstants.JJTMULEXPR: return mulExpr((ASTMulExpr) node);
+                case ParserTreeConstants.JJTUNAEXPR: return unaExpr((ASTUnaExpr) node);
+                case ParserTreeConstants.JJTNOTEXPR: return notExpr((ASTNotExpr) node);
+                case ParserTreeConstants.JJTGENVALUE: return genValue((ASTGenValue) node);
+                case ParserTreeConstants.JJTCALLEXPR: return callExpr((ASTCallExpr) node);
+                case ParserTreeConstants.JJTARRAYEXPR: return arrayExpr((ASTArrayExpr) node);
+                case ParserTreeConstants.JJTARRAYACCESS: return arrayAccess((ASTArrayAccess) node);
+                case ParserTreeConstants.JJTIDENTIFIER: return identifier((ASTIdentifier) node);
+                case ParserTreeConstants.JJTINTVALUE: return intValue((ASTIntValue) node);
+                case ParserTreeConstants.JJTBOOLVALUE: return boolValue((ASTBoolValue) node);
+                default: return children(node);
+            }
+        }
+
+        private int children(Node node) {
+            int count = 1;
+            for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+                count += walk(node.jjtGetChild(i));
+            }
+            return count;
+        }
+
+        private int program(ASTProgram node) { return children(node); }
+        private int block(ASTBlock node) { return children(node); }
+        private int stmt(ASTStmt node) { return children(node); }
+        private int declaration(ASTDeclaration node) { return children(node); }
+        private int assignStmt(ASTAssignStmt node) { return children(node); }
+        private int ifStmt(ASTIfStmt node) { return children(node); }
+        private int whileStmt(ASTWhileStmt node) { return children(node); }
+        private int forStmt(ASTForStmt node) { return children(node); }
+        private int enumStmt(ASTEnumStmt node) { return children(node); }
+        private int switchStmt(ASTSwitchStmt node) { return children(node); }
+        private int caseStmt(ASTCaseStmt node) { return children(node); }
+        private int breakStmt(ASTBreakStmt node) { return children(node); }
+        private int funcStmt(ASTFuncStmt node) { return children(node); }
+        private int returnStmt(ASTReturnStmt node) { return children(node); }
+        private int expr(ASTExpr node) { return children(node); }
+        private int boolExpr(ASTBoolExpr node) { return children(node); }
+        private int compExpr(ASTCompExpr node) { return children(node); }
+        private int addExpr(ASTAddExpr node) { return children(node); }
+        private int mulExpr(ASTMulExpr node) { return children(node); }
+        private int unaExpr(ASTUnaExpr node) { return children(node); }
+        private int notExpr(ASTNotExpr node) { return children(node); }
+        private int genValue(ASTGenValue node) { return children(node); }
+        private int callExpr(ASTCallExpr node) { return children(node); }
+        private int arrayExpr(ASTArrayExpr node) { return children(node); }
+        private int arrayAccess(ASTArrayAccess node) { return children(node); }
+        private int identifier(ASTIdentifier node) { return children(node); }
+        private int intValue(ASTIntValue node) { return children(node); }
+        private int boolValue(ASTBoolValue node) { return children(node); }
+    }
+}
@@ -0,0 +1,186 @@
+package analyzer.visitors;
+
+import analyzer.ast.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+
+/**
+ * Profil d'exécution écrit par ProfileRunner et lu par IntermediateCodeGenFallVisitor et le générateur de code
+ * machine.
+ * <p>
+ * Chaque if, while et for du programme est un site de branchement, numéroté dans l'ordre du texte. Le profil compte,
+ * pour chaque site, les évaluations de la condition et celles qui l'ont trouvée vraie : ces nombres ne dépendent que
+ * de l'AST et restent donc valables quand la disposition du code change. Il compte aussi les lectures et les écritures
+ * de chaque variable du programme, pondérées par le nombre d'exécutions de leur bloc.
+ * <p>
+ * Le profil est lié à son programme par une clé calculée sur l'AST, que le code instrumenté affecte à la variable _p :
+ * un profil ne sert qu'au programme qui a la même clé, et seuls les profils d'un même programme s'additionnent.
+ * <p>
+ * Le fichier commence par la ligne "program clé", suivie d'une ligne par site, "branch site évaluations vraies", puis
+ * d'une par variable, "variable nom accès". Les profils de plusieurs exécutions s'additionnent.
+ */
+public class ExecutionProfile {
+    // Préfixes des compteurs insérés par l'instrumentation, des variables que le programme ne peut pas nommer.
+    public static final String ENTRIES = "_n";
+    public static final String TAKEN = "_v";
+    public static final String BLOCK = "_b";
+    public static final String PROGRAM = "_p";
+
+    // Clé du programme profilé, 0 tant qu'elle n'est pas connue.
+    private int m_program = 0;
+
+    // Évaluations et conditions vraies de chaque site.
+    private final TreeMap<Integer, long[]> m_branches = new TreeMap<>();
+    private final TreeMap<String, Long> m_uses = new TreeMap<>();
+
+    /**
+     * Numérote les sites de branchement d'un programme, dans l'ordre du texte. Un if sans condition n'en est pas un.
+     */
+    public static HashMap<Node, Integer> sites(ASTProgram program) {
+        HashMap<Node, Integer> sites = new HashMap<>();
+        number(program, sites);
+        return sites;
+    }
+
+    private static void number(Node node, HashMap<Node, Integer> sites) {
+        if (node instanceof ASTIfStmt && node.jjtGetNumChildren() > 1
+                || node instanceof ASTWhileStmt || node instanceof ASTForStmt) {
+            sites.put(node, sites.size());
+        }
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            number(node.jjtGetChild(i), sites);
+        }
+    }
+
+    /**
+     * Clé d'un programme, positive : elle dépend du type, de la valeur et des opérateurs de chaque noeud, dans l'ordre
+     * du texte. Deux programmes de même clé ont donc les mêmes sites de branchement et les mêmes variables.
+     */
+    public static int key(ASTProgram program) {
+        return hash(program, 17) & Integer.MAX_VALUE;
+    }
+
+    private static int hash(Node node, int hash) {
+        hash = 31 * hash + node.getClass().getSimpleName().hashCode();
+        hash = 31 * hash + Objects.hashCode(value(node));
+        hash = 31 * hash + node.jjtGetNumChildren();
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            hash = hash(node.jjtGetChild(i), hash);
+        }
+        return hash;
+    }
+
+    private static Object value(Node node) {
+        if (node instanceof ASTIdentifier) return ((ASTIdentifier) node).getValue();
+        if (node instanceof ASTIntValue) return ((ASTIntValue) node).getValue();
+        if (node instanceof ASTBoolValue) return ((ASTBoolValue) node).getValue();
+        if (node instanceof ASTDeclaration) return ((ASTDeclaration) node).getValue();
+        if (node instanceof ASTCompExpr) return ((ASTCompExpr) node).getValue();
+        if (node instanceof ASTAddExpr) return ((ASTAddExpr) node).getOps();
+        if (node instanceof ASTMulExpr) return ((ASTMulExpr) node).getOps();
+        if (node instanceof ASTBoolExpr) return ((ASTBoolExpr) node).getOps();
+        if (node instanceof ASTUnaExpr) return ((ASTUnaExpr) node).getOps();
+        if (node instanceof ASTNotExpr) return ((ASTNotExpr) node).getOps();
+        return null;
+    }
+
+    public int program() {
+        return m_program;
+    }
+
+    public void setProgram(int key) {
+        if (m_program != 0 && key != m_program) {
+            throw new IllegalArgumentException("Profile of program " + m_program + ", not of program " + key);
+        }
+        m_program = key;
+    }
+
+    /**
+     * @throws IllegalArgumentException Si le profil n'est pas celui du programme
+     */
+    public void check(ASTProgram program) {
+        int key = key(program);
+        if (m_program != key) {
+            throw new IllegalArgumentException("Profile of program " + m_program + ", not of program " + key);
+        }
+    }
+
+    public void addBranch(int site, long entries, long taken) {
+        long[] counts = m_branches.computeIfAbsent(site, s -> new long[2]);
+        counts[0] += entries;
+        counts[1] += taken;
+    }
+
+    public void addUses(String variable, long uses) {
+        m_uses.merge(variable, uses, Long::sum);
+    }
+
+    public void add(ExecutionProfile other) {
+        setProgram(other.m_program);
+        for (Map.Entry<Integer, long[]> branch : other.m_branches.entrySet()) {
+            addBranch(branch.getKey(), branch.getValue()[0], branch.getValue()[1]);
+        }
+        for (Map.Entry<String, Long> variable : other.m_uses.entrySet()) {
+            addUses(variable.getKey(), variable.getValue());
+        }
+    }
+
+    /**
+     * Nombre d'évaluations de la condition du site, 0 si le profil ne le connaît pas.
+     */
+    public long entries(int site) {
+        long[] counts = m_branches.get(site);
+        return counts == null ? 0 : counts[0];
+    }
+
+    /**
+     * Nombre d'évaluations où la condition du site était vraie.
+     */
+    public long taken(int site) {
+        long[] counts = m_branches.get(site);
+        return counts == null ? 0 : counts[1];
+    }
+
+    public long uses(String variable) {
+        return m_uses.getOrDefault(variable, 0L);
+    }
+
+    public static ExecutionProfile read(Reader reader) throws IOException {
+        ExecutionProfile profile = new ExecutionProfile();
+        BufferedReader in = new BufferedReader(reader);
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            String[] tokens = line.split("\\s+");
+            if (tokens[0].equals("program") && tokens.length == 2) {
+                profile.setProgram(Integer.parseInt(tokens[1]));
+            } else if (tokens[0].equals("branch") && tokens.length == 4) {
+                profile.addBranch(Integer.parseInt(tokens[1]), Long.parseLong(tokens[2]), Long.parseLong(tokens[3]));
+            } else if (tokens[0].equals("variable") && tokens.length == 3) {
+                profile.addUses(tokens[1], Long.parseLong(tokens[2]));
+            } else {
+                throw new IllegalArgumentException("Invalid profile line: " + line);
+            }
+        }
+        return profile;
+    }
+
+    public void write(PrintWriter writer) {
+        writer.println("program " + m_program);
+        for (Map.Entry<Integer, long[]> branch : m_branches.entrySet()) {
+            writer.println("branch " + branch.getKey() + " " + branch.getValue()[0] + " " + branch.getValue()[1]);
+        }
+        for (Map.Entry<String, Long> variable : m_uses.entrySet()) {
+            writer.println("variable " + variable.getKey() + " " + variable.getValue());
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package analyzer.visitors;
+
+import analyzer.ast.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+
+/**
+ * Choisit les appels de fonction que IntermediateCodeGenVisitor et IntermediateCodeGenFallVisitor remplacent par le
+ * corps de la fonction appelée.
+ * <p>
+ * La taille d'une fonction est le nombre de noeuds de ses paramètres, de son corps et de son retour, une approximation
+ * du nombre d'instructions générées. La fréquence d'un appel est LOOP_FREQUENCY par boucle englobante, multipliée par
+ * la fréquence des appels de la fonction qui le contient. Un appel est remplacé quand :
+ * <ul>
+ *     <li>la fonction a au plus SMALL_SIZE noeuds, son corps coûte alors à peine plus que l'appel ;</li>
+ *     <li>c'est le seul appel de la fonction, qui disparaît alors du code ;</li>
+ *     <li>le code ajouté (la taille de la fonction, par copie de l'appelant) ne dépasse pas les CALL_COST instructions
+ *     économisées à chaque exécution de l'appel, tant que le total ajouté reste sous le budget.</li>
+ * </ul>
+ * Les appelants sont traités avant les fonctions qu'ils appellent : le programme, puis les fonctions de la dernière
+ * déclarée à la première, ce qui est possible puisqu'une fonction ne voit que les fonctions déclarées avant elle. Une
+ * fonction n'est générée à part que si au moins un de ses appels n'est pas remplacé.
+ */
+public class FunctionInliner {
+    public static final int SMALL_SIZE = 12;
+    // call, return et la copie du résultat
+    public static final int CALL_COST = 3;
+    public static final int LOOP_FREQUENCY = 10;
+    public static final int MAX_FREQUENCY = 1000;
+    public static final int MIN_BUDGET = 64;
+
+    private final HashMap<String, Function> m_functions = new HashMap<>();
+    private final ArrayList<Function> m_order = new ArrayList<>();
+    private final Function m_program = new Function();
+    private final HashSet<Node> m_inlined = new HashSet<>();
+
+    // variables pour les metrics
+    public int INLINED = 0;
+    public int CALLS = 0;
+    public int REMOVED = 0;
+    public int GROWTH = 0;
+
+    /**
+     * @param enabled Sans remplacement, tous les appels restent des appels
+     */
+    public FunctionInliner(ASTProgram program, boolean enabled) {
+        int programSize = collect(program, m_program, 0);
+        int budget = Math.max(MIN_BUDGET, programSize);
+
+        m_program.frequency = 1;
+        m_program.reachable = true;
+        m_program.copies = 1;
+        for (int i = m_order.size() - 1; i >= 0; i--) {
+            Function function = m_order.get(i);
+            for (Call call : function.calls) {
+                if (call.caller.reachable) {
+                    function.reachable = true;
+                    function.liveCalls++;
+                    function.frequency = Math.min(MAX_FREQUENCY, function.frequency + frequency(call));
+                }
+            }
+        }
+
+        decide(m_program, enabled, budget);
+        for (int i = m_order.size() - 1; i >= 0; i--) {
+            Function function = m_order.get(i);
+            if (function.emitted) function.copies++;
+            else REMOVED++;
+            decide(function, enabled, budget);
+        }
+    }
+
+    /**
+     * Enregistre les fonctions et les appels sous un noeud.
+     *
+     * @return Le nombre de noeuds visités
+     */
+    private int collect(Node node, Function caller, int depth) {
+        if (node instanceof ASTFuncStmt) {
+            String name = ((ASTIdentifier) node.jjtGetChild(0).jjtGetChild(node.jjtGetChild(0).jjtGetNumChildren() - 1)).getValue();
+            Function function = new Function();
+            m_functions.put(name, function);
+            m_order.add(function);
+            int size = 1;
+            for (int i = 1; i < node.jjtGetNumChildren(); i++) {
+                size += collect(node.jjtGetChild(i), function, 0);
+            }
+            function.size = size - 1;
+            return size;
+        }
+        if (node instanceof ASTCallExpr) {
+            Function callee = m_functions.get(((ASTIdentifier) node.jjtGetChild(0)).getValue());
+            if (callee != null) {
+                Call call = new Call(node, caller, depth);
+                callee.calls.add(call);
+                caller.sites.add(call);
+            }
+        }
+        if (node instanceof ASTWhileStmt || node instanceof ASTForStmt) depth++;
+        int size = 1;
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            size += collect(node.jjtGetChild(i), caller, depth);
+        }
+        return size;
+    }
+
+    private static long frequency(Call call) {
+        long frequency = call.caller.frequency;
+        for (int i = 0; i < call.depth && frequency < MAX_FREQUENCY; i++) frequency *= LOOP_FREQUENCY;
+        return Math.min(MAX_FREQUENCY, frequency);
+    }
+
+    /**
+     * Décide des appels faits dans le code d'une fonction, les plus rentables d'abord.
+     */
+    private void decide(Function caller, boolean enabled, int budget) {
+        if (caller.copies == 0) return;
+        ArrayList<Call> sites = new ArrayList<>(caller.sites);
+        sites.sort((a, b) -> Double.compare((double) frequency(b) / m_functions.get(name(b)).size,
+                (double) frequency(a) / m_functions.get(name(a)).size));
+        for (Call call : sites) {
+            Function callee = m_functions.get(name(call));
+            int growth = callee.size * caller.copies;
+            boolean inline;
+            if (!enabled) {
+                inline = false;
+            } else if (callee.size <= SMALL_SIZE) {
+                inline = true;
+            } else if (callee.liveCalls == 1 && caller.copies == 1) {
+                inline = true;
+                growth = 0;
+            } else {
+                inline = growth <= CALL_COST * frequency(call) && GROWTH + growth <= budget;
+            }
+
+            if (inline) {
+                m_inlined.add(call.node);
+                callee.copies += caller.copies;
+                GROWTH += growth;
+                INLINED++;
+            } else {
+                callee.emitted = true;
+                CALLS++;
+            }
+        }
+    }
+
+    private static String name(Call call) {
+        return ((ASTIdentifier) call.node.jjtGetChild(0)).getValue();
+    }
+
+    /**
+     * Vrai si l'appel doit être remplacé par le corps de la fonction.
+     */
+    public boolean inlines(Node call) {
+        return m_inlined.contains(call);
+    }
+
+    /**
+     * Vrai si au moins un appel de la fonction reste un appel, son code doit alors être généré.
+     */
+    public boolean emits(String function) {
+        Function f = m_functions.get(function);
+        return f != null && f.emitted;
+    }
+
+    public String metrics() {
+        return String.format("{INLINED:%d, CALLS:%d, REMOVED:%d, GROWTH:%d}", INLINED, CALLS, REMOVED, GROWTH);
+    }
+
+    private static class Function {
+        public final ArrayList<Call> calls = new ArrayList<>();
+        public final ArrayList<Call> sites = new ArrayList<>();
+        public int size = 0;
+        public int liveCalls = 0;
+        public long frequency = 0;
+        public boolean reachable = false;
+        public boolean emitted = false;
+        // Nombre de fois que le code de la fonction apparaît dans la sortie.
+        public int copies = 0;
+    }
+
+    private static class Call {
+        public final Node node;
+        public final Function caller;
+        public final int depth;
+
+        public Call(Node node, Function caller, int depth) {
+            this.node = node;
+            this.caller = caller;
+            this.depth = depth;
+        }
+    }
+}
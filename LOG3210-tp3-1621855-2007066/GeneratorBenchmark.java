@@ -0,0 +1,148 @@
+package analyzer.visitors;
+
+import analyzer.ast.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/**
+ * Compare sur un corpus le code de IntermediateCodeGenVisitor, qui nomme les deux sorties de chaque condition (LABELS),
+ * à celui de IntermediateCodeGenFallVisitor, qui laisse la sortie la plus probable suivre la condition (FALL).
+ * <p>
+ * Chaque programme est généré par les deux visiteurs à partir de deux AST distincts, puis exécuté par IRInterpreter
+ * avec les mêmes entrées. Les variables du programme doivent avoir les mêmes valeurs finales. Le tableau donne, pour
+ * chaque programme puis pour le corpus entier, les instructions et les étiquettes du code généré, sans les déclarations
+ * de tableaux, les instructions exécutées, les sauts conditionnels exécutés et les sauts pris (goto compris).
+ */
+public class GeneratorBenchmark {
+    private static final String ROW = "%-24s %9s %9s %9s %9s %11s %11s %9s %9s %9s %9s%n";
+
+    /**
+     * Usage : GeneratorBenchmark [-strength-reduction] [-static-prediction] fichier|dossier ... [variable=valeur ...]
+     * <p>
+     * Un dossier compte pour tous ses fichiers, dans l'ordre de leurs noms. -strength-reduction active la réduction
+     * des deux visiteurs, -static-prediction la prédiction de IntermediateCodeGenFallVisitor.
+     */
+    public static void main(String[] args) throws IOException, ParseException {
+        ArrayList<Path> corpus = new ArrayList<>();
+        HashMap<String, Integer> inputs = new HashMap<>();
+        boolean strengthReduction = false;
+        boolean staticPrediction = false;
+        for (String arg : args) {
+            String[] input = arg.split("=", 2);
+            if (arg.equals("-strength-reduction")) {
+                strengthReduction = true;
+            } else if (arg.equals("-static-prediction")) {
+                staticPrediction = true;
+            } else if (input.length == 2) {
+                inputs.put(input[0], Integer.parseInt(input[1]));
+            } else if (Files.isDirectory(Paths.get(arg))) {
+                try (Stream<Path> files = Files.list(Paths.get(arg))) {
+                    corpus.addAll(files.filter(Files::isRegularFile).sorted().collect(Collectors.toList()));
+                }
+            } else {
+                corpus.add(Paths.get(arg));
+            }
+        }
+        if (corpus.isEmpty()) {
+            System.err.println("Usage: GeneratorBenchmark [-strength-reduction] [-static-prediction] <file|directory> ... [variable=value ...]");
+            System.exit(1);
+        }
+
+        PrintWriter writer = new PrintWriter(System.out);
+        writer.printf(ROW, "PROGRAM", "LINES", "", "LABELS", "", "EXECUTED", "", "BRANCHES", "", "TAKEN", "");
+        writer.printf(ROW, "", "LABELS", "FALL", "LABELS", "FALL", "LABELS", "FALL", "LABELS", "FALL", "LABELS", "FALL");
+        Run labelsTotal = new Run();
+        Run fallTotal = new Run();
+        for (Path file : corpus) {
+            byte[] source = Files.readAllBytes(file);
+            Run labels = run(source, false, strengthReduction, staticPrediction, inputs);
+            Run fall = run(source, true, strengthReduction, staticPrediction, inputs);
+            if (!labels.values.equals(fall.values)) {
+                throw new IllegalStateException("Generators disagree on " + file + ": " + labels.values + " and " + fall.values);
+            }
+            print(writer, file.getFileName().toString(), labels, fall);
+            labelsTotal.add(labels);
+            fallTotal.add(fall);
+        }
+        print(writer, "TOTAL", labelsTotal, fallTotal);
+        writer.flush();
+    }
+
+    /**
+     * Génère et exécute un programme avec l'un des deux visiteurs.
+     *
+     * @param fall Si le code vient de IntermediateCodeGenFallVisitor plutôt que de IntermediateCodeGenVisitor
+     */
+    private static Run run(byte[] source, boolean fall, boolean strengthReduction, boolean staticPrediction,
+                           Map<String, Integer> inputs) throws IOException, ParseException {
+        ASTProgram program = Parser.ParseTree(new ByteArrayInputStream(source));
+        StringWriter code = new StringWriter();
+        PrintWriter codeWriter = new PrintWriter(code);
+        IREmitter emitter = new IREmitter(codeWriter);
+        if (fall) {
+            IntermediateCodeGenFallVisitor visitor = new IntermediateCodeGenFallVisitor(emitter);
+            visitor.StrengthReduction = strengthReduction;
+            visitor.StaticPrediction = staticPrediction;
+            program.jjtAccept(visitor, null);
+        } else {
+            IntermediateCodeGenVisitor visitor = new IntermediateCodeGenVisitor(emitter);
+            visitor.StrengthReduction = strengthReduction;
+            program.jjtAccept(visitor, null);
+        }
+        codeWriter.flush();
+
+        IRInterpreter interpreter = IRInterpreter.load(new StringReader(code.toString()));
+        int[] slots = interpreter.execute(inputs);
+
+        Run run = new Run();
+        run.lines = emitter.instructions();
+        run.labels = emitter.LABEL_LINES;
+        run.executed = interpreter.EXECUTED;
+        run.branches = interpreter.BRANCHES;
+        run.taken = interpreter.TAKEN;
+        for (String variable : interpreter.variables()) {
+            if (!variable.startsWith("_")) run.values.put(variable, slots[interpreter.slotOf(variable)]);
+        }
+        return run;
+    }
+
+    private static void print(PrintWriter writer, String name, Run labels, Run fall) {
+        writer.printf(ROW, name, labels.lines, fall.lines, labels.labels, fall.labels, labels.executed, fall.executed,
+                labels.branches, fall.branches, labels.taken, fall.taken);
+    }
+
+    /**
+     * Les metrics d'un programme généré et exécuté, ou leur somme sur le corpus.
+     */
+    private static class Run {
+        long lines = 0;
+        long labels = 0;
+        long executed = 0;
+        long branches = 0;
+        long taken = 0;
+        // La valeur finale de chaque variable du programme
+        final TreeMap<String, Integer> values = new TreeMap<>();
+
+        void add(Run run) {
+            lines += run.lines;
+            labels += run.labels;
+            executed += run.executed;
+            branches += run.branches;
+            taken += run.taken;
+        }
+    }
+}
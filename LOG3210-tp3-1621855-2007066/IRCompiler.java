@@ -0,0 +1,622 @@
+package analyzer.visitors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+
+/**
+ * Compile le code intermédiaire (tel que chargé par IRInterpreter) en bytecode JVM.
+ * <p>
+ * Chaque variable devient une variable locale de la méthode execute(int[]) et chaque étiquette devient une cible
+ * de branchement ; les tableaux restent dans le tableau de cases. La classe générée est définie comme classe cachée
+ * via MethodHandles.Lookup, ce qui laisse HotSpot la compiler comme n'importe quel code Java.
+ * <p>
+ * Le bytecode ne permet pas de sauter à une adresse calculée. Chaque appel a donc un numéro de site, qu'il empile
+ * avant de sauter à la fonction ; son site de retour, juste après ce saut, copie le résultat dans la variable de
+ * l'appel. Un retour dépile le numéro et choisit le site avec un tableswitch.
+ */
+public class IRCompiler {
+    public interface Program {
+        void execute(int[] slots);
+    }
+
+    private static final String CLASS_NAME = "analyzer/visitors/CompiledProgram";
+    private static final String INTERFACE_NAME = "analyzer/visitors/IRCompiler$Program";
+
+    // Les deux premieres variables locales sont this et le tableau de cases.
+    private static final int FIRST_LOCAL = 2;
+
+    private final IRInterpreter m_ir;
+    private final int[] m_code;
+    private final int m_varCount;
+    private final int m_callDepth;
+    private final int m_callSites;
+
+    private final ConstantPool m_pool = new ConstantPool();
+    private ByteArrayOutputStream m_bytes;
+    private int[] m_offsets;
+    private ArrayList<int[]> m_fixups;
+    private TreeSet<Integer> m_frames;
+    // Offset de chaque site de retour, par numéro d'appel.
+    private ArrayList<Integer> m_sites;
+    // Les cases des tableswitch des retours : offset du tableswitch, offset de la case, numéro du site.
+    private ArrayList<int[]> m_siteFixups;
+
+    private IRCompiler(IRInterpreter ir) {
+        m_ir = ir;
+        m_code = ir.code();
+        m_varCount = ir.varCount();
+        m_callDepth = ir.callDepth();
+        int callSites = 0;
+        boolean returns = false;
+        for (int pc = 0; pc < m_code.length; pc += IRInterpreter.WIDTH) {
+            if (m_code[pc] == IRInterpreter.CALL) callSites++;
+            if (m_code[pc] == IRInterpreter.RET) returns = true;
+        }
+        if (returns && callSites == 0) {
+            throw new IllegalArgumentException("IR return without any call");
+        }
+        m_callSites = callSites;
+    }
+
+    public static Program compile(IRInterpreter ir) {
+        byte[] classFile = new IRCompiler(ir).generateClass();
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            return (Program) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not define compiled program", e);
+        }
+    }
+
+    private byte[] generateClass() {
+        byte[] body = generateMethod(false);
+        if (body.length > Short.MAX_VALUE) {
+            body = generateMethod(true);
+        }
+        if (body.length > 65535) {
+            throw new UnsupportedOperationException("Program is too large for a single JVM method");
+        }
+
+        int thisClass = m_pool.classRef(CLASS_NAME);
+        int superClass = m_pool.classRef("java/lang/Object");
+        int programInterface = m_pool.classRef(INTERFACE_NAME);
+        int objectInit = m_pool.methodRef("java/lang/Object", "<init>", "()V");
+        int intArray = m_pool.classRef("[I");
+        int initName = m_pool.utf8("<init>");
+        int initType = m_pool.utf8("()V");
+        int executeName = m_pool.utf8("execute");
+        int executeType = m_pool.utf8("([I)V");
+        int codeName = m_pool.utf8("Code");
+        int frameName = m_pool.utf8("StackMapTable");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream classFile = new DataOutputStream(out);
+        try {
+            classFile.writeInt(0xCAFEBABE);
+            classFile.writeShort(0);
+            classFile.writeShort(52);
+            m_pool.write(classFile);
+            classFile.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+            classFile.writeShort(thisClass);
+            classFile.writeShort(superClass);
+            classFile.writeShort(1);
+            classFile.writeShort(programInterface);
+            classFile.writeShort(0);
+            classFile.writeShort(2);
+
+            // public <init>() { super(); }
+            classFile.writeShort(0x0001);
+            classFile.writeShort(initName);
+            classFile.writeShort(initType);
+            classFile.writeShort(1);
+            classFile.writeShort(codeName);
+            classFile.writeInt(12 + 5);
+            classFile.writeShort(1);
+            classFile.writeShort(1);
+            classFile.writeInt(5);
+            classFile.writeByte(0x2a); // aload_0
+            classFile.writeByte(0xb7); // invokespecial
+            classFile.writeShort(objectInit);
+            classFile.writeByte(0xb1); // return
+            classFile.writeShort(0);
+            classFile.writeShort(0);
+
+            // public void execute(int[] slots)
+            byte[] frames = stackMapTable(thisClass, intArray);
+            classFile.writeShort(0x0001);
+            classFile.writeShort(executeName);
+            classFile.writeShort(executeType);
+            classFile.writeShort(1);
+            classFile.writeShort(codeName);
+            classFile.writeInt(12 + body.length + 6 + frames.length);
+            classFile.writeShort(3);
+            classFile.writeShort(localCount());
+            classFile.writeInt(body.length);
+            classFile.write(body);
+            classFile.writeShort(0);
+            classFile.writeShort(1);
+            classFile.writeShort(frameName);
+            classFile.writeInt(frames.length);
+            classFile.write(frames);
+
+            classFile.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Génère le corps de execute(int[]). En mode wide, les branchements passent par goto_w.
+     */
+    private byte[] generateMethod(boolean wide) {
+        m_bytes = new ByteArrayOutputStream();
+        m_offsets = new int[m_code.length / IRInterpreter.WIDTH];
+        m_fixups = new ArrayList<>();
+        m_frames = new TreeSet<>();
+        m_sites = new ArrayList<>();
+        m_siteFixups = new ArrayList<>();
+
+        // Les cases du tableau sont copiees dans les variables locales a l'entree.
+        for (int slot = 0; slot < m_varCount; slot++) {
+            emit(0x2b); // aload_1
+            pushConstant(slot);
+            emit(0x2e); // iaload
+            storeLocal(slot);
+        }
+        if (m_callSites > 0) {
+            // La pile des sites de retour, son sommet et le résultat du dernier retour.
+            pushConstant(m_callDepth);
+            emit(0xbc); // newarray
+            emit(10); // int
+            localInstruction(0x3a, sitesLocal()); // astore
+            emit(0x03); // iconst_0
+            storeLocal(sitesLocal() + 1);
+            emit(0x03); // iconst_0
+            storeLocal(resultLocal());
+        }
+
+        for (int pc = 0; pc < m_code.length; pc += IRInterpreter.WIDTH) {
+            m_offsets[pc / IRInterpreter.WIDTH] = m_bytes.size();
+            int a = m_code[pc + 1];
+            int b = m_code[pc + 2];
+            int c = m_code[pc + 3];
+            switch (m_code[pc]) {
+                case IRInterpreter.MOV:
+                    load(b);
+                    storeLocal(a);
+                    break;
+                case IRInterpreter.ADD:
+                    arithmetic(a, b, c, 0x60);
+                    break;
+                case IRInterpreter.SUB:
+                    arithmetic(a, b, c, 0x64);
+                    break;
+                case IRInterpreter.MUL:
+                    arithmetic(a, b, c, 0x68);
+                    break;
+                case IRInterpreter.DIV:
+                    arithmetic(a, b, c, 0x6c);
+                    break;
+                case IRInterpreter.NEG:
+                    load(b);
+                    emit(0x74); // ineg
+                    storeLocal(a);
+                    break;
+                case IRInterpreter.LOAD:
+                    emit(0x2b); // aload_1
+                    pushConstant(b);
+                    load(c);
+                    emit(0x60); // iadd
+                    emit(0x2e); // iaload
+                    storeLocal(a);
+                    break;
+                case IRInterpreter.STORE:
+                    emit(0x2b); // aload_1
+                    pushConstant(a);
+                    load(b);
+                    emit(0x60); // iadd
+                    load(c);
+                    emit(0x4f); // iastore
+                    break;
+                case IRInterpreter.GOTO:
+                    jump(a, wide);
+                    m_frames.add(m_bytes.size());
+                    break;
+                case IRInterpreter.CALL:
+                    call(a, b, wide);
+                    break;
+                case IRInterpreter.RET:
+                    ret(a);
+                    break;
+                case IRInterpreter.HALT:
+                    for (int slot = 0; slot < m_varCount; slot++) {
+                        emit(0x2b); // aload_1
+                        pushConstant(slot);
+                        load(slot);
+                        emit(0x4f); // iastore
+                    }
+                    emit(0xb1); // return
+                    break;
+                default:
+                    load(a);
+                    load(b);
+                    int opcode = compareOpcode(m_code[pc]);
+                    if (wide) {
+                        emit(negate(opcode));
+                        emitShort(3 + 5);
+                        jump(c, true);
+                        m_frames.add(m_bytes.size());
+                    } else {
+                        branch(opcode, c);
+                    }
+                    break;
+            }
+        }
+
+        byte[] body = m_bytes.toByteArray();
+        for (int[] fixup : m_fixups) {
+            int from = fixup[0];
+            int to = m_offsets[fixup[1] / IRInterpreter.WIDTH];
+            int delta = to - from;
+            if (fixup[2] == 4) {
+                body[from + 1] = (byte) (delta >>> 24);
+                body[from + 2] = (byte) (delta >>> 16);
+                body[from + 3] = (byte) (delta >>> 8);
+                body[from + 4] = (byte) delta;
+            } else {
+                body[from + 1] = (byte) (delta >>> 8);
+                body[from + 2] = (byte) delta;
+            }
+            m_frames.add(to);
+        }
+        for (int[] fixup : m_siteFixups) {
+            int to = m_sites.get(fixup[2]);
+            int delta = to - fixup[0];
+            body[fixup[1]] = (byte) (delta >>> 24);
+            body[fixup[1] + 1] = (byte) (delta >>> 16);
+            body[fixup[1] + 2] = (byte) (delta >>> 8);
+            body[fixup[1] + 3] = (byte) delta;
+        }
+        m_frames.remove(body.length);
+        return body;
+    }
+
+    /**
+     * sites[sp++] = numéro de l'appel ; goto fonction ; site de retour : assign = résultat
+     */
+    private void call(int assign, int function, boolean wide) {
+        localInstruction(0x19, sitesLocal()); // aload
+        localInstruction(0x15, sitesLocal() + 1); // iload
+        pushConstant(m_sites.size());
+        emit(0x4f); // iastore
+        localInstruction(0x15, sitesLocal() + 1); // iload
+        emit(0x04); // iconst_1
+        emit(0x60); // iadd
+        storeLocal(sitesLocal() + 1);
+        jump(function, wide);
+
+        m_sites.add(m_bytes.size());
+        m_frames.add(m_bytes.size());
+        localInstruction(0x15, resultLocal()); // iload
+        storeLocal(assign);
+    }
+
+    /**
+     * résultat = value ; switch (sites[--sp]) { case i: goto site i }
+     */
+    private void ret(int value) {
+        load(value);
+        storeLocal(resultLocal());
+        localInstruction(0x15, sitesLocal() + 1); // iload
+        emit(0x04); // iconst_1
+        emit(0x64); // isub
+        storeLocal(sitesLocal() + 1);
+        localInstruction(0x19, sitesLocal()); // aload
+        localInstruction(0x15, sitesLocal() + 1); // iload
+        emit(0x2e); // iaload
+
+        int base = m_bytes.size();
+        emit(0xaa); // tableswitch
+        while (m_bytes.size() % 4 != 0) {
+            emit(0);
+        }
+        // Tous les numéros dépilés sont dans [0, m_callSites - 1] : le défaut mène au premier site.
+        m_siteFixups.add(new int[]{base, m_bytes.size(), 0});
+        emitInt(0);
+        emitInt(0);
+        emitInt(m_callSites - 1);
+        for (int site = 0; site < m_callSites; site++) {
+            m_siteFixups.add(new int[]{base, m_bytes.size(), site});
+            emitInt(0);
+        }
+        m_frames.add(m_bytes.size());
+    }
+
+    // Après les variables : la pile des sites de retour (int[]), son sommet puis le résultat du dernier retour.
+    private int sitesLocal() {
+        return m_varCount;
+    }
+
+    private int resultLocal() {
+        return m_varCount + 2;
+    }
+
+    private int localCount() {
+        return FIRST_LOCAL + m_varCount + (m_callSites > 0 ? 3 : 0);
+    }
+
+    private void arithmetic(int assign, int left, int right, int opcode) {
+        load(left);
+        load(right);
+        emit(opcode);
+        storeLocal(assign);
+    }
+
+    private void jump(int target, boolean wide) {
+        m_fixups.add(new int[]{m_bytes.size(), target, wide ? 4 : 2});
+        if (wide) {
+            emit(0xc8); // goto_w
+            emitShort(0);
+            emitShort(0);
+        } else {
+            emit(0xa7); // goto
+            emitShort(0);
+        }
+    }
+
+    private void branch(int opcode, int target) {
+        m_fixups.add(new int[]{m_bytes.size(), target, 2});
+        emit(opcode);
+        emitShort(0);
+    }
+
+    private static int compareOpcode(int opcode) {
+        switch (opcode) {
+            case IRInterpreter.IF_EQ: return 0x9f;
+            case IRInterpreter.IF_NE: return 0xa0;
+            case IRInterpreter.IF_LT: return 0xa1;
+            case IRInterpreter.IF_GE: return 0xa2;
+            case IRInterpreter.IF_GT: return 0xa3;
+            case IRInterpreter.IF_LE: return 0xa4;
+            default: throw new IllegalArgumentException("Invalid IR opcode " + opcode);
+        }
+    }
+
+    private static int negate(int opcode) {
+        // if_icmpeq/ne, lt/ge et gt/le sont des paires consecutives.
+        return ((opcode - 0x9f) ^ 1) + 0x9f;
+    }
+
+    private void load(int slot) {
+        if (slot < m_varCount) {
+            localInstruction(0x15, slot); // iload
+        } else {
+            pushConstant(m_ir.constantValue(slot));
+        }
+    }
+
+    private void storeLocal(int slot) {
+        localInstruction(0x36, slot); // istore
+    }
+
+    private void localInstruction(int opcode, int slot) {
+        int local = FIRST_LOCAL + slot;
+        if (local > 255) {
+            emit(0xc4); // wide
+            emit(opcode);
+            emitShort(local);
+        } else {
+            emit(opcode);
+            emit(local);
+        }
+    }
+
+    private void pushConstant(int value) {
+        if (value >= -1 && value <= 5) {
+            emit(0x03 + value); // iconst_<n>
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            emit(0x10); // bipush
+            emit(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            emit(0x11); // sipush
+            emitShort(value);
+        } else {
+            emit(0x13); // ldc_w
+            emitShort(m_pool.integer(value));
+        }
+    }
+
+    private void emit(int b) {
+        m_bytes.write(b);
+    }
+
+    private void emitShort(int s) {
+        m_bytes.write(s >>> 8);
+        m_bytes.write(s);
+    }
+
+    private void emitInt(int i) {
+        emitShort(i >>> 16);
+        emitShort(i);
+    }
+
+    /**
+     * Toutes les cibles partagent le même état : this, int[] puis une variable int par case, pile vide. Avec des
+     * appels s'y ajoutent la pile des sites de retour (int[]), son sommet et le résultat.
+     */
+    private byte[] stackMapTable(int thisClass, int intArray) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream table = new DataOutputStream(out);
+        try {
+            table.writeShort(m_frames.size());
+            int previous = -1;
+            for (int offset : m_frames) {
+                table.writeByte(255); // full_frame
+                table.writeShort(offset - previous - 1);
+                table.writeShort(localCount());
+                table.writeByte(7);
+                table.writeShort(thisClass);
+                table.writeByte(7);
+                table.writeShort(intArray);
+                for (int i = 0; i < m_varCount; i++) {
+                    table.writeByte(1); // int
+                }
+                if (m_callSites > 0) {
+                    table.writeByte(7);
+                    table.writeShort(intArray);
+                    table.writeByte(1); // int
+                    table.writeByte(1); // int
+                }
+                table.writeShort(0);
+                previous = offset;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static class ConstantPool {
+        private final ByteArrayOutputStream m_bytes = new ByteArrayOutputStream();
+        private final DataOutputStream m_out = new DataOutputStream(m_bytes);
+        private final HashMap<String, Integer> m_entries = new HashMap<>();
+        private int m_count = 1;
+
+        int utf8(String value) {
+            return entry("U" + value, () -> {
+                m_out.writeByte(1);
+                m_out.writeUTF(value);
+            });
+        }
+
+        int integer(int value) {
+            return entry("I" + value, () -> {
+                m_out.writeByte(3);
+                m_out.writeInt(value);
+            });
+        }
+
+        int classRef(String name) {
+            int nameIndex = utf8(name);
+            return entry("C" + name, () -> {
+                m_out.writeByte(7);
+                m_out.writeShort(nameIndex);
+            });
+        }
+
+        int methodRef(String owner, String name, String type) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int typeIndex = utf8(type);
+            int nameAndType = entry("N" + name + type, () -> {
+                m_out.writeByte(12);
+                m_out.writeShort(nameIndex);
+                m_out.writeShort(typeIndex);
+            });
+            return entry("M" + owner + "." + name + type, () -> {
+                m_out.writeByte(10);
+                m_out.writeShort(ownerIndex);
+                m_out.writeShort(nameAndType);
+            });
+        }
+
+        private int entry(String key, Entry writer) {
+            Integer index = m_entries.get(key);
+            if (index == null) {
+                try {
+                    writer.write();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                index = m_count++;
+                m_entries.put(key, index);
+            }
+            return index;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeShort(m_count);
+            m_bytes.writeTo(out);
+        }
+
+        private interface Entry {
+            void write() throws IOException;
+        }
+    }
+
+    /**
+     * Usage : IRCompiler fichier.ir [-n iterations] [variable=valeur ...]
+     * <p>
+     * Exécute le programme avec l'interpréteur puis avec le code compilé, vérifie que les variables finales
+     * sont identiques et affiche le temps moyen par exécution.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: IRCompiler <file.ir> [-n iterations] [variable=value ...]");
+            System.exit(1);
+        }
+        IRInterpreter interpreter;
+        try (FileReader reader = new FileReader(args[0])) {
+            interpreter = IRInterpreter.load(reader);
+        }
+        int iterations = 1000;
+        int[] inputs = interpreter.newSlots();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-n")) {
+                iterations = Integer.parseInt(args[++i]);
+                continue;
+            }
+            String[] input = args[i].split("=", 2);
+            if (input.length != 2) {
+                throw new IllegalArgumentException("Invalid input " + args[i] + ", expected variable=value");
+            }
+            int slot = interpreter.slotOf(input[0]);
+            if (slot >= 0) inputs[slot] = Integer.parseInt(input[1]);
+        }
+
+        Program compiled = compile(interpreter);
+
+        int[] expected = inputs.clone();
+        int[] actual = inputs.clone();
+        interpreter.execute(expected);
+        compiled.execute(actual);
+        if (!Arrays.equals(expected, actual)) {
+            throw new IllegalStateException("Compiled program disagrees with the interpreter");
+        }
+
+        long interpreted = time(iterations, inputs, interpreter::execute);
+        long compiledTime = time(iterations, inputs, compiled::execute);
+
+        PrintWriter writer = new PrintWriter(System.out);
+        interpreter.printVariables(actual, writer);
+        interpreter.printMetrics(writer);
+        writer.println(String.format("{ITERATIONS:%d, INTERPRETER_NS:%d, COMPILED_NS:%d, SPEEDUP:%.1f}",
+                iterations, interpreted / iterations, compiledTime / iterations, (double) interpreted / Math.max(1, compiledTime)));
+        writer.flush();
+    }
+
+    private static long time(int iterations, int[] inputs, Program program) {
+        int[] slots = inputs.clone();
+        for (int i = 0; i < iterations; i++) {
+            System.arraycopy(inputs, 0, slots, 0, inputs.length);
+            program.execute(slots);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            System.arraycopy(inputs, 0, slots, 0, inputs.length);
+            program.execute(slots);
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,404 @@
+package analyzer.visitors;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+/**
+ * Écrit le code intermédiaire des visiteurs IntermediateCodeGenVisitor et IntermediateCodeGenFallVisitor.
+ * <p>
+ * Chaque instruction est copiée morceau par morceau (mots-clés, opérandes, entiers) dans un tampon direct réutilisé,
+ * vidé par blocs de BUFFER_SIZE octets vers un canal ou un Writer. Le texte est identique à celui de
+ * PrintWriter.println : les chaînes sont encodées en UTF-8 et chaque ligne se termine par System.lineSeparator().
+ * Les noms _tN et _LN sont partagés par tous les visiteurs, une compilation ne crée donc que les noms qu'aucune
+ * compilation précédente n'a utilisés.
+ */
+public class IREmitter {
+    public static final int BUFFER_SIZE = 1 << 16;
+    // Variable mise à 1 par le bloc atteint lors d'un accès hors des bornes d'un tableau.
+    public static final String OUT_OF_BOUNDS = "_outOfBounds";
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private static final byte[] GOTO = " goto ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ASSIGN = " = ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CALL = " = call ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RETURN = "return ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ARRAY = "array ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INDEXED_ASSIGN = "] = ".getBytes(StandardCharsets.US_ASCII);
+
+    private static volatile String[] TEMPORARIES = new String[0];
+    private static volatile String[] LABELS = new String[0];
+
+    private final ByteBuffer m_buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final WritableByteChannel m_channel;
+    private final Writer m_writer;
+    private final CharsetDecoder m_decoder;
+    private final CharBuffer m_chars;
+
+    // Avec l'instrumentation, chaque bloc de base commence par l'incrément de son compteur _bN.
+    public boolean Instrumentation = false;
+    private boolean m_blockStart = true;
+    // Nombre de blocs comptés, partagé avec les émetteurs obtenus par deferred.
+    private final int[] m_blocks;
+
+    // variables pour les metrics
+    public long LINES = 0;
+    public long BYTES = 0;
+    public long LABEL_LINES = 0;
+    public long DECLARATION_LINES = 0;
+
+    public IREmitter(WritableByteChannel channel) {
+        m_channel = channel;
+        m_writer = null;
+        m_decoder = null;
+        m_chars = null;
+        m_blocks = new int[1];
+    }
+
+    public IREmitter(Writer writer) {
+        this(writer, new int[1]);
+    }
+
+    private IREmitter(Writer writer, int[] blocks) {
+        m_channel = null;
+        m_writer = writer;
+        m_decoder = StandardCharsets.UTF_8.newDecoder();
+        m_chars = CharBuffer.allocate(BUFFER_SIZE);
+        m_blocks = blocks;
+    }
+
+    /**
+     * Un émetteur en mémoire pour du code placé hors de l'ordre d'exécution, ajouté plus tard à celui-ci par
+     * appendDeferred. Ses blocs sont numérotés à la suite de ceux de cet émetteur.
+     */
+    public IREmitter deferred() {
+        IREmitter deferred = new IREmitter(new StringWriter(), m_blocks);
+        deferred.Instrumentation = Instrumentation;
+        return deferred;
+    }
+
+    /**
+     * Ajoute le code d'un émetteur obtenu par deferred, qui doit se terminer par un saut.
+     */
+    public void appendDeferred(IREmitter deferred) {
+        deferred.flush();
+        append(((StringWriter) deferred.m_writer).toString());
+        LINES += deferred.LINES;
+        LABEL_LINES += deferred.LABEL_LINES;
+        DECLARATION_LINES += deferred.DECLARATION_LINES;
+        m_blockStart = true;
+    }
+
+    public static String temporaryName(int id) {
+        String[] names = TEMPORARIES;
+        if (id >= names.length) {
+            names = TEMPORARIES = grow(names, id, "_t");
+        }
+        return names[id];
+    }
+
+    public static String labelName(int id) {
+        String[] names = LABELS;
+        if (id >= names.length) {
+            names = LABELS = grow(names, id, "_L");
+        }
+        return names[id];
+    }
+
+    private static String[] grow(String[] names, int id, String prefix) {
+        String[] grown = Arrays.copyOf(names, Math.max(id + 1, Math.max(64, 2 * names.length)));
+        for (int i = names.length; i < grown.length; i++) {
+            grown[i] = prefix + i;
+        }
+        return grown;
+    }
+
+    /**
+     * label
+     */
+    public void label(String label) {
+        append(label);
+        endLine();
+        LABEL_LINES++;
+        m_blockStart = true;
+    }
+
+    /**
+     * goto label
+     */
+    public void jump(String label) {
+        instruction();
+        put(GOTO, 1);
+        append(label);
+        endLine();
+        m_blockStart = true;
+    }
+
+    /**
+     * destination = source
+     */
+    public void copy(String destination, String source) {
+        instruction();
+        append(destination);
+        put(ASSIGN, 0);
+        append(source);
+        endLine();
+    }
+
+    /**
+     * destination = value
+     */
+    public void copy(String destination, int value) {
+        instruction();
+        append(destination);
+        put(ASSIGN, 0);
+        append(value);
+        endLine();
+    }
+
+    /**
+     * destination = left op right
+     */
+    public void operation(String destination, String left, String op, String right) {
+        instruction();
+        append(destination);
+        put(ASSIGN, 0);
+        append(left);
+        append(' ');
+        append(op);
+        append(' ');
+        append(right);
+        endLine();
+    }
+
+    /**
+     * destination = - source
+     */
+    public void negate(String destination, String source) {
+        instruction();
+        append(destination);
+        put(ASSIGN, 0);
+        append('-');
+        append(' ');
+        append(source);
+        endLine();
+    }
+
+    /**
+     * destination = call function
+     */
+    public void call(String destination, String function) {
+        instruction();
+        append(destination);
+        put(CALL, 0);
+        append(function);
+        endLine();
+    }
+
+    /**
+     * return value
+     */
+    public void returnValue(String value) {
+        instruction();
+        put(RETURN, 0);
+        append(value);
+        endLine();
+        m_blockStart = true;
+    }
+
+    /**
+     * array name length, la déclaration d'un tableau, qui n'est pas une instruction
+     */
+    public void array(String array, int length) {
+        put(ARRAY, 0);
+        append(array);
+        append(' ');
+        append(length);
+        endLine();
+        DECLARATION_LINES++;
+    }
+
+    /**
+     * destination = array[index]
+     */
+    public void load(String destination, String array, String index) {
+        instruction();
+        append(destination);
+        put(ASSIGN, 0);
+        append(array);
+        append('[');
+        append(index);
+        append(']');
+        endLine();
+    }
+
+    /**
+     * array[index] = source
+     */
+    public void store(String array, String index, String source) {
+        instruction();
+        append(array);
+        append('[');
+        append(index);
+        put(INDEXED_ASSIGN, 0);
+        append(source);
+        endLine();
+    }
+
+    /**
+     * keyword left op right goto label, où keyword est if ou ifFalse
+     */
+    public void branch(String keyword, String left, String op, String right, String label) {
+        instruction();
+        append(keyword);
+        append(' ');
+        append(left);
+        append(' ');
+        append(op);
+        append(' ');
+        append(right);
+        put(GOTO, 0);
+        append(label);
+        endLine();
+        m_blockStart = true;
+    }
+
+    /**
+     * keyword left op value goto label, où keyword est if ou ifFalse
+     */
+    public void branch(String keyword, String left, String op, int value, String label) {
+        instruction();
+        append(keyword);
+        append(' ');
+        append(left);
+        append(' ');
+        append(op);
+        append(' ');
+        append(value);
+        put(GOTO, 0);
+        append(label);
+        endLine();
+        m_blockStart = true;
+    }
+
+    /**
+     * Compte l'exécution du bloc avant sa première instruction, avec l'instrumentation.
+     */
+    private void instruction() {
+        if (!Instrumentation || !m_blockStart) return;
+        m_blockStart = false;
+        String counter = ExecutionProfile.BLOCK + m_blocks[0]++;
+        append(counter);
+        put(ASSIGN, 0);
+        append(counter);
+        append(" + 1");
+        endLine();
+    }
+
+    private void append(String text) {
+        if (text == null) text = "null";
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (m_buffer.remaining() < 4) drain();
+            if (c < 0x80) {
+                m_buffer.put((byte) c);
+            } else if (c < 0x800) {
+                m_buffer.put((byte) (0xC0 | (c >> 6)));
+                m_buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                m_buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                m_buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                m_buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                m_buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // Comme l'encodeur UTF-8 de PrintWriter, une demi-paire isolée devient '?'.
+                m_buffer.put((byte) '?');
+            } else {
+                m_buffer.put((byte) (0xE0 | (c >> 12)));
+                m_buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                m_buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private void append(char c) {
+        if (!m_buffer.hasRemaining()) drain();
+        m_buffer.put((byte) c);
+    }
+
+    /**
+     * Écrit les chiffres de la droite vers la gauche, directement à leur position dans le tampon.
+     */
+    private void append(int value) {
+        if (m_buffer.remaining() < 11) drain();
+        long magnitude = value;
+        if (magnitude < 0) {
+            m_buffer.put((byte) '-');
+            magnitude = -magnitude;
+        }
+        int digits = 1;
+        for (long rest = magnitude / 10; rest > 0; rest /= 10) digits++;
+        int end = m_buffer.position() + digits;
+        for (int at = end - 1; at >= m_buffer.position(); at--) {
+            m_buffer.put(at, (byte) ('0' + magnitude % 10));
+            magnitude /= 10;
+        }
+        m_buffer.position(end);
+    }
+
+    private void put(byte[] bytes, int from) {
+        if (m_buffer.remaining() < bytes.length - from) drain();
+        m_buffer.put(bytes, from, bytes.length - from);
+    }
+
+    private void endLine() {
+        put(LINE_SEPARATOR, 0);
+        LINES++;
+    }
+
+    /**
+     * Vide le tampon vers la sortie. Le Writer lui-même n'est pas vidé, comme avec println.
+     */
+    public void flush() {
+        drain();
+    }
+
+    private void drain() {
+        m_buffer.flip();
+        BYTES += m_buffer.remaining();
+        try {
+            if (m_channel != null) {
+                while (m_buffer.hasRemaining()) m_channel.write(m_buffer);
+            } else {
+                m_decoder.decode(m_buffer, m_chars, false);
+                m_writer.write(m_chars.array(), 0, m_chars.position());
+                m_chars.clear();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        m_buffer.compact();
+        BYTES -= m_buffer.position();
+    }
+
+    /**
+     * Nombre d'instructions émises : les lignes, sans les étiquettes ni les déclarations de tableaux.
+     */
+    public long instructions() {
+        return LINES - LABEL_LINES - DECLARATION_LINES;
+    }
+
+    public String metrics() {
+        return String.format("{LINES:%d, BYTES:%d, LABEL_LINES:%d, DECLARATION_LINES:%d}", LINES, BYTES, LABEL_LINES, DECLARATION_LINES);
+    }
+}
@@ -0,0 +1,484 @@
+package analyzer.visitors;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Exécute le code intermédiaire produit par IntermediateCodeGenVisitor et IntermediateCodeGenFallVisitor.
+ * <p>
+ * Le texte est chargé une seule fois dans un bytecode compact : chaque instruction occupe WIDTH entiers
+ * (opcode, a, b, c) et les étiquettes sont résolues en offsets avant l'exécution. Les variables et les
+ * constantes partagent un même tableau de cases, ce qui permet à la boucle d'interprétation de ne rien allouer.
+ * <p>
+ * Un appel "t = call f" saute à l'étiquette f et "return x" copie x dans t puis revient après l'appel. Le langage
+ * n'ayant pas de récursion, les paramètres et les variables d'une fonction ont des cases fixes et seules les adresses
+ * de retour sont empilées, au plus une par fonction appelée.
+ * <p>
+ * Un tableau déclaré par "array a n" occupe n cases consécutives, entre les variables et les constantes. "x = a[i]"
+ * et "a[i] = x" accèdent à la case a + i sans vérifier i : le code intermédiaire vérifie lui-même les bornes.
+ */
+public class IRInterpreter {
+    public static final int MOV = 0;
+    public static final int ADD = 1;
+    public static final int SUB = 2;
+    public static final int MUL = 3;
+    public static final int DIV = 4;
+    public static final int NEG = 5;
+    public static final int GOTO = 6;
+    public static final int IF_EQ = 7;
+    public static final int IF_NE = 8;
+    public static final int IF_LT = 9;
+    public static final int IF_LE = 10;
+    public static final int IF_GT = 11;
+    public static final int IF_GE = 12;
+    public static final int HALT = 13;
+    public static final int CALL = 14;
+    public static final int RET = 15;
+    public static final int LOAD = 16;
+    public static final int STORE = 17;
+
+    public static final int WIDTH = 4;
+
+    private final int[] code;
+    private final int[] initialSlots;
+    private final int varCount;
+    private final int callDepth;
+    private final String[] names;
+    private final HashMap<String, Integer> slotOf;
+    // Première case et longueur de chaque tableau.
+    private final LinkedHashMap<String, int[]> arrays;
+
+    // variables pour les metrics de la derniere execution
+    public long EXECUTED = 0;
+    public long BRANCHES = 0;
+    public long TAKEN = 0;
+    public long MULTIPLIES = 0;
+
+    private IRInterpreter(int[] code, int[] initialSlots, int varCount, int callDepth, String[] names,
+                          HashMap<String, Integer> slotOf, LinkedHashMap<String, int[]> arrays) {
+        this.code = code;
+        this.initialSlots = initialSlots;
+        this.varCount = varCount;
+        this.callDepth = callDepth;
+        this.names = names;
+        this.slotOf = slotOf;
+        this.arrays = arrays;
+    }
+
+    public static IRInterpreter load(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        ArrayList<String[]> lines = new ArrayList<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (!line.isEmpty()) {
+                lines.add(line.split("\\s+"));
+            }
+        }
+        return load(lines);
+    }
+
+    private static IRInterpreter load(List<String[]> lines) {
+        // Premiere passe : chaque etiquette pointe sur l'instruction qui la suit.
+        HashMap<String, Integer> labels = new HashMap<>();
+        int count = 0;
+        for (String[] tokens : lines) {
+            if (tokens.length == 1) {
+                labels.put(tokens[0], count * WIDTH);
+            } else if (!isArrayDeclaration(tokens)) {
+                count++;
+            }
+        }
+
+        // Les variables occupent les premieres cases, puis les tableaux, les constantes sont ajoutees a la fin.
+        HashMap<String, Integer> varSlots = new HashMap<>();
+        ArrayList<String> varNames = new ArrayList<>();
+        HashSet<String> functions = new HashSet<>();
+        LinkedHashMap<String, int[]> arrays = new LinkedHashMap<>();
+        int arraySlots = 0;
+        for (String[] tokens : lines) {
+            if (isArrayDeclaration(tokens)) {
+                arrays.put(tokens[1], new int[]{arraySlots, Integer.parseInt(tokens[2])});
+                arraySlots += Integer.parseInt(tokens[2]);
+            } else if (tokens.length == 4 && tokens[1].equals("=") && tokens[2].equals("call")) {
+                addVariable(tokens[0], varSlots, varNames);
+                functions.add(tokens[3]);
+            } else if (tokens.length == 2 && tokens[0].equals("return")) {
+                if (isVariable(tokens[1])) addVariable(tokens[1], varSlots, varNames);
+            } else if (tokens.length >= 3 && tokens[1].equals("=")) {
+                for (int i = 0; i < tokens.length; i++) {
+                    String token = isIndexed(tokens[i]) ? index(tokens[i]) : tokens[i];
+                    if (i != 1 && isVariable(token)) addVariable(token, varSlots, varNames);
+                }
+            } else if (tokens.length == 6) {
+                if (isVariable(tokens[1])) addVariable(tokens[1], varSlots, varNames);
+                if (isVariable(tokens[3])) addVariable(tokens[3], varSlots, varNames);
+            }
+        }
+        int varCount = varNames.size();
+        for (int[] array : arrays.values()) {
+            array[0] += varCount;
+        }
+        int constBase = varCount + arraySlots;
+        HashMap<Integer, Integer> constSlots = new HashMap<>();
+        ArrayList<Integer> constants = new ArrayList<>();
+
+        int[] code = new int[(count + 1) * WIDTH];
+        int pc = 0;
+        for (String[] tokens : lines) {
+            if (tokens.length == 1 || isArrayDeclaration(tokens)) continue;
+
+            if (tokens[0].equals("goto") && tokens.length == 2) {
+                code[pc] = GOTO;
+                code[pc + 1] = target(labels, tokens[1]);
+            } else if ((tokens[0].equals("if") || tokens[0].equals("ifFalse")) && tokens.length == 6 && tokens[4].equals("goto")) {
+                int opcode = compareOpcode(tokens[2]);
+                code[pc] = tokens[0].equals("if") ? opcode : negate(opcode);
+                code[pc + 1] = operand(tokens[1], varSlots, constBase, constSlots, constants);
+                code[pc + 2] = operand(tokens[3], varSlots, constBase, constSlots, constants);
+                code[pc + 3] = target(labels, tokens[5]);
+            } else if (tokens[0].equals("return") && tokens.length == 2) {
+                code[pc] = RET;
+                code[pc + 1] = operand(tokens[1], varSlots, constBase, constSlots, constants);
+            } else if (tokens[1].equals("=") && tokens.length == 4 && tokens[2].equals("call")) {
+                code[pc] = CALL;
+                code[pc + 1] = varSlots.get(tokens[0]);
+                code[pc + 2] = target(labels, tokens[3]);
+            } else if (tokens[1].equals("=") && tokens.length == 3 && isIndexed(tokens[0])) {
+                code[pc] = STORE;
+                code[pc + 1] = arrayBase(arrays, tokens[0]);
+                code[pc + 2] = operand(index(tokens[0]), varSlots, constBase, constSlots, constants);
+                code[pc + 3] = operand(tokens[2], varSlots, constBase, constSlots, constants);
+            } else if (tokens[1].equals("=") && tokens.length == 3 && isIndexed(tokens[2])) {
+                code[pc] = LOAD;
+                code[pc + 1] = varSlots.get(tokens[0]);
+                code[pc + 2] = arrayBase(arrays, tokens[2]);
+                code[pc + 3] = operand(index(tokens[2]), varSlots, constBase, constSlots, constants);
+            } else if (tokens[1].equals("=") && tokens.length == 3) {
+                code[pc] = MOV;
+                code[pc + 1] = varSlots.get(tokens[0]);
+                code[pc + 2] = operand(tokens[2], varSlots, constBase, constSlots, constants);
+            } else if (tokens[1].equals("=") && tokens.length == 4 && tokens[2].equals("-")) {
+                code[pc] = NEG;
+                code[pc + 1] = varSlots.get(tokens[0]);
+                code[pc + 2] = operand(tokens[3], varSlots, constBase, constSlots, constants);
+            } else if (tokens[1].equals("=") && tokens.length == 5) {
+                code[pc] = arithmeticOpcode(tokens[3]);
+                code[pc + 1] = varSlots.get(tokens[0]);
+                code[pc + 2] = operand(tokens[2], varSlots, constBase, constSlots, constants);
+                code[pc + 3] = operand(tokens[4], varSlots, constBase, constSlots, constants);
+            } else {
+                throw new IllegalArgumentException("Invalid IR instruction: " + String.join(" ", tokens));
+            }
+            pc += WIDTH;
+        }
+        code[pc] = HALT;
+
+        int[] initialSlots = new int[constBase + constants.size()];
+        for (int i = 0; i < constants.size(); i++) {
+            initialSlots[constBase + i] = constants.get(i);
+        }
+        return new IRInterpreter(code, initialSlots, varCount, functions.size(), varNames.toArray(new String[0]), varSlots, arrays);
+    }
+
+    private static boolean isArrayDeclaration(String[] tokens) {
+        return tokens.length == 3 && tokens[0].equals("array") && !tokens[1].equals("=");
+    }
+
+    private static boolean isIndexed(String token) {
+        return token.endsWith("]") && token.indexOf('[') > 0;
+    }
+
+    private static String index(String token) {
+        return token.substring(token.indexOf('[') + 1, token.length() - 1);
+    }
+
+    private static int arrayBase(HashMap<String, int[]> arrays, String token) {
+        int[] array = arrays.get(token.substring(0, token.indexOf('[')));
+        if (array == null) {
+            throw new IllegalArgumentException("Undefined IR array: " + token);
+        }
+        return array[0];
+    }
+
+    private static boolean isVariable(String token) {
+        char c = token.charAt(0);
+        return Character.isLetter(c) || c == '_';
+    }
+
+    private static void addVariable(String name, HashMap<String, Integer> varSlots, ArrayList<String> varNames) {
+        if (!varSlots.containsKey(name)) {
+            varSlots.put(name, varNames.size());
+            varNames.add(name);
+        }
+    }
+
+    private static int operand(String token, HashMap<String, Integer> varSlots, int constBase,
+                               HashMap<Integer, Integer> constSlots, ArrayList<Integer> constants) {
+        if (isVariable(token)) {
+            return varSlots.get(token);
+        }
+        int value;
+        try {
+            value = Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid IR operand: " + token);
+        }
+        Integer slot = constSlots.get(value);
+        if (slot == null) {
+            slot = constBase + constants.size();
+            constSlots.put(value, slot);
+            constants.add(value);
+        }
+        return slot;
+    }
+
+    private static int target(HashMap<String, Integer> labels, String label) {
+        Integer offset = labels.get(label);
+        if (offset == null) {
+            throw new IllegalArgumentException("Undefined IR label: " + label);
+        }
+        return offset;
+    }
+
+    private static int arithmeticOpcode(String op) {
+        switch (op) {
+            case "+": return ADD;
+            case "-": return SUB;
+            case "*": return MUL;
+            case "/": return DIV;
+            default: throw new IllegalArgumentException("Invalid IR operator: " + op);
+        }
+    }
+
+    private static int compareOpcode(String op) {
+        switch (op) {
+            case "==": return IF_EQ;
+            case "!=": return IF_NE;
+            case "<": return IF_LT;
+            case "<=": return IF_LE;
+            case ">": return IF_GT;
+            case ">=": return IF_GE;
+            default: throw new IllegalArgumentException("Invalid IR comparison: " + op);
+        }
+    }
+
+    private static int negate(int opcode) {
+        switch (opcode) {
+            case IF_EQ: return IF_NE;
+            case IF_NE: return IF_EQ;
+            case IF_LT: return IF_GE;
+            case IF_LE: return IF_GT;
+            case IF_GT: return IF_LE;
+            default: return IF_LT;
+        }
+    }
+
+    int[] code() {
+        return code;
+    }
+
+    int varCount() {
+        return varCount;
+    }
+
+    /**
+     * Le nombre maximal d'appels en cours, une fonction ne pouvant pas s'appeler elle-même.
+     */
+    int callDepth() {
+        return callDepth;
+    }
+
+    int constantValue(int slot) {
+        return initialSlots[slot];
+    }
+
+    public int slotOf(String variable) {
+        Integer slot = slotOf.get(variable);
+        return slot == null ? -1 : slot;
+    }
+
+    public String[] variables() {
+        return names.clone();
+    }
+
+    /**
+     * Alloue un tableau de cases initialisé (constantes en place, variables à 0).
+     */
+    public int[] newSlots() {
+        return initialSlots.clone();
+    }
+
+    public int[] execute(Map<String, Integer> inputs) {
+        int[] slots = newSlots();
+        for (Map.Entry<String, Integer> input : inputs.entrySet()) {
+            int slot = slotOf(input.getKey());
+            if (slot >= 0) slots[slot] = input.getValue();
+        }
+        execute(slots);
+        return slots;
+    }
+
+    /**
+     * Boucle d'interprétation. Les compteurs restent dans des variables locales jusqu'à la fin. Un appel ou un retour
+     * compte comme un branchement pris.
+     */
+    public void execute(int[] s) {
+        final int[] code = this.code;
+        long executed = 0;
+        long branches = 0;
+        long taken = 0;
+        long multiplies = 0;
+        int pc = 0;
+        // Adresse de retour et case du résultat de chaque appel en cours.
+        final int[] frames = new int[2 * callDepth];
+        int sp = 0;
+
+        dispatch:
+        while (true) {
+            switch (code[pc]) {
+                case MOV:
+                    s[code[pc + 1]] = s[code[pc + 2]];
+                    pc += WIDTH;
+                    break;
+                case ADD:
+                    s[code[pc + 1]] = s[code[pc + 2]] + s[code[pc + 3]];
+                    pc += WIDTH;
+                    break;
+                case SUB:
+                    s[code[pc + 1]] = s[code[pc + 2]] - s[code[pc + 3]];
+                    pc += WIDTH;
+                    break;
+                case MUL:
+                    multiplies++;
+                    s[code[pc + 1]] = s[code[pc + 2]] * s[code[pc + 3]];
+                    pc += WIDTH;
+                    break;
+                case DIV:
+                    s[code[pc + 1]] = s[code[pc + 2]] / s[code[pc + 3]];
+                    pc += WIDTH;
+                    break;
+                case NEG:
+                    s[code[pc + 1]] = -s[code[pc + 2]];
+                    pc += WIDTH;
+                    break;
+                case GOTO:
+                    branches++;
+                    taken++;
+                    pc = code[pc + 1];
+                    break;
+                case CALL:
+                    if (sp == frames.length) throw new IllegalStateException("Recursive IR call at " + pc / WIDTH);
+                    branches++;
+                    taken++;
+                    frames[sp++] = pc + WIDTH;
+                    frames[sp++] = code[pc + 1];
+                    pc = code[pc + 2];
+                    break;
+                case RET:
+                    if (sp == 0) throw new IllegalStateException("IR return outside of a call at " + pc / WIDTH);
+                    branches++;
+                    taken++;
+                    int result = s[code[pc + 1]];
+                    s[frames[--sp]] = result;
+                    pc = frames[--sp];
+                    break;
+                case LOAD:
+                    s[code[pc + 1]] = s[code[pc + 2] + s[code[pc + 3]]];
+                    pc += WIDTH;
+                    break;
+                case STORE:
+                    s[code[pc + 1] + s[code[pc + 2]]] = s[code[pc + 3]];
+                    pc += WIDTH;
+                    break;
+                case IF_EQ:
+                    branches++;
+                    if (s[code[pc + 1]] == s[code[pc + 2]]) { taken++; pc = code[pc + 3]; } else pc += WIDTH;
+                    break;
+                case IF_NE:
+                    branches++;
+                    if (s[code[pc + 1]] != s[code[pc + 2]]) { taken++; pc = code[pc + 3]; } else pc += WIDTH;
+                    break;
+                case IF_LT:
+                    branches++;
+                    if (s[code[pc + 1]] < s[code[pc + 2]]) { taken++; pc = code[pc + 3]; } else pc += WIDTH;
+                    break;
+                case IF_LE:
+                    branches++;
+                    if (s[code[pc + 1]] <= s[code[pc + 2]]) { taken++; pc = code[pc + 3]; } else pc += WIDTH;
+                    break;
+                case IF_GT:
+                    branches++;
+                    if (s[code[pc + 1]] > s[code[pc + 2]]) { taken++; pc = code[pc + 3]; } else pc += WIDTH;
+                    break;
+                case IF_GE:
+                    branches++;
+                    if (s[code[pc + 1]] >= s[code[pc + 2]]) { taken++; pc = code[pc + 3]; } else pc += WIDTH;
+                    break;
+                default:
+                    break dispatch;
+            }
+            executed++;
+        }
+
+        EXECUTED = executed;
+        BRANCHES = branches;
+        TAKEN = taken;
+        MULTIPLIES = multiplies;
+    }
+
+    public void printVariables(int[] slots, PrintWriter writer) {
+        for (int i = 0; i < varCount; i++) {
+            if (!names[i].startsWith("_t")) {
+                writer.println(names[i] + " = " + slots[i]);
+            }
+        }
+        for (Map.Entry<String, int[]> array : arrays.entrySet()) {
+            int base = array.getValue()[0];
+            writer.println(array.getKey() + " = " + Arrays.toString(Arrays.copyOfRange(slots, base, base + array.getValue()[1])));
+        }
+    }
+
+    public void printMetrics(PrintWriter writer) {
+        writer.println(String.format("{EXECUTED:%d, BRANCHES:%d, TAKEN:%d, MULTIPLIES:%d}", EXECUTED, BRANCHES, TAKEN, MULTIPLIES));
+    }
+
+    /**
+     * Usage : IRInterpreter fichier.ir [variable=valeur ...]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: IRInterpreter <file.ir> [variable=value ...]");
+            System.exit(1);
+        }
+        IRInterpreter interpreter;
+        try (FileReader reader = new FileReader(args[0])) {
+            interpreter = load(reader);
+        }
+        HashMap<String, Integer> inputs = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            String[] input = args[i].split("=", 2);
+            if (input.length != 2) {
+                throw new IllegalArgumentException("Invalid input " + args[i] + ", expected variable=value");
+            }
+            inputs.put(input[0], Integer.parseInt(input[1]));
+        }
+        int[] slots = interpreter.execute(inputs);
+
+        PrintWriter writer = new PrintWriter(System.out);
+        interpreter.printVariables(slots, writer);
+        interpreter.printMetrics(writer);
+        writer.flush();
+    }
+}
@@ -0,0 +1,199 @@
+package analyzer.visitors;
+
+import analyzer.ast.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.function.Supplier;
+
+
+/**
+ * Remplace, pour IntermediateCodeGenVisitor et IntermediateCodeGenFallVisitor, les multiplications par la variable
+ * d'induction d'une boucle for par des accumulateurs incrémentés.
+ * <p>
+ * Une boucle est réduite quand sa mise à jour est i = i + c, i = c + i ou i = i - c, et que ni sa condition ni son
+ * corps n'assignent i ou n'appellent une fonction. Chaque produit i * k ou k * i de la condition ou du corps, où k est
+ * une constante, est alors lu dans un accumulateur : il reçoit i * k après l'initialisation et augmente de c * k après
+ * chaque mise à jour. Les produits de même facteur partagent un accumulateur. Le calcul est exact même en cas de
+ * débordement, (i + c) * k et i * k + c * k étant égaux modulo 2^32.
+ * <p>
+ * La variable d'induction est elle-même éliminée quand elle ne sert plus qu'à la condition :
+ * <ul>
+ *     <li>RangeAnalysis reconnaît la boucle, son initialisation et sa borne sont donc des constantes ;</li>
+ *     <li>i n'apparaît dans le corps que dans des produits réduits ;</li>
+ *     <li>un des facteurs est positif et les valeurs de son accumulateur ne débordent pas.</li>
+ * </ul>
+ * La condition compare alors cet accumulateur à la borne multipliée par le facteur et la mise à jour de i disparaît.
+ * Comme plus rien ne lit i dans la boucle, l'initialisation lui donne directement sa valeur finale, connue d'avance.
+ */
+public class InductionVariables {
+    // Boucle et facteur de chaque produit des boucles en cours de génération.
+    private final HashMap<Node, Product> m_products = new HashMap<>();
+
+    // variables pour les metrics
+    public int LOOPS = 0;
+    public int PRODUCTS = 0;
+    public int ACCUMULATORS = 0;
+    public int ELIMINATED = 0;
+
+    /**
+     * Analyse une boucle avant la génération de son corps et nomme ses accumulateurs.
+     *
+     * @param names Fournit les noms des accumulateurs
+     * @return La boucle à réduire, null si elle n'a aucun produit à réduire
+     */
+    public Loop enter(ASTForStmt node, Supplier<String> names) {
+        if (node.jjtGetNumChildren() != 4
+                || !(node.jjtGetChild(0) instanceof ASTAssignStmt)
+                || !(node.jjtGetChild(2) instanceof ASTAssignStmt)) {
+            return null;
+        }
+        String variable = RangeAnalysis.assigned(node.jjtGetChild(0));
+        Long step = RangeAnalysis.step(node.jjtGetChild(2), variable);
+        if (step == null || RangeAnalysis.assigns(node.jjtGetChild(1), variable)
+                || RangeAnalysis.assigns(node.jjtGetChild(3), variable)) {
+            return null;
+        }
+
+        Loop loop = new Loop(variable, RangeAnalysis.constant(node.jjtGetChild(0).jjtGetChild(1)), step);
+        ArrayList<Node> products = new ArrayList<>();
+        collect(node.jjtGetChild(1), loop, products);
+        collect(node.jjtGetChild(3), loop, products);
+        if (products.isEmpty()) {
+            return null;
+        }
+
+        for (Node product : products) {
+            int factor = factor(product, variable);
+            if (!loop.accumulators.containsKey(factor)) {
+                loop.accumulators.put(factor, names.get());
+            }
+            m_products.put(product, new Product(loop, factor));
+        }
+        LOOPS++;
+        PRODUCTS += products.size();
+        ACCUMULATORS += loop.accumulators.size();
+
+        long[] range = RangeAnalysis.loopRange(node);
+        if (range != null && occurrences(node.jjtGetChild(3), variable) == products.size()) {
+            eliminate(loop, range);
+        }
+        return loop;
+    }
+
+    /**
+     * Choisit l'accumulateur qui remplace i dans la condition et calcule la valeur finale de i.
+     */
+    private void eliminate(Loop loop, long[] range) {
+        long initial = loop.initial;
+        long step = loop.step;
+        // Dernière valeur de i pour laquelle la condition est vraie, dans le sens de la boucle.
+        long last = step > 0 ? range[1] : range[0];
+        boolean runs = step > 0 ? initial <= last : initial >= last;
+        long finalValue = runs ? initial + ((last - initial) / step + 1) * step : initial;
+        for (int factor : loop.accumulators.keySet()) {
+            if (factor > 0 && fits(initial * factor) && fits(finalValue * factor) && fits(last * factor)) {
+                loop.testFactor = factor;
+                loop.testOp = step > 0 ? "<=" : ">=";
+                loop.limit = (int) (last * factor);
+                loop.finalValue = (int) finalValue;
+                ELIMINATED++;
+                return;
+            }
+        }
+    }
+
+    private static boolean fits(long value) {
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Retire les produits d'une boucle après la génération de son corps.
+     */
+    public void leave(Loop loop) {
+        if (loop != null) {
+            m_products.values().removeIf(product -> product.loop == loop);
+        }
+    }
+
+    /**
+     * L'accumulateur qui remplace un produit, null si le noeud n'en est pas un.
+     */
+    public String accumulator(Node product) {
+        Product p = m_products.get(product);
+        return p == null ? null : p.loop.accumulators.get(p.factor);
+    }
+
+    /**
+     * Les produits i * k et k * i sous un noeud.
+     */
+    private static void collect(Node node, Loop loop, ArrayList<Node> products) {
+        if (node instanceof ASTMulExpr && factor(node, loop.variable) != null) {
+            products.add(node);
+            return;
+        }
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            collect(node.jjtGetChild(i), loop, products);
+        }
+    }
+
+    private static Integer factor(Node node, String variable) {
+        if (node.jjtGetNumChildren() != 2 || !((ASTMulExpr) node).getOps().get(0).equals("*")) return null;
+        Long left = RangeAnalysis.constant(node.jjtGetChild(0));
+        Long right = RangeAnalysis.constant(node.jjtGetChild(1));
+        if (variable.equals(RangeAnalysis.identifier(node.jjtGetChild(0))) && right != null) return right.intValue();
+        if (variable.equals(RangeAnalysis.identifier(node.jjtGetChild(1))) && left != null) return left.intValue();
+        return null;
+    }
+
+    private static int occurrences(Node node, String variable) {
+        int count = node instanceof ASTIdentifier && variable.equals(SymbolResolver.name((ASTIdentifier) node)) ? 1 : 0;
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            count += occurrences(node.jjtGetChild(i), variable);
+        }
+        return count;
+    }
+
+    public String metrics() {
+        return String.format("{LOOPS:%d, PRODUCTS:%d, ACCUMULATORS:%d, ELIMINATED:%d}", LOOPS, PRODUCTS, ACCUMULATORS, ELIMINATED);
+    }
+
+    /**
+     * Une boucle réduite.
+     */
+    public static class Loop {
+        public final String variable;
+        // Valeur initiale de i si c'est une constante, null sinon.
+        public final Long initial;
+        public final long step;
+        // Accumulateur de chaque facteur, dans l'ordre de leur premier produit.
+        public final LinkedHashMap<Integer, String> accumulators = new LinkedHashMap<>();
+
+        // Si i est éliminée : la condition est "accumulateur de testFactor testOp limit".
+        public int testFactor = 0;
+        public String testOp = null;
+        public int limit = 0;
+        public int finalValue = 0;
+
+        public Loop(String variable, Long initial, long step) {
+            this.variable = variable;
+            this.initial = initial;
+            this.step = step;
+        }
+
+        public boolean eliminated() {
+            return testOp != null;
+        }
+    }
+
+    private static class Product {
+        public final Loop loop;
+        public final int factor;
+
+        public Product(Loop loop, int factor) {
+            this.loop = loop;
+            this.factor = factor;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package analyzer.visitors;
+
+import analyzer.ast.*;
+
+
+/**
+ * Base de IntermediateCodeGenVisitor et IntermediateCodeGenFallVisitor.
+ * <p>
+ * Seul le programme est visité par jjtAccept. Le générateur parcourt ensuite ses noeuds par un switch sur leur type
+ * (SimpleNode.getId()), vers une méthode typée selon le rôle du noeud : une instruction reçoit l'étiquette de
+ * l'instruction suivante, une expression les sorties de sa condition et retourne son opérande. Ni double dispatch ni
+ * conversion de l'Object retourné à chaque noeud, voir DispatchBenchmark. Les autres visites ne sont donc jamais
+ * appelées.
+ */
+public abstract class IntermediateCodeGenBase implements ParserVisitor {
+    protected static int kind(Node node) {
+        return ((SimpleNode) node).getId();
+    }
+
+    protected static IllegalArgumentException unexpected(String role, Node node) {
+        return new IllegalArgumentException("Unexpected " + role + ": " + node);
+    }
+
+    private static UnsupportedOperationException visited(Node node) {
+        return new UnsupportedOperationException("Only the program is visited, not " + node);
+    }
+
+    @Override
+    public abstract Object visit(ASTProgram node, Object data);
+
+    @Override
+    public Object visit(SimpleNode node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTBlock node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTStmt node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTDeclaration node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTAssignStmt node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTIfStmt node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTWhileStmt node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTForStmt node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTEnumStmt node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTSwitchStmt node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTCaseStmt node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTBreakStmt node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTFuncStmt node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTReturnStmt node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTExpr node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTBoolExpr node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTCompExpr node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTAddExpr node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTMulExpr node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTUnaExpr node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTNotExpr node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTGenValue node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTCallExpr node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTArrayExpr node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTArrayAccess node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTIdentifier node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTIntValue node, Object data) {
+        throw visited(node);
+    }
+
+    @Override
+    public Object visit(ASTBoolValue node, Object data) {
+        throw visited(node);
+    }
+}
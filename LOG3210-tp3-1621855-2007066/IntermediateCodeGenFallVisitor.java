@@ -3,7 +3,9 @@ package analyzer.visitors;
 import analyzer.ast.*;
 
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Vector;
 
 
@@ -16,281 +18,691 @@ import java.util.Vector;
  * @author Raphaël Tremblay
  * @version 2024.02.26
  */
-public class IntermediateCodeGenFallVisitor implements ParserVisitor {
+public class IntermediateCodeGenFallVisitor extends IntermediateCodeGenBase {
     public static final String FALL = "fall";
 
-    private final PrintWriter m_writer;
-
-    public HashMap<String, VarType> SymbolTable = new HashMap<>();
-    public HashMap<String, Integer> EnumValueTable = new HashMap<>();
+    private IREmitter m_emitter;
+
+    // Symboles résolus une fois et attachés aux noeuds de l'AST.
+    public SymbolResolver Symbols = null;
+
+    // Sans remplacement des appels, chaque fonction appelée est générée une fois et appelée avec call.
+    public boolean Inlining = true;
+    public FunctionInliner Inliner = null;
+
+    // Longueur des tableaux et indices dont la vérification des bornes est omise.
+    public RangeAnalysis Ranges = null;
+    // Sans réduction, chaque produit par une variable d'induction reste une multiplication à chaque tour. Désactivée
+    // par défaut, comme le profil, pour que le code de base ne change pas.
+    public boolean StrengthReduction = false;
+    public InductionVariables Induction = null;
+
+    // Compteurs d'exécution insérés dans le code, et profil d'une exécution instrumentée qui décide de la branche qui
+    // suit chaque condition sans saut. Le profil doit être celui du programme visité.
+    public boolean Instrumentation = false;
+    public ExecutionProfile Profile = null;
+    private HashMap<Node, Integer> m_sites = null;
+    // Sans profil, ou pour un site que le profil n'a jamais atteint, la direction des branchements est prédite quand
+    // la prédiction est activée. Sinon le bloc alors suit toujours la condition et la sortie des boucles est en haut.
+    public boolean StaticPrediction = false;
+    public BranchPrediction Prediction = null;
+    // Dans un case, une instruction saute à la fin du switch au lieu de passer à la suivante : un if sans sinon y garde
+    // l'ordre de ses blocs et une boucle placée condition en bas y sort par un saut.
+    private int m_cases = 0;
+    // Blocs peu probables, générés après le programme.
+    private final ArrayList<IREmitter> m_deferred = new ArrayList<>();
+
+    // Bloc atteint par un accès hors des bornes, généré après le programme s'il est utilisé.
+    private String m_outOfBoundsLabel = null;
 
     private int id = 0;
     private int label = 0;
 
     public IntermediateCodeGenFallVisitor(PrintWriter writer) {
-        m_writer = writer;
+        this(new IREmitter(writer));
+    }
+
+    public IntermediateCodeGenFallVisitor(IREmitter emitter) {
+        m_emitter = emitter;
     }
 
     private String newID() {
-        return "_t" + id++;
+        return IREmitter.temporaryName(id++);
     }
 
     private String newLabel() {
-        return "_L" + label++;
+        return IREmitter.labelName(label++);
     }
 
-    @Override
-    public Object visit(SimpleNode node, Object data) {
-        return data;
-    }
-
-
     @Override
     public Object visit(ASTProgram node, Object data) {
+        Symbols = SymbolResolver.resolve(node);
+        Inliner = new FunctionInliner(node, Inlining);
+        Ranges = new RangeAnalysis(node);
+        Induction = new InductionVariables();
+        m_sites = ExecutionProfile.sites(node);
+        Prediction = new BranchPrediction();
+        if (Profile != null) Profile.check(node);
+        m_emitter.Instrumentation = Instrumentation;
+        for (Map.Entry<String, Integer> array : Ranges.lengths().entrySet()) {
+            m_emitter.array(array.getKey(), array.getValue());
+        }
+        if (Instrumentation) m_emitter.copy(ExecutionProfile.PROGRAM, ExecutionProfile.key(node));
         String programStartLabel = newLabel();
-        node.childrenAccept(this, programStartLabel);
-        m_writer.println(programStartLabel);
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            statement(node.jjtGetChild(i), programStartLabel);
+        }
+        m_emitter.label(programStartLabel);
+        if (!m_deferred.isEmpty() || m_outOfBoundsLabel != null) {
+            String endLabel = newLabel();
+            m_emitter.jump(endLabel);
+            for (IREmitter deferred : m_deferred) {
+                m_emitter.appendDeferred(deferred);
+            }
+            if (m_outOfBoundsLabel != null) {
+                m_emitter.label(m_outOfBoundsLabel);
+                m_emitter.copy(IREmitter.OUT_OF_BOUNDS, 1);
+            }
+            m_emitter.label(endLabel);
+        }
+        m_emitter.flush();
         return null;
     }
 
 
-    @Override
-    public Object visit(ASTDeclaration node, Object data) {
-        String varName = ((ASTIdentifier) node.jjtGetChild(0)).getValue();
-        IntermediateCodeGenFallVisitor.VarType varType;
+    /**
+     * Génère une instruction.
+     *
+     * @param next L'étiquette de l'instruction suivante
+     */
+    private void statement(Node node, String next) {
+        switch (kind(node)) {
+            case ParserTreeConstants.JJTBLOCK:
+                block((ASTBlock) node, next);
+                break;
+            case ParserTreeConstants.JJTSTMT:
+                statement(node.jjtGetChild(0), next);
+                break;
+            case ParserTreeConstants.JJTASSIGNSTMT:
+                assignStmt((ASTAssignStmt) node, next);
+                break;
+            case ParserTreeConstants.JJTIFSTMT:
+                ifStmt((ASTIfStmt) node, next);
+                break;
+            case ParserTreeConstants.JJTWHILESTMT:
+                whileStmt((ASTWhileStmt) node, next);
+                break;
+            case ParserTreeConstants.JJTFORSTMT:
+                forStmt((ASTForStmt) node, next);
+                break;
+            case ParserTreeConstants.JJTSWITCHSTMT:
+                switchStmt((ASTSwitchStmt) node, next);
+                break;
+            case ParserTreeConstants.JJTFUNCSTMT:
+                funcStmt((ASTFuncStmt) node, next);
+                break;
+            case ParserTreeConstants.JJTBREAKSTMT:
+                m_emitter.jump(next);
+                break;
+            case ParserTreeConstants.JJTDECLARATION:
+            case ParserTreeConstants.JJTENUMSTMT:
+                // Les déclarations et les énumérations ne génèrent rien, leurs symboles sont déjà résolus.
+                break;
+            default:
+                throw unexpected("statement", node);
+        }
+    }
 
-        if (node.getValue() == null) {
-            varName = ((ASTIdentifier) node.jjtGetChild(1)).getValue();
-            varType = IntermediateCodeGenFallVisitor.VarType.EnumVar;
-        } else
-            varType = node.getValue().equals("num") ? IntermediateCodeGenFallVisitor.VarType.Number : IntermediateCodeGenFallVisitor.VarType.Bool;
+    /**
+     * Génère une expression. Dans une condition, chaque valeur booléenne branche vers l'une des sorties, ou passe à
+     * la suite pour la sortie FALL.
+     *
+     * @param labels Les sorties de la condition, null pour une valeur
+     * @return L'opérande de la valeur
+     */
+    private String expression(Node node, BoolLabel labels) {
+        switch (kind(node)) {
+            case ParserTreeConstants.JJTEXPR:
+            case ParserTreeConstants.JJTGENVALUE:
+                return expression(node.jjtGetChild(0), labels);
+            case ParserTreeConstants.JJTBOOLEXPR:
+                return boolExpr((ASTBoolExpr) node, labels);
+            case ParserTreeConstants.JJTCOMPEXPR:
+                return compExpr((ASTCompExpr) node, labels);
+            case ParserTreeConstants.JJTADDEXPR:
+                return codeExtAddMul((SimpleNode) node, labels, ((ASTAddExpr) node).getOps());
+            case ParserTreeConstants.JJTMULEXPR:
+                return mulExpr((ASTMulExpr) node, labels);
+            case ParserTreeConstants.JJTUNAEXPR:
+                return unaExpr((ASTUnaExpr) node, labels);
+            case ParserTreeConstants.JJTNOTEXPR:
+                return notExpr((ASTNotExpr) node, labels);
+            case ParserTreeConstants.JJTCALLEXPR:
+                return callExpr((ASTCallExpr) node, labels);
+            case ParserTreeConstants.JJTARRAYACCESS:
+                return arrayAccess((ASTArrayAccess) node, labels);
+            case ParserTreeConstants.JJTIDENTIFIER:
+                return identifier((ASTIdentifier) node, labels);
+            case ParserTreeConstants.JJTINTVALUE:
+                return Integer.toString(((ASTIntValue) node).getValue());
+            case ParserTreeConstants.JJTBOOLVALUE:
+                return boolValue((ASTBoolValue) node, labels);
+            default:
+                throw unexpected("expression", node);
+        }
+    }
 
-        SymbolTable.put(varName, varType);
-        return null;
+    private static VarType elementType(VarType arrayType) {
+        return arrayType == VarType.NumArray ? VarType.Number : VarType.Bool;
     }
 
-    @Override
-    public Object visit(ASTBlock node, Object data) {
+    private void block(ASTBlock node, String next) {
         int childCount = node.jjtGetNumChildren();
-        if (childCount == 0) {
-            return null;
-        }
-        if (childCount == 1) {
-            return node.jjtGetChild(0).jjtAccept(this, data);
-        }
         for (int i = 0; i < childCount; i++) {
             if (i < childCount - 1) {
                 String childLabel = newLabel();
-                node.jjtGetChild(i).jjtAccept(this, childLabel);
-                m_writer.println(childLabel);
+                statement(node.jjtGetChild(i), childLabel);
+                m_emitter.label(childLabel);
             } else {
-                node.jjtGetChild(i).jjtAccept(this, data);
+                statement(node.jjtGetChild(i), next);
             }
         }
-
-        return null;
     }
 
-    @Override
-    public Object visit(ASTEnumStmt node, Object data) {
+    private void switchStmt(ASTSwitchStmt node, String next) {
         int childCount = node.jjtGetNumChildren();
-        for (int i = 1; i < childCount; i++) {
-            String enumConstantName = ((ASTIdentifier) node.jjtGetChild(i)).getValue();
-            SymbolTable.put(enumConstantName, IntermediateCodeGenFallVisitor.VarType.EnumType);
-            EnumValueTable.put(enumConstantName, i - 1);
-        }
-        node.childrenAccept(this, data);
-
-        return null;
-    }
-
-
-    @Override
-    public Object visit(ASTSwitchStmt node, Object data) {
-        int childCount = node.jjtGetNumChildren();
-        String switchFollowThroughLabel = (String) data;
-        String switchVariable = (String) node.jjtGetChild(0).jjtAccept(this, data);
+        String switchFollowThroughLabel = next;
+        String switchVariable = expression(node.jjtGetChild(0), null);
 
         Vector<String> caseLabels = new Vector<>();
         caseLabels.add(switchFollowThroughLabel);
 
         for (int i = 1; i < childCount - 1; i++) {
-            String caseValue = (String) node.jjtGetChild(i).jjtGetChild(0).jjtAccept(this, caseLabels);
+            int caseValue = SymbolResolver.symbol(node.jjtGetChild(i).jjtGetChild(0)).ordinal;
             caseLabels.add(newLabel());
-            m_writer.println("if " + switchVariable + " == " + EnumValueTable.get(caseValue) + " goto " + caseLabels.get(caseLabels.size() - 1));
+            m_emitter.branch("if", switchVariable, "==", caseValue, caseLabels.get(caseLabels.size() - 1));
             caseLabels.add(newLabel());
-            m_writer.println("goto " + caseLabels.get(caseLabels.size() - 1));
+            m_emitter.jump(caseLabels.get(caseLabels.size() - 1));
             for (int j = 0; j < caseLabels.size() - 1; j++) {
-                m_writer.println(caseLabels.remove(caseLabels.size() - 2));
+                m_emitter.label(caseLabels.remove(caseLabels.size() - 2));
             }
-            node.jjtGetChild(i).jjtAccept(this, caseLabels);
+            caseStmt((ASTCaseStmt) node.jjtGetChild(i), caseLabels);
         }
-        String caseValue = (String) node.jjtGetChild(childCount - 1).jjtGetChild(0).jjtAccept(this, caseLabels);
+        int caseValue = SymbolResolver.symbol(node.jjtGetChild(childCount - 1).jjtGetChild(0)).ordinal;
         caseLabels.add(newLabel());
-        m_writer.println("if " + switchVariable + " == " + EnumValueTable.get(caseValue) + " goto " + caseLabels.get(caseLabels.size() - 1));
-        m_writer.println("goto " + caseLabels.get(0));
+        m_emitter.branch("if", switchVariable, "==", caseValue, caseLabels.get(caseLabels.size() - 1));
+        m_emitter.jump(caseLabels.get(0));
         int var = caseLabels.size();
         for (int j = 0; j < var - 1; j++) {
-            m_writer.println(caseLabels.remove(caseLabels.size() - 1));
+            m_emitter.label(caseLabels.remove(caseLabels.size() - 1));
         }
-        node.jjtGetChild(childCount - 1).jjtAccept(this, caseLabels);
-        return null;
+        caseStmt((ASTCaseStmt) node.jjtGetChild(childCount - 1), caseLabels);
     }
 
-    @Override
-    public Object visit(ASTCaseStmt node, Object data) {
+    /**
+     * @param caseLabels La fin du switch, puis les étiquettes du case et du suivant
+     */
+    private void caseStmt(ASTCaseStmt node, Vector<String> caseLabels) {
         int childCount = node.jjtGetNumChildren();
         if (childCount == 0) {
-            return null;
+            return;
         }
+        m_cases++;
         for (int i = 1; i < childCount; i++) {
-            node.jjtGetChild(i).jjtAccept(this, ((Vector<String>) data).firstElement());
+            statement(node.jjtGetChild(i), caseLabels.firstElement());
         }
-        String lastChildClass = node.jjtGetChild(childCount - 1).getClass().toString();
-        boolean isLastChildNotBreak = !lastChildClass.equals("class analyzer.ast.ASTBreakStmt");
-        if (isLastChildNotBreak && ((Vector<String>) data).size() > 1) {
+        m_cases--;
+        boolean isLastChildNotBreak = kind(node.jjtGetChild(childCount - 1)) != ParserTreeConstants.JJTBREAKSTMT;
+        if (isLastChildNotBreak && caseLabels.size() > 1) {
             String newLabel = newLabel();
-            ((Vector<String>) data).add(newLabel);
-            m_writer.println("goto " + newLabel);
+            caseLabels.add(newLabel);
+            m_emitter.jump(newLabel);
         }
-        if (((Vector<String>) data).size() > 1) {
-            m_writer.println(((Vector<String>) data).remove(1));
+        if (caseLabels.size() > 1) {
+            m_emitter.label(caseLabels.remove(1));
         }
-        return null;
-    }
-
-
-    @Override
-    public Object visit(ASTBreakStmt node, Object data) {
-        node.childrenAccept(this, data);
-        m_writer.println("goto " + data);
-        return null;
-    }
-
-    @Override
-    public Object visit(ASTStmt node, Object data) {
-        node.childrenAccept(this, data);
-
-        return null;
     }
 
-    @Override
-    public Object visit(ASTIfStmt node, Object data) {
+    private void ifStmt(ASTIfStmt node, String next) {
         int childCount = node.jjtGetNumChildren();
 
         switch (childCount) {
             case 1:
-                return node.jjtGetChild(0).jjtAccept(this, data);
+                expression(node.jjtGetChild(0), null);
+                break;
             case 2:
-                node.jjtGetChild(0).jjtAccept(this, new IntermediateCodeGenFallVisitor.BoolLabel(FALL, (String) data));
-                node.jjtGetChild(1).jjtAccept(this, data);
+                count(ExecutionProfile.ENTRIES, node);
+                if (m_cases == 0 && mostlyFalse(node)) {
+                    // La condition fausse passe à l'instruction suivante, le bloc alors est généré après le programme.
+                    String trueBranchLabel = newLabel();
+                    expression(node.jjtGetChild(0), new BoolLabel(trueBranchLabel, FALL));
+                    defer(trueBranchLabel, node, node.jjtGetChild(1), next);
+                    break;
+                }
+                expression(node.jjtGetChild(0), new BoolLabel(FALL, next));
+                count(ExecutionProfile.TAKEN, node);
+                statement(node.jjtGetChild(1), next);
                 break;
             case 3:
+                count(ExecutionProfile.ENTRIES, node);
+                if (mostlyFalse(node)) {
+                    // Le bloc sinon suit la condition et passe à l'instruction suivante sans saut.
+                    String trueBranchLabel = newLabel();
+                    expression(node.jjtGetChild(0), new BoolLabel(trueBranchLabel, FALL));
+                    statement(node.jjtGetChild(2), next);
+                    defer(trueBranchLabel, node, node.jjtGetChild(1), next);
+                    break;
+                }
                 String falseBranchLabel = newLabel();
-                IntermediateCodeGenFallVisitor.BoolLabel conditionalLabel = new IntermediateCodeGenFallVisitor.BoolLabel(FALL, falseBranchLabel);
-                node.jjtGetChild(0).jjtAccept(this, conditionalLabel);
-                node.jjtGetChild(1).jjtAccept(this, data);
-                m_writer.println("goto " + data);
-                m_writer.println(falseBranchLabel);
-                node.jjtGetChild(2).jjtAccept(this, data);
+                BoolLabel conditionalLabel = new BoolLabel(FALL, falseBranchLabel);
+                expression(node.jjtGetChild(0), conditionalLabel);
+                count(ExecutionProfile.TAKEN, node);
+                statement(node.jjtGetChild(1), next);
+                m_emitter.jump(next);
+                m_emitter.label(falseBranchLabel);
+                statement(node.jjtGetChild(2), next);
                 break;
         }
-
-        return null;
     }
 
-    @Override
-    public Object visit(ASTWhileStmt node, Object data) {
-        String loopStartLabel = newLabel();
-        m_writer.println(loopStartLabel);
-        node.jjtGetChild(0).jjtAccept(this, new IntermediateCodeGenFallVisitor.BoolLabel(FALL, (String) data));
-        node.jjtGetChild(1).jjtAccept(this, loopStartLabel);
-        m_writer.println("goto " + loopStartLabel);
+    private void whileStmt(ASTWhileStmt node, String next) {
+        if (rotates(node)) {
+            String bodyLabel = newLabel();
+            String conditionLabel = newLabel();
+            m_emitter.jump(conditionLabel);
+            m_emitter.label(bodyLabel);
+            count(ExecutionProfile.TAKEN, node);
+            statement(node.jjtGetChild(1), conditionLabel);
+            m_emitter.label(conditionLabel);
+            count(ExecutionProfile.ENTRIES, node);
+            expression(node.jjtGetChild(0), new BoolLabel(bodyLabel, exit(next)));
+            return;
+        }
 
-        return null;
+        String loopStartLabel = newLabel();
+        m_emitter.label(loopStartLabel);
+        count(ExecutionProfile.ENTRIES, node);
+        expression(node.jjtGetChild(0), new BoolLabel(FALL, next));
+        count(ExecutionProfile.TAKEN, node);
+        statement(node.jjtGetChild(1), loopStartLabel);
+        m_emitter.jump(loopStartLabel);
     }
 
-    @Override
-    public Object visit(ASTForStmt node, Object data) {
+    private void forStmt(ASTForStmt node, String next) {
         String loopStartLabel = newLabel();
         String incrementLabel = newLabel();
         String conditionLabel = newLabel();
-        node.jjtGetChild(0).jjtAccept(this, loopStartLabel);
-        m_writer.println(loopStartLabel + "TOP");
-        node.jjtGetChild(1).jjtAccept(this, new IntermediateCodeGenFallVisitor.BoolLabel(conditionLabel, (String) data));
-        m_writer.println(conditionLabel + "MID");
-        node.jjtGetChild(3).jjtAccept(this, incrementLabel);
-        m_writer.println(incrementLabel + "MID 2");
-        node.jjtGetChild(2).jjtAccept(this, loopStartLabel);
-        m_writer.println("goto " + loopStartLabel);
+        InductionVariables.Loop loop = StrengthReduction ? Induction.enter(node, this::newID) : null;
+        if (loop != null && loop.eliminated()) {
+            // Ni la condition ni le corps ne lisent plus i, qui reçoit directement sa valeur finale.
+            m_emitter.copy(SymbolResolver.name((ASTIdentifier) node.jjtGetChild(0).jjtGetChild(0)), loop.finalValue);
+        } else {
+            statement(node.jjtGetChild(0), loopStartLabel);
+        }
+        startAccumulators(node, loop);
+        if (rotates(node)) {
+            // Le corps suit l'initialisation, la condition est évaluée après la mise à jour et retourne au corps.
+            m_emitter.jump(conditionLabel);
+            m_emitter.label(loopStartLabel);
+            count(ExecutionProfile.TAKEN, node);
+            Ranges.enter(node);
+            statement(node.jjtGetChild(3), incrementLabel);
+            Ranges.leave(node);
+            m_emitter.label(incrementLabel);
+            if (loop == null || !loop.eliminated()) {
+                statement(node.jjtGetChild(2), loopStartLabel);
+            }
+            advanceAccumulators(loop);
+            m_emitter.label(conditionLabel);
+            count(ExecutionProfile.ENTRIES, node);
+            if (loop != null && loop.eliminated()) {
+                m_emitter.branch("if", loop.accumulators.get(loop.testFactor), loop.testOp, loop.limit, loopStartLabel);
+                if (m_cases > 0) m_emitter.jump(next);
+            } else {
+                expression(node.jjtGetChild(1), new BoolLabel(loopStartLabel, exit(next)));
+            }
+            Induction.leave(loop);
+            return;
+        }
 
-        return null;
+        m_emitter.label(loopStartLabel);
+        count(ExecutionProfile.ENTRIES, node);
+        if (loop != null && loop.eliminated()) {
+            m_emitter.branch("ifFalse", loop.accumulators.get(loop.testFactor), loop.testOp, loop.limit, next);
+        } else {
+            expression(node.jjtGetChild(1), new BoolLabel(conditionLabel, next));
+            m_emitter.label(conditionLabel);
+        }
+        count(ExecutionProfile.TAKEN, node);
+        Ranges.enter(node);
+        statement(node.jjtGetChild(3), incrementLabel);
+        Ranges.leave(node);
+        m_emitter.label(incrementLabel);
+        if (loop == null || !loop.eliminated()) {
+            statement(node.jjtGetChild(2), loopStartLabel);
+        }
+        advanceAccumulators(loop);
+        m_emitter.jump(loopStartLabel);
+        Induction.leave(loop);
     }
 
-    @Override
-    public Object visit(ASTAssignStmt node, Object data) {
-        String variableName = ((ASTIdentifier) node.jjtGetChild(0)).getValue();
-        if (SymbolTable.get(variableName) == IntermediateCodeGenFallVisitor.VarType.Number) {
-            String expressionResult = (String) node.jjtGetChild(1).jjtAccept(this, data);
-            m_writer.println(variableName + " = " + expressionResult);
-        } else if (SymbolTable.get(variableName) == IntermediateCodeGenFallVisitor.VarType.EnumVar) {
-            String enumValue = (String) node.jjtGetChild(1).jjtAccept(this, data);
-            m_writer.println(variableName + " = " + EnumValueTable.get(enumValue));
+    /**
+     * Incrémente le compteur d'un site de branchement, avec l'instrumentation.
+     */
+    private void count(String prefix, Node site) {
+        if (!Instrumentation) return;
+        String counter = prefix + m_sites.get(site);
+        m_emitter.operation(counter, counter, "+", "1");
+    }
+
+    /**
+     * Génère le bloc alors d'un if hors de l'ordre d'exécution, après le programme. Il retourne à l'instruction qui
+     * suit le if par un saut.
+     */
+    private void defer(String label, ASTIfStmt site, Node block, String next) {
+        IREmitter emitter = m_emitter;
+        m_emitter = emitter.deferred();
+        m_deferred.add(m_emitter);
+        m_emitter.label(label);
+        count(ExecutionProfile.TAKEN, site);
+        statement(block, next);
+        m_emitter.jump(next);
+        m_emitter = emitter;
+    }
+
+    /**
+     * Vrai si le profil a trouvé la condition du site plus souvent fausse que vraie, ou à défaut si elle est prédite
+     * fausse.
+     */
+    private boolean mostlyFalse(ASTIfStmt site) {
+        int s = m_sites.get(site);
+        if (Profile != null && Profile.entries(s) > 0) {
+            return 2 * Profile.taken(s) < Profile.entries(s);
+        }
+        return StaticPrediction && Prediction.likely(site) == Boolean.FALSE;
+    }
+
+    /**
+     * Vrai si le profil a vu la boucle faire en moyenne au moins un tour par entrée, ou à défaut si elle est prédite
+     * faire des tours. Sa condition est alors placée après le corps : un tour ne coûte plus que le saut conditionnel
+     * qui y retourne, au lieu d'un ifFalse et d'un goto.
+     */
+    private boolean rotates(Node loop) {
+        int s = m_sites.get(loop);
+        if (Profile != null && Profile.entries(s) > 0) {
+            long taken = Profile.taken(s);
+            return taken > 0 && taken >= Profile.entries(s) - taken;
+        }
+        return StaticPrediction && Prediction.loops(loop);
+    }
+
+    /**
+     * La sortie d'une boucle placée condition en bas : l'instruction suivante, sans saut, sauf dans un case.
+     */
+    private String exit(String next) {
+        return m_cases > 0 ? next : FALL;
+    }
+
+    /**
+     * Donne aux accumulateurs d'une boucle réduite leur valeur i * k, après l'initialisation de i.
+     */
+    private void startAccumulators(ASTForStmt node, InductionVariables.Loop loop) {
+        if (loop == null) return;
+        String variable = SymbolResolver.name((ASTIdentifier) node.jjtGetChild(0).jjtGetChild(0));
+        for (Map.Entry<Integer, String> accumulator : loop.accumulators.entrySet()) {
+            if (loop.initial != null) {
+                m_emitter.copy(accumulator.getValue(), (int) (loop.initial * accumulator.getKey()));
+            } else {
+                m_emitter.operation(accumulator.getValue(), variable, "*", Integer.toString(accumulator.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Avance les accumulateurs d'une boucle réduite de c * k, après la mise à jour i = i + c.
+     */
+    private void advanceAccumulators(InductionVariables.Loop loop) {
+        if (loop == null) return;
+        for (Map.Entry<Integer, String> accumulator : loop.accumulators.entrySet()) {
+            int increment = (int) (loop.step * accumulator.getKey());
+            if (increment < 0 && increment != Integer.MIN_VALUE) {
+                m_emitter.operation(accumulator.getValue(), accumulator.getValue(), "-", Integer.toString(-increment));
+            } else {
+                m_emitter.operation(accumulator.getValue(), accumulator.getValue(), "+", Integer.toString(increment));
+            }
+        }
+    }
+
+    private void assignStmt(ASTAssignStmt node, String next) {
+        if (kind(node.jjtGetChild(0)) == ParserTreeConstants.JJTARRAYACCESS) {
+            ASTArrayAccess access = (ASTArrayAccess) node.jjtGetChild(0);
+            String array = SymbolResolver.name((ASTIdentifier) access.jjtGetChild(0));
+            String value = value(node.jjtGetChild(1), elementType(SymbolResolver.type(access.jjtGetChild(0))));
+            m_emitter.store(array, index(access), value);
+            return;
+        }
+        String variableName = SymbolResolver.name((ASTIdentifier) node.jjtGetChild(0));
+        VarType variableType = SymbolResolver.type(node.jjtGetChild(0));
+        if (variableType == VarType.Number) {
+            String expressionResult = expression(node.jjtGetChild(1), null);
+            m_emitter.copy(variableName, expressionResult);
+        } else if (variableType == VarType.EnumVar) {
+            m_emitter.copy(variableName, value(node.jjtGetChild(1), VarType.EnumVar));
+        } else if (variableType == VarType.NumArray || variableType == VarType.BoolArray) {
+            assignArray(variableName, variableType, node.jjtGetChild(1));
         } else {
             String falseLabel = newLabel();
-            IntermediateCodeGenFallVisitor.BoolLabel booleanLabel = new IntermediateCodeGenFallVisitor.BoolLabel(FALL, falseLabel);
-            node.jjtGetChild(1).jjtAccept(this, booleanLabel);
-            m_writer.println(variableName + " = 1");
-            m_writer.println("goto " + data);
-            m_writer.println(booleanLabel.lFalse);
-            m_writer.println(variableName + " = 0");
+            BoolLabel booleanLabel = new BoolLabel(FALL, falseLabel);
+            expression(node.jjtGetChild(1), booleanLabel);
+            m_emitter.copy(variableName, 1);
+            m_emitter.jump(next);
+            m_emitter.label(booleanLabel.lFalse);
+            m_emitter.copy(variableName, 0);
         }
+    }
 
-        return null;
+    /**
+     * Copie un tableau littéral ou un autre tableau élément par élément. Tous les éléments sont évalués avant la
+     * première copie : a = [a[1], a[0]] échange les deux éléments.
+     */
+    private void assignArray(String array, VarType arrayType, Node expression) {
+        Node source = RangeAnalysis.strip(expression);
+        String[] elements;
+        if (kind(source) == ParserTreeConstants.JJTARRAYEXPR) {
+            elements = arrayExpr((ASTArrayExpr) source, elementType(arrayType));
+        } else {
+            String sourceArray = expression(source, null);
+            elements = new String[Ranges.length(sourceArray)];
+            for (int i = 0; i < elements.length; i++) {
+                elements[i] = newID();
+                m_emitter.load(elements[i], sourceArray, Integer.toString(i));
+            }
+        }
+        for (int i = 0; i < elements.length; i++) {
+            m_emitter.store(array, Integer.toString(i), elements[i]);
+        }
     }
 
-    @Override
-    public Object visit(ASTExpr node, Object data) {
-        return node.jjtGetChild(0).jjtAccept(this, data);
+    /**
+     * Les éléments d'un tableau littéral, chacun dans un opérande.
+     */
+    private String[] arrayExpr(ASTArrayExpr node, VarType elementType) {
+        String[] elements = new String[node.jjtGetNumChildren()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = value(node.jjtGetChild(i), elementType);
+        }
+        return elements;
+    }
+
+    private String arrayAccess(ASTArrayAccess node, BoolLabel boolLabel) {
+        String array = SymbolResolver.name((ASTIdentifier) node.jjtGetChild(0));
+        String result = newID();
+        m_emitter.load(result, array, index(node));
+        if (SymbolResolver.type(node.jjtGetChild(0)) == VarType.BoolArray) {
+            if (boolLabel.lTrue != FALL && boolLabel.lFalse != FALL) {
+                m_emitter.branch("if", result, "==", 1, boolLabel.lTrue);
+                m_emitter.jump(boolLabel.lFalse);
+            } else if (boolLabel.lTrue != FALL) {
+                m_emitter.branch("if", result, "==", 1, boolLabel.lTrue);
+            } else if (boolLabel.lFalse != FALL) {
+                m_emitter.branch("ifFalse", result, "==", 1, boolLabel.lFalse);
+            } else {
+                throw new Error("Invalid boolean label configuration");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Génère l'indice d'un accès et, sauf si Ranges le prouve dans les bornes, les branchements vers le bloc qui
+     * signale l'accès hors des bornes.
+     */
+    private String index(ASTArrayAccess node) {
+        String array = SymbolResolver.name((ASTIdentifier) node.jjtGetChild(0));
+        int length = Ranges.length(array);
+        String index = value(node.jjtGetChild(1), VarType.Number);
+        if (!Ranges.inBounds(node.jjtGetChild(1), length)) {
+            if (m_outOfBoundsLabel == null) {
+                m_outOfBoundsLabel = newLabel();
+            }
+            m_emitter.branch("if", index, "<", 0, m_outOfBoundsLabel);
+            m_emitter.branch("if", index, ">=", length, m_outOfBoundsLabel);
+        }
+        return index;
     }
 
-    public Object codeExtAddMul(SimpleNode node, Object data, Vector<String> ops) {
+    private void funcStmt(ASTFuncStmt node, String next) {
+        String name = SymbolResolver.symbol(node.jjtGetChild(0)).name;
+        if (Inliner.emits(name)) {
+            m_emitter.jump(next);
+            m_emitter.label(name);
+            m_emitter.returnValue(body(node));
+        }
+    }
+
+    /**
+     * Génère le corps d'une fonction, dans son code à part ou à la place d'un appel. Ses paramètres sont des
+     * déclarations, qui ne génèrent rien.
+     *
+     * @return L'opérande de la valeur de retour
+     */
+    private String body(ASTFuncStmt node) {
+        int childCount = node.jjtGetNumChildren();
+        String endLabel = newLabel();
+        statement(node.jjtGetChild(childCount - 2), endLabel);
+        m_emitter.label(endLabel);
+        return returnStmt((ASTReturnStmt) node.jjtGetChild(childCount - 1));
+    }
+
+    private String returnStmt(ASTReturnStmt node) {
+        ASTDeclaration header = (ASTDeclaration) node.jjtGetParent().jjtGetChild(0);
+        return value(node.jjtGetChild(0), SymbolResolver.type(header));
+    }
+
+    /**
+     * Les arguments sont tous évalués avant d'être copiés dans les paramètres, un argument pouvant lui-même appeler
+     * la fonction. Le résultat d'un corps remplacé est copié dans un temporaire, sauf s'il en est déjà un, pour
+     * qu'un autre appel de la même fonction dans l'expression ne l'écrase pas.
+     */
+    private String callExpr(ASTCallExpr node, BoolLabel boolLabel) {
+        SymbolResolver.Symbol symbol = SymbolResolver.symbol(node.jjtGetChild(0));
+        String name = symbol.name;
+        ASTFuncStmt function = symbol.function;
+        int paramCount = function.jjtGetNumChildren() - 3;
+        String[] arguments = new String[paramCount];
+        for (int i = 0; i < paramCount; i++) {
+            arguments[i] = value(node.jjtGetChild(i + 1), SymbolResolver.type(function.jjtGetChild(i + 1)));
+        }
+        for (int i = 0; i < paramCount; i++) {
+            m_emitter.copy(SymbolResolver.symbol(function.jjtGetChild(i + 1)).name, arguments[i]);
+        }
+
+        String result;
+        if (Inliner.inlines(node)) {
+            result = body(function);
+            if (!result.startsWith("_t") && !Character.isDigit(result.charAt(0))) {
+                String copy = newID();
+                m_emitter.copy(copy, result);
+                result = copy;
+            }
+        } else {
+            result = newID();
+            m_emitter.call(result, name);
+        }
+
+        if (symbol.type == VarType.Bool) {
+            if (boolLabel.lTrue != FALL && boolLabel.lFalse != FALL) {
+                m_emitter.branch("if", result, "==", 1, boolLabel.lTrue);
+                m_emitter.jump(boolLabel.lFalse);
+            } else if (boolLabel.lTrue != FALL) {
+                m_emitter.branch("if", result, "==", 1, boolLabel.lTrue);
+            } else if (boolLabel.lFalse != FALL) {
+                m_emitter.branch("ifFalse", result, "==", 1, boolLabel.lFalse);
+            } else {
+                throw new Error("Invalid boolean label configuration");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Génère une expression dont la valeur doit tenir dans un opérande : un booléen vaut 1 ou 0 et une valeur
+     * d'énumération vaut son rang.
+     */
+    private String value(Node expression, VarType type) {
+        if (type == VarType.Bool) {
+            String result = newID();
+            String endLabel = newLabel();
+            BoolLabel boolLabel = new BoolLabel(FALL, newLabel());
+            expression(expression, boolLabel);
+            m_emitter.copy(result, 1);
+            m_emitter.jump(endLabel);
+            m_emitter.label(boolLabel.lFalse);
+            m_emitter.copy(result, 0);
+            m_emitter.label(endLabel);
+            return result;
+        }
+        SymbolResolver.Symbol symbol = SymbolResolver.symbol(RangeAnalysis.strip(expression));
+        if (type == VarType.EnumVar && symbol != null && symbol.type == VarType.EnumType) {
+            return Integer.toString(symbol.ordinal);
+        }
+        return expression(expression, null);
+    }
+
+    private String codeExtAddMul(SimpleNode node, BoolLabel labels, Vector<String> ops) {
         int childCount = node.jjtGetNumChildren();
 
         if (childCount == 1 || ops.isEmpty()) {
-            return node.jjtGetChild(0).jjtAccept(this, data);
+            return expression(node.jjtGetChild(0), labels);
         } else {
             String resultIdentifier = newID();
 
-            String leftOperand = (String) node.jjtGetChild(0).jjtAccept(this, data);
-            String rightOperand = (String) node.jjtGetChild(1).jjtAccept(this, data);
+            String leftOperand = expression(node.jjtGetChild(0), labels);
+            String rightOperand = expression(node.jjtGetChild(1), labels);
 
-            m_writer.println(resultIdentifier + " = " + leftOperand + " " + ops.get(0) + " " + rightOperand);
+            m_emitter.operation(resultIdentifier, leftOperand, ops.get(0), rightOperand);
 
             return resultIdentifier;
         }
     }
 
-    @Override
-    public Object visit(ASTAddExpr node, Object data) {
-        return codeExtAddMul(node, data, node.getOps());
-    }
-
-    @Override
-    public Object visit(ASTMulExpr node, Object data) {
-        return codeExtAddMul(node, data, node.getOps());
+    private String mulExpr(ASTMulExpr node, BoolLabel labels) {
+        String accumulator = Induction.accumulator(node);
+        if (accumulator != null) {
+            return accumulator;
+        }
+        return codeExtAddMul(node, labels, node.getOps());
     }
 
-    @Override
-    public Object visit(ASTUnaExpr node, Object data) {
+    private String unaExpr(ASTUnaExpr node, BoolLabel labels) {
         int unaryOperatorCount = node.getOps().size();
-        Object childResult = node.jjtGetChild(0).jjtAccept(this, data);
+        String childResult = expression(node.jjtGetChild(0), labels);
         if (unaryOperatorCount > 0) {
             String currentId = newID();
-            m_writer.println(currentId + " = - " + childResult);
+            m_emitter.negate(currentId, childResult);
             for (int i = 1; i < unaryOperatorCount; i++) {
                 String nextId = newID();
-                m_writer.println(nextId + " = - " + currentId);
+                m_emitter.negate(nextId, currentId);
                 currentId = nextId;
             }
             return currentId;
@@ -299,33 +711,32 @@ public class IntermediateCodeGenFallVisitor implements ParserVisitor {
         }
     }
 
-    @Override
-    public Object visit(ASTBoolExpr node, Object data) {
+    private String boolExpr(ASTBoolExpr node, BoolLabel labels) {
         int childCount = node.jjtGetNumChildren();
         String response;
         if (childCount == 1) {
-            response = (String) node.jjtGetChild(0).jjtAccept(this, data);
+            response = expression(node.jjtGetChild(0), labels);
         } else {
-            String operation = (String) node.getOps().get(0);
+            String operation = node.getOps().get(0);
             if ("&&".equals(operation)) {
-                BoolLabel leftBoolLabel = (((BoolLabel) data).lFalse == FALL)
+                BoolLabel leftBoolLabel = (labels.lFalse == FALL)
                         ? new BoolLabel(FALL, newLabel())
-                        : new BoolLabel(FALL, ((BoolLabel) data).lFalse);
-                response = (String) node.jjtGetChild(0).jjtAccept(this, leftBoolLabel);
-                node.jjtGetChild(1).jjtAccept(this, data);
+                        : new BoolLabel(FALL, labels.lFalse);
+                response = expression(node.jjtGetChild(0), leftBoolLabel);
+                expression(node.jjtGetChild(1), labels);
 
-                if (((BoolLabel) data).lFalse == FALL) {
-                    m_writer.println(leftBoolLabel.lFalse);
+                if (labels.lFalse == FALL) {
+                    m_emitter.label(leftBoolLabel.lFalse);
                 }
             } else {
-                BoolLabel leftBoolLabel = (((BoolLabel) data).lTrue == FALL)
+                BoolLabel leftBoolLabel = (labels.lTrue == FALL)
                         ? new BoolLabel(newLabel(), FALL)
-                        : new BoolLabel(((BoolLabel) data).lTrue, FALL);
-                response = (String) node.jjtGetChild(0).jjtAccept(this, leftBoolLabel);
-                node.jjtGetChild(1).jjtAccept(this, data);
+                        : new BoolLabel(labels.lTrue, FALL);
+                response = expression(node.jjtGetChild(0), leftBoolLabel);
+                expression(node.jjtGetChild(1), labels);
 
-                if (((BoolLabel) data).lTrue == FALL) {
-                    m_writer.println(leftBoolLabel.lTrue);
+                if (labels.lTrue == FALL) {
+                    m_emitter.label(leftBoolLabel.lTrue);
                 }
             }
         }
@@ -333,25 +744,22 @@ public class IntermediateCodeGenFallVisitor implements ParserVisitor {
         return response;
     }
 
-    @Override
-    public Object visit(ASTCompExpr node, Object data) {
+    private String compExpr(ASTCompExpr node, BoolLabel boolLabel) {
         int childCount = node.jjtGetNumChildren();
         if (childCount == 1) {
-            return node.jjtGetChild(0).jjtAccept(this, data);
+            return expression(node.jjtGetChild(0), boolLabel);
         } else {
-            String leftOperand = (String) node.jjtGetChild(0).jjtAccept(this, data);
-            String rightOperand = (String) node.jjtGetChild(1).jjtAccept(this, data);
+            String leftOperand = expression(node.jjtGetChild(0), boolLabel);
+            String rightOperand = expression(node.jjtGetChild(1), boolLabel);
             String comparisonOperator = node.getValue();
 
-            BoolLabel boolLabel = (IntermediateCodeGenFallVisitor.BoolLabel) data;
-
             if (boolLabel.lTrue != FALL && boolLabel.lFalse != FALL) {
-                m_writer.println("if " + leftOperand + " " + comparisonOperator + " " + rightOperand + " goto " + boolLabel.lTrue);
-                m_writer.println("goto " + boolLabel.lFalse);
+                m_emitter.branch("if", leftOperand, comparisonOperator, rightOperand, boolLabel.lTrue);
+                m_emitter.jump(boolLabel.lFalse);
             } else if (boolLabel.lTrue != FALL) {
-                m_writer.println("if " + leftOperand + " " + comparisonOperator + " " + rightOperand + " goto " + boolLabel.lTrue);
+                m_emitter.branch("if", leftOperand, comparisonOperator, rightOperand, boolLabel.lTrue);
             } else if (boolLabel.lFalse != FALL) {
-                m_writer.println("ifFalse " + leftOperand + " " + comparisonOperator + " " + rightOperand + " goto " + boolLabel.lFalse);
+                m_emitter.branch("ifFalse", leftOperand, comparisonOperator, rightOperand, boolLabel.lFalse);
             } else {
                 throw new Error("Invalid BoolLabel state");
             }
@@ -360,55 +768,42 @@ public class IntermediateCodeGenFallVisitor implements ParserVisitor {
         return null;
     }
 
-    @Override
-    public Object visit(ASTNotExpr node, Object data) {
+    private String notExpr(ASTNotExpr node, BoolLabel labels) {
         boolean isOddNumberOfNots = (node.getOps().size() % 2 != 0);
         if (isOddNumberOfNots) {
-            IntermediateCodeGenFallVisitor.BoolLabel invertedBoolLabel = new IntermediateCodeGenFallVisitor.BoolLabel(
-                    ((IntermediateCodeGenFallVisitor.BoolLabel) data).lFalse,
-                    ((IntermediateCodeGenFallVisitor.BoolLabel) data).lTrue
-            );
-            return node.jjtGetChild(0).jjtAccept(this, invertedBoolLabel);
+            BoolLabel invertedBoolLabel = new BoolLabel(labels.lFalse, labels.lTrue);
+            return expression(node.jjtGetChild(0), invertedBoolLabel);
         } else {
-            return node.jjtGetChild(0).jjtAccept(this, data);
+            return expression(node.jjtGetChild(0), labels);
         }
     }
 
-    @Override
-    public Object visit(ASTGenValue node, Object data) {
-        return node.jjtGetChild(0).jjtAccept(this, data);
-    }
-
-    @Override
-    public Object visit(ASTBoolValue node, Object data) {
-        IntermediateCodeGenFallVisitor.BoolLabel boolLabel = (IntermediateCodeGenFallVisitor.BoolLabel) data;
+    private String boolValue(ASTBoolValue node, BoolLabel boolLabel) {
         if (node.getValue()) {
             if (boolLabel.lTrue != FALL) {
-                m_writer.println("goto " + boolLabel.lTrue);
+                m_emitter.jump(boolLabel.lTrue);
             }
         } else {
             if (boolLabel.lFalse != FALL) {
-                m_writer.println("goto " + boolLabel.lFalse);
+                m_emitter.jump(boolLabel.lFalse);
             }
         }
         return node.getValue() ? boolLabel.lTrue : boolLabel.lFalse;
     }
 
-    @Override
-    public Object visit(ASTIdentifier node, Object data) {
+    private String identifier(ASTIdentifier node, BoolLabel boolLabel) {
 
-        String identifierValue = node.getValue();
+        String identifierValue = SymbolResolver.name(node);
 
-        if (SymbolTable.get(identifierValue) == IntermediateCodeGenFallVisitor.VarType.Bool) {
-            BoolLabel boolLabel = (BoolLabel) data;
+        if (SymbolResolver.type(node) == VarType.Bool) {
 
             if (boolLabel.lTrue != FALL && boolLabel.lFalse != FALL) {
-                m_writer.println("if " + identifierValue + " == 1 goto " + boolLabel.lTrue);
-                m_writer.println("goto " + boolLabel.lFalse);
+                m_emitter.branch("if", identifierValue, "==", 1, boolLabel.lTrue);
+                m_emitter.jump(boolLabel.lFalse);
             } else if (boolLabel.lTrue != FALL) {
-                m_writer.println("if " + identifierValue + " == 1 goto " + boolLabel.lTrue);
+                m_emitter.branch("if", identifierValue, "==", 1, boolLabel.lTrue);
             } else if (boolLabel.lFalse != FALL) {
-                m_writer.println("ifFalse " + identifierValue + " == 1 goto " + boolLabel.lFalse);
+                m_emitter.branch("ifFalse", identifierValue, "==", 1, boolLabel.lFalse);
             } else {
                 throw new Error("Invalid boolean label configuration");
             }
@@ -417,20 +812,6 @@ public class IntermediateCodeGenFallVisitor implements ParserVisitor {
         return identifierValue;
     }
 
-
-    @Override
-    public Object visit(ASTIntValue node, Object data) {
-        return Integer.toString(node.getValue());
-    }
-
-    public enum VarType {
-        Bool,
-        Number,
-        EnumType,
-        EnumVar,
-        EnumValue
-    }
-
     private static class BoolLabel {
         public String lTrue;
         public String lFalse;
@@ -3,7 +3,7 @@ package analyzer.visitors;
 import analyzer.ast.*;
 
 import java.io.PrintWriter;
-import java.util.HashMap;
+import java.util.Map;
 import java.util.Vector;
 
 
@@ -16,285 +16,538 @@ import java.util.Vector;
  * @author Raphaël Tremblay
  * @version 2024.02.26
  */
-public class IntermediateCodeGenVisitor implements ParserVisitor {
-    private final PrintWriter m_writer;
+public class IntermediateCodeGenVisitor extends IntermediateCodeGenBase {
+    private final IREmitter m_emitter;
 
-    public HashMap<String, VarType> SymbolTable = new HashMap<>();
-    public HashMap<String, Integer> EnumValueTable = new HashMap<>();
+    // Symboles résolus une fois et attachés aux noeuds de l'AST.
+    public SymbolResolver Symbols = null;
+
+    // Sans remplacement des appels, chaque fonction appelée est générée une fois et appelée avec call.
+    public boolean Inlining = true;
+    public FunctionInliner Inliner = null;
+
+    // Longueur des tableaux et indices dont la vérification des bornes est omise.
+    public RangeAnalysis Ranges = null;
+    // Sans réduction, chaque produit par une variable d'induction reste une multiplication à chaque tour. Désactivée
+    // par défaut, comme le profil, pour que le code de base ne change pas.
+    public boolean StrengthReduction = false;
+    public InductionVariables Induction = null;
+
+    // Bloc atteint par un accès hors des bornes, généré après le programme s'il est utilisé.
+    private String m_outOfBoundsLabel = null;
 
     private int id = 0;
     private int label = 0;
 
     public IntermediateCodeGenVisitor(PrintWriter writer) {
-        m_writer = writer;
+        this(new IREmitter(writer));
     }
 
-    private String newID() {
-        return "_t" + id++;
+    public IntermediateCodeGenVisitor(IREmitter emitter) {
+        m_emitter = emitter;
     }
 
-    private String newLabel() {
-        return "_L" + label++;
+    private String newID() {
+        return IREmitter.temporaryName(id++);
     }
 
-    @Override
-    public Object visit(SimpleNode node, Object data) {
-        return data;
+    private String newLabel() {
+        return IREmitter.labelName(label++);
     }
 
     @Override
     public Object visit(ASTProgram node, Object data) {
+        Symbols = SymbolResolver.resolve(node);
+        Inliner = new FunctionInliner(node, Inlining);
+        Ranges = new RangeAnalysis(node);
+        Induction = new InductionVariables();
+        for (Map.Entry<String, Integer> array : Ranges.lengths().entrySet()) {
+            m_emitter.array(array.getKey(), array.getValue());
+        }
         String label = newLabel();
-        node.childrenAccept(this, label);
-        m_writer.println(label);
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            statement(node.jjtGetChild(i), label);
+        }
+        m_emitter.label(label);
+        if (m_outOfBoundsLabel != null) {
+            String endLabel = newLabel();
+            m_emitter.jump(endLabel);
+            m_emitter.label(m_outOfBoundsLabel);
+            m_emitter.copy(IREmitter.OUT_OF_BOUNDS, 1);
+            m_emitter.label(endLabel);
+        }
+        m_emitter.flush();
         return null;
     }
 
-    @Override
-    public Object visit(ASTDeclaration node, Object data) {
-        String varName = ((ASTIdentifier) node.jjtGetChild(0)).getValue();
-        VarType varType;
-        if (node.getValue() == null) {
-            varName = ((ASTIdentifier) node.jjtGetChild(1)).getValue();
-            varType = VarType.EnumVar;
-        } else
-            varType = node.getValue().equals("num") ? VarType.Number : VarType.Bool;
-
-        SymbolTable.put(varName, varType);
-        return null;
+    /**
+     * Génère une instruction.
+     *
+     * @param next L'étiquette de l'instruction suivante
+     */
+    private void statement(Node node, String next) {
+        switch (kind(node)) {
+            case ParserTreeConstants.JJTBLOCK:
+                block((ASTBlock) node, next);
+                break;
+            case ParserTreeConstants.JJTSTMT:
+                statement(node.jjtGetChild(0), next);
+                break;
+            case ParserTreeConstants.JJTASSIGNSTMT:
+                assignStmt((ASTAssignStmt) node, next);
+                break;
+            case ParserTreeConstants.JJTIFSTMT:
+                ifStmt((ASTIfStmt) node, next);
+                break;
+            case ParserTreeConstants.JJTWHILESTMT:
+                whileStmt((ASTWhileStmt) node, next);
+                break;
+            case ParserTreeConstants.JJTFORSTMT:
+                forStmt((ASTForStmt) node, next);
+                break;
+            case ParserTreeConstants.JJTSWITCHSTMT:
+                switchStmt((ASTSwitchStmt) node, next);
+                break;
+            case ParserTreeConstants.JJTFUNCSTMT:
+                funcStmt((ASTFuncStmt) node, next);
+                break;
+            case ParserTreeConstants.JJTBREAKSTMT:
+                m_emitter.jump(next);
+                break;
+            case ParserTreeConstants.JJTDECLARATION:
+            case ParserTreeConstants.JJTENUMSTMT:
+                // Les déclarations et les énumérations ne génèrent rien, leurs symboles sont déjà résolus.
+                break;
+            default:
+                throw unexpected("statement", node);
+        }
     }
 
-    @Override
-    public Object visit(ASTBlock node, Object data) {
-        int numChildren = node.jjtGetNumChildren();
-        if (numChildren == 0) {
-            return null;
-        }
-        for (int i = 0; i < numChildren; i++) {
-            if (i < numChildren - 1) {
-                String label = newLabel();
-                node.jjtGetChild(i).jjtAccept(this, label);
-                m_writer.println(label);
-            } else {
-                node.jjtGetChild(i).jjtAccept(this, data);
-            }
+    /**
+     * Génère une expression. Dans une condition, chaque valeur booléenne branche vers l'une des sorties.
+     *
+     * @param labels Les sorties de la condition, null pour une valeur
+     * @return L'opérande de la valeur
+     */
+    private String expression(Node node, BoolLabel labels) {
+        switch (kind(node)) {
+            case ParserTreeConstants.JJTEXPR:
+            case ParserTreeConstants.JJTGENVALUE:
+                return expression(node.jjtGetChild(0), labels);
+            case ParserTreeConstants.JJTBOOLEXPR:
+                return boolExpr((ASTBoolExpr) node, labels);
+            case ParserTreeConstants.JJTCOMPEXPR:
+                return compExpr((ASTCompExpr) node, labels);
+            case ParserTreeConstants.JJTADDEXPR:
+                return codeExtAddMul((SimpleNode) node, labels, ((ASTAddExpr) node).getOps());
+            case ParserTreeConstants.JJTMULEXPR:
+                return mulExpr((ASTMulExpr) node, labels);
+            case ParserTreeConstants.JJTUNAEXPR:
+                return unaExpr((ASTUnaExpr) node, labels);
+            case ParserTreeConstants.JJTNOTEXPR:
+                return notExpr((ASTNotExpr) node, labels);
+            case ParserTreeConstants.JJTCALLEXPR:
+                return callExpr((ASTCallExpr) node, labels);
+            case ParserTreeConstants.JJTARRAYACCESS:
+                return arrayAccess((ASTArrayAccess) node, labels);
+            case ParserTreeConstants.JJTIDENTIFIER:
+                return identifier((ASTIdentifier) node, labels);
+            case ParserTreeConstants.JJTINTVALUE:
+                return Integer.toString(((ASTIntValue) node).getValue());
+            case ParserTreeConstants.JJTBOOLVALUE:
+                return boolValue((ASTBoolValue) node, labels);
+            default:
+                throw unexpected("expression", node);
         }
+    }
 
-        return null;
+    private static VarType elementType(VarType arrayType) {
+        return arrayType == VarType.NumArray ? VarType.Number : VarType.Bool;
     }
 
-    @Override
-    public Object visit(ASTEnumStmt node, Object data) {
+    private void block(ASTBlock node, String next) {
         int numChildren = node.jjtGetNumChildren();
-        if (numChildren < 1) {
-            return null;
-        }
-        for (int i = 1; i < numChildren; i++) {
-            try {
-                ASTIdentifier enumChild = (ASTIdentifier) node.jjtGetChild(i);
-                String enumName = enumChild.getValue();
-                SymbolTable.put(enumName, VarType.EnumType);
-                EnumValueTable.put(enumName, i - 1);
-            } catch (ClassCastException e) {
+        for (int i = 0; i < numChildren; i++) {
+            if (i < numChildren - 1) {
+                String label = newLabel();
+                statement(node.jjtGetChild(i), label);
+                m_emitter.label(label);
+            } else {
+                statement(node.jjtGetChild(i), next);
             }
         }
-        node.childrenAccept(this, data);
-        return null;
     }
 
-    @Override
-    public Object visit(ASTSwitchStmt node, Object data) {
+    private void switchStmt(ASTSwitchStmt node, String next) {
         int childCount = node.jjtGetNumChildren();
-        String endSwitchLabel = (String) data;
-        String switchVariable = (String) node.jjtGetChild(0).jjtAccept(this, data);
+        String endSwitchLabel = next;
+        String switchVariable = expression(node.jjtGetChild(0), null);
         Vector<String> caseLabels = new Vector<>();
         caseLabels.add(endSwitchLabel);
         for (int i = 1; i < childCount - 1; i++) {
             caseLabels.add(newLabel());
-            String caseValue = (String) node.jjtGetChild(i).jjtGetChild(0).jjtAccept(this, caseLabels);
-            m_writer.println("if " + switchVariable + " != " + EnumValueTable.get(caseValue) + " goto " + caseLabels.lastElement());
+            int caseValue = SymbolResolver.symbol(node.jjtGetChild(i).jjtGetChild(0)).ordinal;
+            m_emitter.branch("if", switchVariable, "!=", caseValue, caseLabels.lastElement());
             if (caseLabels.size() >= 3) {
-                m_writer.println(caseLabels.remove(caseLabels.size() - 2));
+                m_emitter.label(caseLabels.remove(caseLabels.size() - 2));
             }
-            node.jjtGetChild(i).jjtAccept(this, caseLabels);
+            caseStmt((ASTCaseStmt) node.jjtGetChild(i), caseLabels);
         }
-        String lastCaseValue = (String) node.jjtGetChild(childCount - 1).jjtGetChild(0).jjtAccept(this, caseLabels);
-        m_writer.println("if " + switchVariable + " != " + EnumValueTable.get(lastCaseValue) + " goto " + endSwitchLabel);
+        int lastCaseValue = SymbolResolver.symbol(node.jjtGetChild(childCount - 1).jjtGetChild(0)).ordinal;
+        m_emitter.branch("if", switchVariable, "!=", lastCaseValue, endSwitchLabel);
         if (caseLabels.size() >= 2) {
-            m_writer.println(caseLabels.remove(caseLabels.size() - 1));
+            m_emitter.label(caseLabels.remove(caseLabels.size() - 1));
         }
-        node.jjtGetChild(childCount - 1).jjtAccept(this, caseLabels);
-        return null;
+        caseStmt((ASTCaseStmt) node.jjtGetChild(childCount - 1), caseLabels);
     }
 
-    @Override
-    public Object visit(ASTCaseStmt node, Object data) {
+    /**
+     * @param caseLabels La fin du switch, puis les étiquettes du case et du suivant
+     */
+    private void caseStmt(ASTCaseStmt node, Vector<String> caseLabels) {
         int childCount = node.jjtGetNumChildren();
-        if (childCount == 0) return null;
+        if (childCount == 0) return;
 
         for (int i = 1; i < childCount; i++) {
-            node.jjtGetChild(i).jjtAccept(this, ((Vector<String>) data).firstElement());
+            statement(node.jjtGetChild(i), caseLabels.firstElement());
         }
 
-        String typeOfLastChild = node.jjtGetChild(childCount - 1).getClass().toString();
-        boolean isLastChildNotBreakStmt = !typeOfLastChild.equals("class analyzer.ast.ASTBreakStmt");
-        if (isLastChildNotBreakStmt && ((Vector<String>) data).size() > 1) {
+        boolean isLastChildNotBreakStmt = kind(node.jjtGetChild(childCount - 1)) != ParserTreeConstants.JJTBREAKSTMT;
+        if (isLastChildNotBreakStmt && caseLabels.size() > 1) {
             String newLabel = newLabel();
-            ((Vector<String>) data).add(newLabel);
-            m_writer.println("goto " + newLabel);
+            caseLabels.add(newLabel);
+            m_emitter.jump(newLabel);
         }
 
-        if (((Vector<String>) data).size() > 1) {
-            m_writer.println(((Vector<String>) data).remove(1));
+        if (caseLabels.size() > 1) {
+            m_emitter.label(caseLabels.remove(1));
         }
-        return null;
-    }
-
-    @Override
-    public Object visit(ASTBreakStmt node, Object data) {
-        node.childrenAccept(this, data);
-        m_writer.println("goto " + data);
-        return null;
-    }
-
-
-    @Override
-    public Object visit(ASTStmt node, Object data) {
-        node.childrenAccept(this, data);
-        return null;
     }
 
-    @Override
-    public Object visit(ASTIfStmt node, Object data) {
+    private void ifStmt(ASTIfStmt node, String next) {
         int childCount = node.jjtGetNumChildren();
 
         switch (childCount) {
             case 1:
-                return node.jjtGetChild(0).jjtAccept(this, data);
+                expression(node.jjtGetChild(0), null);
+                break;
 
             case 2:
                 String ifLabelForTrueBranch = newLabel();
-                node.jjtGetChild(0).jjtAccept(this, new BoolLabel(ifLabelForTrueBranch, (String) data));
-                m_writer.println(ifLabelForTrueBranch);
-                node.jjtGetChild(1).jjtAccept(this, data);
+                expression(node.jjtGetChild(0), new BoolLabel(ifLabelForTrueBranch, next));
+                m_emitter.label(ifLabelForTrueBranch);
+                statement(node.jjtGetChild(1), next);
                 break;
 
             case 3:
                 String labelForTrue = newLabel();
                 String labelForFalse = newLabel();
                 BoolLabel boolLabelForIf = new BoolLabel(labelForTrue, labelForFalse);
-                node.jjtGetChild(0).jjtAccept(this, boolLabelForIf);
-                m_writer.println(labelForTrue);
-                node.jjtGetChild(1).jjtAccept(this, data);
-                m_writer.println("goto " + data);
-                m_writer.println(labelForFalse);
-                node.jjtGetChild(2).jjtAccept(this, data);
+                expression(node.jjtGetChild(0), boolLabelForIf);
+                m_emitter.label(labelForTrue);
+                statement(node.jjtGetChild(1), next);
+                m_emitter.jump(next);
+                m_emitter.label(labelForFalse);
+                statement(node.jjtGetChild(2), next);
                 break;
         }
-        return null;
     }
 
-    @Override
-    public Object visit(ASTWhileStmt node, Object data) {
+    private void whileStmt(ASTWhileStmt node, String next) {
         String startLabel = newLabel();
         String trueConditionLabel = newLabel();
-        m_writer.println(startLabel);
-        node.jjtGetChild(0).jjtAccept(this, new BoolLabel(trueConditionLabel, (String) data));
-        m_writer.println(trueConditionLabel);
-        node.jjtGetChild(1).jjtAccept(this, startLabel);
-        m_writer.println("goto " + startLabel);
-        return null;
+        m_emitter.label(startLabel);
+        expression(node.jjtGetChild(0), new BoolLabel(trueConditionLabel, next));
+        m_emitter.label(trueConditionLabel);
+        statement(node.jjtGetChild(1), startLabel);
+        m_emitter.jump(startLabel);
     }
 
-    @Override
-    public Object visit(ASTForStmt node, Object data) {
+    private void forStmt(ASTForStmt node, String next) {
         String loopStartLabel = newLabel();
         String incrementLabel = newLabel();
         String conditionLabel = newLabel();
 
-        node.jjtGetChild(0).jjtAccept(this, loopStartLabel);
-        m_writer.println(loopStartLabel);
+        InductionVariables.Loop loop = StrengthReduction ? Induction.enter(node, this::newID) : null;
+        if (loop != null && loop.eliminated()) {
+            // Ni la condition ni le corps ne lisent plus i, qui reçoit directement sa valeur finale.
+            m_emitter.copy(SymbolResolver.name((ASTIdentifier) node.jjtGetChild(0).jjtGetChild(0)), loop.finalValue);
+        } else {
+            statement(node.jjtGetChild(0), loopStartLabel);
+        }
+        startAccumulators(node, loop);
+        m_emitter.label(loopStartLabel);
 
-        node.jjtGetChild(1).jjtAccept(this, new BoolLabel(conditionLabel, (String) data));
-        m_writer.println(conditionLabel);
+        if (loop != null && loop.eliminated()) {
+            m_emitter.branch("if", loop.accumulators.get(loop.testFactor), loop.testOp, loop.limit, conditionLabel);
+            m_emitter.jump(next);
+        } else {
+            expression(node.jjtGetChild(1), new BoolLabel(conditionLabel, next));
+        }
+        m_emitter.label(conditionLabel);
 
-        node.jjtGetChild(3).jjtAccept(this, incrementLabel);
-        m_writer.println(incrementLabel);
+        Ranges.enter(node);
+        statement(node.jjtGetChild(3), incrementLabel);
+        Ranges.leave(node);
+        m_emitter.label(incrementLabel);
 
-        node.jjtGetChild(2).jjtAccept(this, loopStartLabel);
+        if (loop == null || !loop.eliminated()) {
+            statement(node.jjtGetChild(2), loopStartLabel);
+        }
+        advanceAccumulators(loop);
 
-        m_writer.println("goto " + loopStartLabel);
+        m_emitter.jump(loopStartLabel);
 
-        return null;
+        Induction.leave(loop);
     }
 
-    @Override
-    public Object visit(ASTAssignStmt node, Object data) {
-        String variableName = ((ASTIdentifier) node.jjtGetChild(0)).getValue();
-
-        if (SymbolTable.get(variableName) == VarType.Number) {
-            String expressionResult = (String) node.jjtGetChild(1).jjtAccept(this, data);
-            m_writer.println(variableName + " = " + expressionResult);
-        } else if (SymbolTable.get(variableName) == VarType.EnumVar) {
-            String enumValue = (String) node.jjtGetChild(1).jjtAccept(this, data);
-            m_writer.println(variableName + " = " + EnumValueTable.get(enumValue));
+    /**
+     * Donne aux accumulateurs d'une boucle réduite leur valeur i * k, après l'initialisation de i.
+     */
+    private void startAccumulators(ASTForStmt node, InductionVariables.Loop loop) {
+        if (loop == null) return;
+        String variable = SymbolResolver.name((ASTIdentifier) node.jjtGetChild(0).jjtGetChild(0));
+        for (Map.Entry<Integer, String> accumulator : loop.accumulators.entrySet()) {
+            if (loop.initial != null) {
+                m_emitter.copy(accumulator.getValue(), (int) (loop.initial * accumulator.getKey()));
+            } else {
+                m_emitter.operation(accumulator.getValue(), variable, "*", Integer.toString(accumulator.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Avance les accumulateurs d'une boucle réduite de c * k, après la mise à jour i = i + c.
+     */
+    private void advanceAccumulators(InductionVariables.Loop loop) {
+        if (loop == null) return;
+        for (Map.Entry<Integer, String> accumulator : loop.accumulators.entrySet()) {
+            int increment = (int) (loop.step * accumulator.getKey());
+            if (increment < 0 && increment != Integer.MIN_VALUE) {
+                m_emitter.operation(accumulator.getValue(), accumulator.getValue(), "-", Integer.toString(-increment));
+            } else {
+                m_emitter.operation(accumulator.getValue(), accumulator.getValue(), "+", Integer.toString(increment));
+            }
+        }
+    }
+
+    private void assignStmt(ASTAssignStmt node, String next) {
+        if (kind(node.jjtGetChild(0)) == ParserTreeConstants.JJTARRAYACCESS) {
+            ASTArrayAccess access = (ASTArrayAccess) node.jjtGetChild(0);
+            String array = SymbolResolver.name((ASTIdentifier) access.jjtGetChild(0));
+            String value = value(node.jjtGetChild(1), elementType(SymbolResolver.type(access.jjtGetChild(0))));
+            m_emitter.store(array, index(access), value);
+            return;
+        }
+        String variableName = SymbolResolver.name((ASTIdentifier) node.jjtGetChild(0));
+        VarType variableType = SymbolResolver.type(node.jjtGetChild(0));
+
+        if (variableType == VarType.Number) {
+            String expressionResult = expression(node.jjtGetChild(1), null);
+            m_emitter.copy(variableName, expressionResult);
+        } else if (variableType == VarType.EnumVar) {
+            m_emitter.copy(variableName, value(node.jjtGetChild(1), VarType.EnumVar));
+        } else if (variableType == VarType.NumArray || variableType == VarType.BoolArray) {
+            assignArray(variableName, variableType, node.jjtGetChild(1));
         } else {
             BoolLabel booleanLabels = new BoolLabel(newLabel(), newLabel());
-            node.jjtGetChild(1).jjtAccept(this, booleanLabels);
+            expression(node.jjtGetChild(1), booleanLabels);
 
-            m_writer.println(booleanLabels.lTrue);
-            m_writer.println(variableName + " = 1");
-            m_writer.println("goto " + data);
+            m_emitter.label(booleanLabels.lTrue);
+            m_emitter.copy(variableName, 1);
+            m_emitter.jump(next);
 
-            m_writer.println(booleanLabels.lFalse);
-            m_writer.println(variableName + " = 0");
+            m_emitter.label(booleanLabels.lFalse);
+            m_emitter.copy(variableName, 0);
         }
+    }
 
-        return null;
+
+    /**
+     * Copie un tableau littéral ou un autre tableau élément par élément. Tous les éléments sont évalués avant la
+     * première copie : a = [a[1], a[0]] échange les deux éléments.
+     */
+    private void assignArray(String array, VarType arrayType, Node expression) {
+        Node source = RangeAnalysis.strip(expression);
+        String[] elements;
+        if (kind(source) == ParserTreeConstants.JJTARRAYEXPR) {
+            elements = arrayExpr((ASTArrayExpr) source, elementType(arrayType));
+        } else {
+            String sourceArray = expression(source, null);
+            elements = new String[Ranges.length(sourceArray)];
+            for (int i = 0; i < elements.length; i++) {
+                elements[i] = newID();
+                m_emitter.load(elements[i], sourceArray, Integer.toString(i));
+            }
+        }
+        for (int i = 0; i < elements.length; i++) {
+            m_emitter.store(array, Integer.toString(i), elements[i]);
+        }
+    }
+
+    /**
+     * Les éléments d'un tableau littéral, chacun dans un opérande.
+     */
+    private String[] arrayExpr(ASTArrayExpr node, VarType elementType) {
+        String[] elements = new String[node.jjtGetNumChildren()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = value(node.jjtGetChild(i), elementType);
+        }
+        return elements;
     }
 
+    private String arrayAccess(ASTArrayAccess node, BoolLabel labels) {
+        String array = SymbolResolver.name((ASTIdentifier) node.jjtGetChild(0));
+        String result = newID();
+        m_emitter.load(result, array, index(node));
+        if (SymbolResolver.type(node.jjtGetChild(0)) == VarType.BoolArray) {
+            m_emitter.branch("if", result, "==", 1, labels.lTrue);
+            m_emitter.jump(labels.lFalse);
+        }
+        return result;
+    }
 
-    @Override
-    public Object visit(ASTExpr node, Object data) {
-        return node.jjtGetChild(0).jjtAccept(this, data);
+    /**
+     * Génère l'indice d'un accès et, sauf si Ranges le prouve dans les bornes, les branchements vers le bloc qui
+     * signale l'accès hors des bornes.
+     */
+    private String index(ASTArrayAccess node) {
+        String array = SymbolResolver.name((ASTIdentifier) node.jjtGetChild(0));
+        int length = Ranges.length(array);
+        String index = value(node.jjtGetChild(1), VarType.Number);
+        if (!Ranges.inBounds(node.jjtGetChild(1), length)) {
+            if (m_outOfBoundsLabel == null) {
+                m_outOfBoundsLabel = newLabel();
+            }
+            m_emitter.branch("if", index, "<", 0, m_outOfBoundsLabel);
+            m_emitter.branch("if", index, ">=", length, m_outOfBoundsLabel);
+        }
+        return index;
     }
 
-    public Object codeExtAddMul(SimpleNode node, Object data, Vector<String> ops) {
+    private void funcStmt(ASTFuncStmt node, String next) {
+        String name = SymbolResolver.symbol(node.jjtGetChild(0)).name;
+        if (Inliner.emits(name)) {
+            m_emitter.jump(next);
+            m_emitter.label(name);
+            m_emitter.returnValue(body(node));
+        }
+    }
+
+    /**
+     * Génère le corps d'une fonction, dans son code à part ou à la place d'un appel. Ses paramètres sont des
+     * déclarations, qui ne génèrent rien.
+     *
+     * @return L'opérande de la valeur de retour
+     */
+    private String body(ASTFuncStmt node) {
+        int childCount = node.jjtGetNumChildren();
+        String endLabel = newLabel();
+        statement(node.jjtGetChild(childCount - 2), endLabel);
+        m_emitter.label(endLabel);
+        return returnStmt((ASTReturnStmt) node.jjtGetChild(childCount - 1));
+    }
+
+    private String returnStmt(ASTReturnStmt node) {
+        ASTDeclaration header = (ASTDeclaration) node.jjtGetParent().jjtGetChild(0);
+        return value(node.jjtGetChild(0), SymbolResolver.type(header));
+    }
+
+    /**
+     * Les arguments sont tous évalués avant d'être copiés dans les paramètres, un argument pouvant lui-même appeler
+     * la fonction. Le résultat d'un corps remplacé est copié dans un temporaire, sauf s'il en est déjà un, pour
+     * qu'un autre appel de la même fonction dans l'expression ne l'écrase pas.
+     */
+    private String callExpr(ASTCallExpr node, BoolLabel labels) {
+        SymbolResolver.Symbol symbol = SymbolResolver.symbol(node.jjtGetChild(0));
+        String name = symbol.name;
+        ASTFuncStmt function = symbol.function;
+        int paramCount = function.jjtGetNumChildren() - 3;
+        String[] arguments = new String[paramCount];
+        for (int i = 0; i < paramCount; i++) {
+            arguments[i] = value(node.jjtGetChild(i + 1), SymbolResolver.type(function.jjtGetChild(i + 1)));
+        }
+        for (int i = 0; i < paramCount; i++) {
+            m_emitter.copy(SymbolResolver.symbol(function.jjtGetChild(i + 1)).name, arguments[i]);
+        }
+
+        String result;
+        if (Inliner.inlines(node)) {
+            result = body(function);
+            if (!result.startsWith("_t") && !Character.isDigit(result.charAt(0))) {
+                String copy = newID();
+                m_emitter.copy(copy, result);
+                result = copy;
+            }
+        } else {
+            result = newID();
+            m_emitter.call(result, name);
+        }
+
+        if (symbol.type == VarType.Bool) {
+            m_emitter.branch("if", result, "==", 1, labels.lTrue);
+            m_emitter.jump(labels.lFalse);
+        }
+        return result;
+    }
+
+    /**
+     * Génère une expression dont la valeur doit tenir dans un opérande : un booléen vaut 1 ou 0 et une valeur
+     * d'énumération vaut son rang.
+     */
+    private String value(Node expression, VarType type) {
+        if (type == VarType.Bool) {
+            String result = newID();
+            String endLabel = newLabel();
+            BoolLabel boolLabel = new BoolLabel(newLabel(), newLabel());
+            expression(expression, boolLabel);
+            m_emitter.label(boolLabel.lTrue);
+            m_emitter.copy(result, 1);
+            m_emitter.jump(endLabel);
+            m_emitter.label(boolLabel.lFalse);
+            m_emitter.copy(result, 0);
+            m_emitter.label(endLabel);
+            return result;
+        }
+        SymbolResolver.Symbol symbol = SymbolResolver.symbol(RangeAnalysis.strip(expression));
+        if (type == VarType.EnumVar && symbol != null && symbol.type == VarType.EnumType) {
+            return Integer.toString(symbol.ordinal);
+        }
+        return expression(expression, null);
+    }
+
+    private String codeExtAddMul(SimpleNode node, BoolLabel labels, Vector<String> ops) {
         int childCount = node.jjtGetNumChildren();
         if (childCount == 1 || ops.isEmpty()) {
-            return node.jjtGetChild(0).jjtAccept(this, data);
+            return expression(node.jjtGetChild(0), labels);
         } else {
             String resultId = newID();
-            String leftOperand = (String) node.jjtGetChild(0).jjtAccept(this, data);
-            String rightOperand = (String) node.jjtGetChild(1).jjtAccept(this, data);
-            m_writer.println(resultId + " = " + leftOperand + " " + ops.get(0) + " " + rightOperand);
+            String leftOperand = expression(node.jjtGetChild(0), labels);
+            String rightOperand = expression(node.jjtGetChild(1), labels);
+            m_emitter.operation(resultId, leftOperand, ops.get(0), rightOperand);
 
             return resultId;
         }
     }
 
 
-    @Override
-    public Object visit(ASTAddExpr node, Object data) {
-        return codeExtAddMul(node, data, node.getOps());
-    }
-
-    @Override
-    public Object visit(ASTMulExpr node, Object data) {
-        return codeExtAddMul(node, data, node.getOps());
+    private String mulExpr(ASTMulExpr node, BoolLabel labels) {
+        String accumulator = Induction.accumulator(node);
+        if (accumulator != null) {
+            return accumulator;
+        }
+        return codeExtAddMul(node, labels, node.getOps());
     }
 
-    @Override
-    public Object visit(ASTUnaExpr node, Object data) {
-        String currentId = " ";
+    private String unaExpr(ASTUnaExpr node, BoolLabel labels) {
         int numUnaryOps = node.getOps().size();
-        Object childResult = node.jjtGetChild(0).jjtAccept(this, data);
+        String childResult = expression(node.jjtGetChild(0), labels);
         if (numUnaryOps > 0) {
-            currentId = newID();
-            m_writer.println(currentId + " = - " + childResult);
+            String currentId = newID();
+            m_emitter.negate(currentId, childResult);
             for (int i = 1; i < numUnaryOps; i++) {
                 String nextId = newID();
-                m_writer.println(nextId + " = - " + currentId);
+                m_emitter.negate(nextId, currentId);
                 currentId = nextId;
             }
             return currentId;
@@ -303,43 +556,40 @@ public class IntermediateCodeGenVisitor implements ParserVisitor {
         }
     }
 
-    @Override
-    public Object visit(ASTBoolExpr node, Object data) {
+    private String boolExpr(ASTBoolExpr node, BoolLabel labels) {
         int childCount = node.jjtGetNumChildren();
 
         if (childCount == 1) {
-            return node.jjtGetChild(0).jjtAccept(this, data);
+            return expression(node.jjtGetChild(0), labels);
         } else {
-            String operation = (String) node.getOps().get(0);
+            String operation = node.getOps().get(0);
 
             if ("&&".equals(operation)) {
                 String andLabel = newLabel();
-                node.jjtGetChild(0).jjtAccept(this, new BoolLabel(andLabel, ((BoolLabel) data).lFalse));
-                m_writer.println(andLabel);
-                node.jjtGetChild(1).jjtAccept(this, data);
+                expression(node.jjtGetChild(0), new BoolLabel(andLabel, labels.lFalse));
+                m_emitter.label(andLabel);
+                expression(node.jjtGetChild(1), labels);
             } else {
                 String orLabel = newLabel();
-                node.jjtGetChild(0).jjtAccept(this, new BoolLabel(((BoolLabel) data).lTrue, orLabel));
-                m_writer.println(orLabel);
-                node.jjtGetChild(1).jjtAccept(this, data);
+                expression(node.jjtGetChild(0), new BoolLabel(labels.lTrue, orLabel));
+                m_emitter.label(orLabel);
+                expression(node.jjtGetChild(1), labels);
             }
         }
 
         return null;
     }
 
-    @Override
-    public Object visit(ASTCompExpr node, Object data) {
+    private String compExpr(ASTCompExpr node, BoolLabel labels) {
         int childCount = node.jjtGetNumChildren();
         if (childCount == 1) {
-            return node.jjtGetChild(0).jjtAccept(this, data);
+            return expression(node.jjtGetChild(0), labels);
         } else {
-            String leftOperand = (String) node.jjtGetChild(0).jjtAccept(this, data);
+            String leftOperand = expression(node.jjtGetChild(0), labels);
             String comparisonOperator = node.getValue();
-            String rightOperand = (String) node.jjtGetChild(1).jjtAccept(this, data);
-            m_writer.println("if " + leftOperand + " " + comparisonOperator + " " + rightOperand +
-                    " goto " + ((BoolLabel) data).lTrue);
-            m_writer.println("goto " + ((BoolLabel) data).lFalse);
+            String rightOperand = expression(node.jjtGetChild(1), labels);
+            m_emitter.branch("if", leftOperand, comparisonOperator, rightOperand, labels.lTrue);
+            m_emitter.jump(labels.lFalse);
         }
 
         return null;
@@ -354,62 +604,39 @@ public class IntermediateCodeGenVisitor implements ParserVisitor {
 //                    jjtAccept(this, new BoolLabel(((BoolLabel) data).lFalse, ((BoolLabel) data).lTrue));
 //        } else return node.jjtGetChild(0).jjtAccept(this, data);
 //    }
-    @Override
-    public Object visit(ASTNotExpr node, Object data) {
+    private String notExpr(ASTNotExpr node, BoolLabel labels) {
         boolean hasOddNumberOfNots = (node.getOps().size() % 2 != 0);
 
         if (hasOddNumberOfNots) {
-            BoolLabel invertedBoolLabel = new BoolLabel(((BoolLabel) data).lFalse, ((BoolLabel) data).lTrue);
-            return node.jjtGetChild(0).jjtAccept(this, invertedBoolLabel);
+            BoolLabel invertedBoolLabel = new BoolLabel(labels.lFalse, labels.lTrue);
+            return expression(node.jjtGetChild(0), invertedBoolLabel);
         } else {
-            return node.jjtGetChild(0).jjtAccept(this, data);
+            return expression(node.jjtGetChild(0), labels);
         }
     }
 
+    private String boolValue(ASTBoolValue node, BoolLabel labels) {
 
-    @Override
-    public Object visit(ASTGenValue node, Object data) {
-        return node.jjtGetChild(0).jjtAccept(this, data);
-    }
-
-    @Override
-    public Object visit(ASTBoolValue node, Object data) {
-
-        String targetLabel = node.getValue() ? ((BoolLabel) data).lTrue : ((BoolLabel) data).lFalse;
+        String targetLabel = node.getValue() ? labels.lTrue : labels.lFalse;
 
-        m_writer.println("goto " + targetLabel);
+        m_emitter.jump(targetLabel);
 
         return null;
     }
 
-    @Override
-    public Object visit(ASTIdentifier node, Object data) {
-        String identifierValue = node.getValue();
+    private String identifier(ASTIdentifier node, BoolLabel labels) {
+        String identifierValue = SymbolResolver.name(node);
 
-        if (SymbolTable.get(identifierValue) == VarType.Bool) {
+        if (SymbolResolver.type(node) == VarType.Bool) {
 
-            m_writer.println("if " + identifierValue + " == 1 goto " + ((BoolLabel) data).lTrue);
+            m_emitter.branch("if", identifierValue, "==", 1, labels.lTrue);
 
-            m_writer.println("goto " + ((BoolLabel) data).lFalse);
+            m_emitter.jump(labels.lFalse);
         }
 
         return identifierValue;
     }
 
-
-    @Override
-    public Object visit(ASTIntValue node, Object data) {
-        return Integer.toString(node.getValue());
-    }
-
-    public enum VarType {
-        Bool,
-        Number,
-        EnumType,
-        EnumVar,
-        EnumValue
-    }
-
     private static class BoolLabel {
         public String lTrue;
         public String lFalse;
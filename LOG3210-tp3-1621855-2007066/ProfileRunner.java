@@ -0,0 +1,101 @@
+package analyzer.visitors;
+
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Exécute le code intermédiaire instrumenté par IntermediateCodeGenFallVisitor et en tire un ExecutionProfile.
+ * <p>
+ * La variable _p donne la clé du programme instrumenté. Les compteurs _nS et _vS donnent directement les évaluations et les conditions vraies du site S. Chaque bloc de base
+ * commençant par l'incrément de son compteur _bN, toutes les instructions qui suivent cet incrément jusqu'au bloc
+ * suivant s'exécutent autant de fois que lui : chaque variable qu'elles nomment reçoit ce nombre d'accès. Les noms
+ * commençant par '_', générés par le compilateur, ne sont pas comptés.
+ */
+public class ProfileRunner {
+    public static ExecutionProfile run(List<String> lines, Map<String, Integer> inputs) throws IOException {
+        IRInterpreter interpreter = IRInterpreter.load(new StringReader(String.join("\n", lines)));
+        int[] slots = interpreter.execute(inputs);
+
+        ExecutionProfile profile = new ExecutionProfile();
+        int program = interpreter.slotOf(ExecutionProfile.PROGRAM);
+        if (program < 0) throw new IllegalArgumentException("The code is not instrumented");
+        profile.setProgram(slots[program]);
+        for (String variable : interpreter.variables()) {
+            if (variable.startsWith(ExecutionProfile.ENTRIES)) {
+                String site = variable.substring(ExecutionProfile.ENTRIES.length());
+                int taken = interpreter.slotOf(ExecutionProfile.TAKEN + site);
+                profile.addBranch(Integer.parseInt(site), slots[interpreter.slotOf(variable)], taken < 0 ? 0 : slots[taken]);
+            }
+        }
+
+        long count = 0;
+        for (String line : lines) {
+            String[] tokens = line.trim().split("\\s+");
+            if (tokens.length == 1 || tokens[0].equals("array")) continue;
+            if (tokens[0].startsWith(ExecutionProfile.BLOCK)) {
+                count = slots[interpreter.slotOf(tokens[0])];
+                continue;
+            }
+            for (int i = 0; i < tokens.length; i++) {
+                if (i > 0 && (tokens[i - 1].equals("goto") || tokens[i - 1].equals("call"))) continue;
+                String token = tokens[i];
+                int bracket = token.indexOf('[');
+                if (bracket > 0) {
+                    addUses(profile, token.substring(0, bracket), count);
+                    token = token.substring(bracket + 1, token.length() - 1);
+                }
+                addUses(profile, token, count);
+            }
+        }
+        return profile;
+    }
+
+    private static void addUses(ExecutionProfile profile, String token, long count) {
+        if (Character.isLetter(token.charAt(0)) && !token.equals("goto") && !token.equals("if")
+                && !token.equals("ifFalse") && !token.equals("call") && !token.equals("return")) {
+            profile.addUses(token, count);
+        }
+    }
+
+    /**
+     * Usage : ProfileRunner fichier.ir profil [variable=valeur ...]
+     * <p>
+     * Un profil existant reçoit en plus les comptes de cette exécution, s'il est celui du même programme.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ProfileRunner <file.ir> <profile> [variable=value ...]");
+            System.exit(1);
+        }
+        HashMap<String, Integer> inputs = new HashMap<>();
+        for (int i = 2; i < args.length; i++) {
+            String[] input = args[i].split("=", 2);
+            if (input.length != 2) {
+                throw new IllegalArgumentException("Invalid input " + args[i] + ", expected variable=value");
+            }
+            inputs.put(input[0], Integer.parseInt(input[1]));
+        }
+        ExecutionProfile profile = run(Files.readAllLines(Paths.get(args[0])), inputs);
+
+        Path output = Paths.get(args[1]);
+        if (Files.exists(output)) {
+            try (FileReader reader = new FileReader(output.toFile())) {
+                ExecutionProfile previous = ExecutionProfile.read(reader);
+                profile.add(previous);
+            }
+        }
+        try (PrintWriter writer = new PrintWriter(new FileWriter(output.toFile()))) {
+            profile.write(writer);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package analyzer.visitors;
+
+import analyzer.ast.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Décide des accès aux tableaux dont IntermediateCodeGenVisitor et IntermediateCodeGenFallVisitor peuvent omettre
+ * la vérification des bornes.
+ * <p>
+ * Un indice est dans les bornes quand son intervalle de valeurs est compris dans [0, longueur - 1]. Une constante a
+ * un intervalle d'une seule valeur. Dans le corps d'une boucle for reconnue, la variable d'induction a l'intervalle
+ * donné par sa valeur initiale et sa condition ; l'intervalle d'une somme, d'une différence ou d'un produit se déduit
+ * de ceux de ses opérandes. Une boucle est reconnue quand :
+ * <ul>
+ *     <li>l'initialisation est i = constante ;</li>
+ *     <li>la condition compare i à une constante avec &lt;, &lt;=, &gt; ou &gt;= ;</li>
+ *     <li>la mise à jour est i = i + c ou i = i - c, et fait avancer i vers la borne de la condition ;</li>
+ *     <li>le corps n'assigne pas i et n'appelle aucune fonction, qui pourrait assigner i.</li>
+ * </ul>
+ * Le corps ne s'exécute que si la condition est vraie et i ne fait que s'approcher de la borne, i reste donc entre
+ * sa valeur initiale et la borne pendant tout le corps.
+ * <p>
+ * La longueur d'un tableau est celle de la première valeur qu'il reçoit dans le texte du programme, un tableau
+ * littéral ou un autre tableau ; SemantiqueVisitor vérifie que les suivantes ont la même. Les tableaux et les variables
+ * sont désignés par leur nom dans le code intermédiaire (SymbolResolver.name) : deux fonctions peuvent déclarer un
+ * tableau du même nom et de longueurs différentes.
+ */
+public class RangeAnalysis {
+    // Longueur de chaque tableau, par son nom dans le code intermédiaire, dans l'ordre de leur première assignation.
+    private final LinkedHashMap<String, Integer> m_lengths = new LinkedHashMap<>();
+    // Intervalle de chaque variable d'induction des boucles en cours de génération.
+    private final HashMap<String, long[]> m_ranges = new HashMap<>();
+
+    // variables pour les metrics
+    public int CHECKED = 0;
+    public int ELIMINATED = 0;
+    public int LOOPS = 0;
+
+    public RangeAnalysis(ASTProgram program) {
+        SymbolResolver.resolve(program);
+        collect(program);
+    }
+
+    private void collect(Node node) {
+        if (node instanceof ASTAssignStmt && node.jjtGetNumChildren() > 1) {
+            String target = assigned(node);
+            Node source = strip(node.jjtGetChild(1));
+            if (target != null && !m_lengths.containsKey(target)) {
+                if (source instanceof ASTArrayExpr) {
+                    m_lengths.put(target, source.jjtGetNumChildren());
+                } else if (m_lengths.containsKey(identifier(source))) {
+                    m_lengths.put(target, m_lengths.get(identifier(source)));
+                }
+            }
+        }
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            collect(node.jjtGetChild(i));
+        }
+    }
+
+    /**
+     * Les tableaux du programme et leur longueur.
+     */
+    public Map<String, Integer> lengths() {
+        return Collections.unmodifiableMap(m_lengths);
+    }
+
+    public int length(String array) {
+        return m_lengths.get(array);
+    }
+
+    /**
+     * Donne son intervalle à la variable d'induction pour la génération du corps, si la boucle est reconnue. Une
+     * boucle englobante n'a jamais la même variable d'induction, puisque l'initialisation de celle-ci l'assigne.
+     */
+    public void enter(ASTForStmt node) {
+        long[] range = loopRange(node);
+        if (range == null) {
+            return;
+        }
+        LOOPS++;
+        m_ranges.put(assigned(node.jjtGetChild(0)), range);
+    }
+
+    /**
+     * L'intervalle de la variable d'induction dans le corps d'une boucle reconnue, null si la boucle ne l'est pas.
+     */
+    static long[] loopRange(ASTForStmt node) {
+        if (node.jjtGetNumChildren() != 4
+                || !(node.jjtGetChild(0) instanceof ASTAssignStmt)
+                || !(node.jjtGetChild(2) instanceof ASTAssignStmt)) {
+            return null;
+        }
+        String variable = assigned(node.jjtGetChild(0));
+        Long initial = constant(node.jjtGetChild(0).jjtGetChild(1));
+        Long step = step(node.jjtGetChild(2), variable);
+        Node condition = strip(node.jjtGetChild(1));
+        if (variable == null || initial == null || step == null || step == 0
+                || !(condition instanceof ASTCompExpr) || condition.jjtGetNumChildren() != 2) {
+            return null;
+        }
+
+        String op = ((ASTCompExpr) condition).getValue();
+        Long bound = constant(condition.jjtGetChild(1));
+        if (!variable.equals(identifier(condition.jjtGetChild(0)))) {
+            // c > i se lit i < c.
+            bound = constant(condition.jjtGetChild(0));
+            if (!variable.equals(identifier(condition.jjtGetChild(1)))) return null;
+            op = mirror(op);
+        }
+        if (bound == null || op == null || assigns(node.jjtGetChild(3), variable)) {
+            return null;
+        }
+
+        long[] range;
+        if (step > 0 && op.equals("<")) {
+            range = new long[]{initial, bound - 1};
+        } else if (step > 0 && op.equals("<=")) {
+            range = new long[]{initial, bound};
+        } else if (step < 0 && op.equals(">")) {
+            range = new long[]{bound + 1, initial};
+        } else if (step < 0 && op.equals(">=")) {
+            range = new long[]{bound, initial};
+        } else {
+            return null;
+        }
+        // Le dernier pas ne doit pas déborder et faire revenir i dans la condition.
+        if (range[1] + step > Integer.MAX_VALUE || range[0] + step < Integer.MIN_VALUE) {
+            return null;
+        }
+        return range;
+    }
+
+    /**
+     * Retire l'intervalle de la variable d'induction après le corps de la boucle.
+     */
+    public void leave(ASTForStmt node) {
+        if (node.jjtGetChild(0) instanceof ASTAssignStmt) {
+            m_ranges.remove(assigned(node.jjtGetChild(0)));
+        }
+    }
+
+    /**
+     * Vrai si l'indice est prouvé dans les bornes, la vérification est alors omise. Compte l'accès dans les metrics.
+     */
+    public boolean inBounds(Node index, int length) {
+        long[] range = range(index);
+        if (range != null && range[0] >= 0 && range[1] < length) {
+            ELIMINATED++;
+            return true;
+        }
+        CHECKED++;
+        return false;
+    }
+
+    private long[] range(Node expression) {
+        Node node = strip(expression);
+        Long constant = constant(node);
+        if (constant != null) {
+            return new long[]{constant, constant};
+        }
+        String variable = identifier(node);
+        if (variable != null) {
+            return m_ranges.get(variable);
+        }
+        if (node instanceof ASTAddExpr && node.jjtGetNumChildren() == 2) {
+            String op = ((ASTAddExpr) node).getOps().get(0);
+            long[] left = range(node.jjtGetChild(0));
+            long[] right = range(node.jjtGetChild(1));
+            if (left == null || right == null) return null;
+            if (op.equals("+")) return new long[]{left[0] + right[0], left[1] + right[1]};
+            if (op.equals("-")) return new long[]{left[0] - right[1], left[1] - right[0]};
+        }
+        if (node instanceof ASTMulExpr && node.jjtGetNumChildren() == 2 && ((ASTMulExpr) node).getOps().get(0).equals("*")) {
+            long[] left = range(node.jjtGetChild(0));
+            long[] right = range(node.jjtGetChild(1));
+            if (left == null || right == null) return null;
+            long[] products = {left[0] * right[0], left[0] * right[1], left[1] * right[0], left[1] * right[1]};
+            long[] product = {products[0], products[0]};
+            for (long p : products) {
+                product[0] = Math.min(product[0], p);
+                product[1] = Math.max(product[1], p);
+            }
+            return product;
+        }
+        return null;
+    }
+
+    /**
+     * Le pas de i = i + c, i = c + i ou i = i - c, null pour toute autre mise à jour.
+     */
+    static Long step(Node update, String variable) {
+        if (variable == null || !variable.equals(assigned(update))) return null;
+        Node node = strip(update.jjtGetChild(1));
+        if (!(node instanceof ASTAddExpr) || node.jjtGetNumChildren() != 2) return null;
+        String op = ((ASTAddExpr) node).getOps().get(0);
+        Long left = constant(node.jjtGetChild(0));
+        Long right = constant(node.jjtGetChild(1));
+        if (variable.equals(identifier(node.jjtGetChild(0))) && right != null) {
+            return op.equals("+") ? right : op.equals("-") ? -right : null;
+        }
+        if (variable.equals(identifier(node.jjtGetChild(1))) && left != null && op.equals("+")) {
+            return left;
+        }
+        return null;
+    }
+
+    static String mirror(String op) {
+        switch (op) {
+            case "<": return ">";
+            case "<=": return ">=";
+            case ">": return "<";
+            case ">=": return "<=";
+            default: return null;
+        }
+    }
+
+    /**
+     * Vrai si un noeud peut modifier la variable : une assignation de la variable ou un appel de fonction.
+     */
+    static boolean assigns(Node node, String variable) {
+        if (node instanceof ASTCallExpr) return true;
+        if (node instanceof ASTAssignStmt && variable.equals(assigned(node))) return true;
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            if (assigns(node.jjtGetChild(i), variable)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Le nom de la variable assignée dans le code intermédiaire, préfixé par sa fonction si elle y est déclarée.
+     */
+    static String assigned(Node assign) {
+        Node target = assign.jjtGetChild(0);
+        return target instanceof ASTIdentifier ? SymbolResolver.name((ASTIdentifier) target) : null;
+    }
+
+    static String identifier(Node expression) {
+        Node node = strip(expression);
+        return node instanceof ASTIdentifier ? SymbolResolver.name((ASTIdentifier) node) : null;
+    }
+
+    static Long constant(Node expression) {
+        Node node = strip(expression);
+        return node instanceof ASTIntValue ? (long) ((ASTIntValue) node).getValue() : null;
+    }
+
+    /**
+     * Descend les noeuds d'expression à un seul enfant qui ne font que transmettre la valeur de cet enfant.
+     */
+    static Node strip(Node node) {
+        while (node.jjtGetNumChildren() == 1 && (node instanceof ASTExpr || node instanceof ASTBoolExpr
+                || node instanceof ASTCompExpr || node instanceof ASTAddExpr || node instanceof ASTMulExpr
+                || node instanceof ASTGenValue
+                || node instanceof ASTUnaExpr && ((ASTUnaExpr) node).getOps().isEmpty()
+                || node instanceof ASTNotExpr && ((ASTNotExpr) node).getOps().isEmpty())) {
+            node = node.jjtGetChild(0);
+        }
+        return node;
+    }
+
+    public String metrics() {
+        return String.format("{CHECKED:%d, ELIMINATED:%d, LOOPS:%d}", CHECKED, ELIMINATED, LOOPS);
+    }
+}
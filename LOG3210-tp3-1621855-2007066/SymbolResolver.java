@@ -0,0 +1,187 @@
+package analyzer.visitors;
+
+import analyzer.ast.*;
+
+import java.util.HashMap;
+
+
+/**
+ * Résout une seule fois les noms d'un programme pour IntermediateCodeGenVisitor et IntermediateCodeGenFallVisitor, qui
+ * lisent ensuite dans l'AST le symbole de chaque identificateur au lieu de reconstruire leurs tables pendant la
+ * génération.
+ * <p>
+ * Chaque déclaration, fonction et valeur d'énumération devient un Symbol, attaché (jjtSetValue) au noeud qui le
+ * déclare et à chaque identificateur qui le nomme. Les paramètres et les variables d'une fonction sont préfixés par
+ * son nom : dans son corps, un nom déclaré plus haut dans la fonction la désigne, un autre nom la variable globale. Le
+ * nom d'un appel désigne toujours une fonction déclarée avant lui. Un identificateur qui ne nomme aucune déclaration,
+ * comme le nom d'une énumération, n'a pas de symbole.
+ * <p>
+ * Le programme garde le résolveur : les générateurs qui parcourent ensuite le même AST réutilisent sa résolution.
+ */
+public class SymbolResolver {
+    private final HashMap<String, Symbol> m_globals = new HashMap<>();
+    private final HashMap<String, Symbol> m_functions = new HashMap<>();
+    // Paramètres et variables de la fonction en cours de résolution, null hors d'une fonction.
+    private HashMap<String, Symbol> m_locals = null;
+    private String m_function = null;
+
+    // variables pour les metrics
+    public int SYMBOLS = 0;
+    public int REFERENCES = 0;
+    public int UNRESOLVED = 0;
+
+    private SymbolResolver() {
+    }
+
+    /**
+     * Les symboles du programme, résolus au premier appel.
+     */
+    public static SymbolResolver resolve(ASTProgram program) {
+        if (program.jjtGetValue() instanceof SymbolResolver) {
+            return (SymbolResolver) program.jjtGetValue();
+        }
+        SymbolResolver resolver = new SymbolResolver();
+        resolver.visit(program);
+        program.jjtSetValue(resolver);
+        return resolver;
+    }
+
+    /**
+     * Le symbole d'un identificateur ou d'une déclaration, null s'il n'en a pas.
+     */
+    public static Symbol symbol(Node node) {
+        Object value = ((SimpleNode) node).jjtGetValue();
+        return value instanceof Symbol ? (Symbol) value : null;
+    }
+
+    /**
+     * Le type d'un identificateur, null s'il n'a pas de symbole.
+     */
+    public static VarType type(Node node) {
+        Symbol symbol = symbol(node);
+        return symbol == null ? null : symbol.type;
+    }
+
+    /**
+     * Le nom d'un identificateur dans le code intermédiaire, son nom dans le programme s'il n'a pas de symbole.
+     */
+    public static String name(ASTIdentifier node) {
+        Symbol symbol = symbol(node);
+        return symbol == null ? node.getValue() : symbol.name;
+    }
+
+    private void visit(Node node) {
+        // Chaque noeud porte le rang de son type dans ParserTreeConstants : un seul switch remplace la suite de tests
+        // instanceof, qui ne s'arrêtait qu'au dernier pour les expressions et les instructions.
+        switch (((SimpleNode) node).getId()) {
+            case ParserTreeConstants.JJTDECLARATION:
+                declare((ASTDeclaration) node);
+                break;
+            case ParserTreeConstants.JJTENUMSTMT:
+                // Le premier enfant est le nom de l'énumération, les suivants ses valeurs dans l'ordre.
+                for (int i = 1; i < node.jjtGetNumChildren(); i++) {
+                    if (!(node.jjtGetChild(i) instanceof ASTIdentifier)) continue;
+                    ASTIdentifier constant = (ASTIdentifier) node.jjtGetChild(i);
+                    Symbol symbol = new Symbol(SYMBOLS++, constant.getValue(), VarType.EnumType, i - 1, null);
+                    m_globals.put(constant.getValue(), symbol);
+                    constant.jjtSetValue(symbol);
+                }
+                break;
+            case ParserTreeConstants.JJTFUNCSTMT:
+                function((ASTFuncStmt) node);
+                break;
+            case ParserTreeConstants.JJTCALLEXPR:
+                reference((ASTIdentifier) node.jjtGetChild(0), m_functions.get(((ASTIdentifier) node.jjtGetChild(0)).getValue()));
+                for (int i = 1; i < node.jjtGetNumChildren(); i++) {
+                    visit(node.jjtGetChild(i));
+                }
+                break;
+            case ParserTreeConstants.JJTIDENTIFIER:
+                String name = ((ASTIdentifier) node).getValue();
+                Symbol symbol = m_locals != null ? m_locals.get(name) : null;
+                reference((ASTIdentifier) node, symbol != null ? symbol : m_globals.get(name));
+                break;
+            default:
+                for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+                    visit(node.jjtGetChild(i));
+                }
+        }
+    }
+
+    private void function(ASTFuncStmt node) {
+        ASTDeclaration header = (ASTDeclaration) node.jjtGetChild(0);
+        ASTIdentifier identifier = (ASTIdentifier) header.jjtGetChild(header.jjtGetNumChildren() - 1);
+        Symbol function = new Symbol(SYMBOLS++, identifier.getValue(), declarationType(header), -1, node);
+        m_functions.put(function.name, function);
+        header.jjtSetValue(function);
+        identifier.jjtSetValue(function);
+
+        String caller = m_function;
+        HashMap<String, Symbol> callerLocals = m_locals;
+        m_function = function.name;
+        m_locals = new HashMap<>();
+        for (int i = 1; i < node.jjtGetNumChildren(); i++) {
+            visit(node.jjtGetChild(i));
+        }
+        m_function = caller;
+        m_locals = callerLocals;
+    }
+
+    private void declare(ASTDeclaration node) {
+        ASTIdentifier identifier = (ASTIdentifier) node.jjtGetChild(node.jjtGetNumChildren() - 1);
+        String name = identifier.getValue();
+        Symbol symbol = new Symbol(SYMBOLS++, m_locals != null ? m_function + "." + name : name,
+                declarationType(node), -1, null);
+        if (m_locals != null) {
+            m_locals.put(name, symbol);
+        } else {
+            m_globals.put(name, symbol);
+        }
+        node.jjtSetValue(symbol);
+        identifier.jjtSetValue(symbol);
+    }
+
+    private void reference(ASTIdentifier node, Symbol symbol) {
+        if (symbol == null) {
+            UNRESOLVED++;
+            return;
+        }
+        REFERENCES++;
+        node.jjtSetValue(symbol);
+    }
+
+    private static VarType declarationType(ASTDeclaration node) {
+        if (node.getValue() == null) {
+            return VarType.EnumVar;
+        }
+        switch (node.getValue()) {
+            case "num": return VarType.Number;
+            case "num[]": return VarType.NumArray;
+            case "bool[]": return VarType.BoolArray;
+            default: return VarType.Bool;
+        }
+    }
+
+    public String metrics() {
+        return String.format("{SYMBOLS:%d, REFERENCES:%d, UNRESOLVED:%d}", SYMBOLS, REFERENCES, UNRESOLVED);
+    }
+
+    public static class Symbol {
+        public final int id;
+        // Nom dans le code intermédiaire, préfixé par la fonction pour un paramètre ou une variable locale.
+        public final String name;
+        public final VarType type;
+        // Rang d'une valeur d'énumération, -1 pour les autres symboles.
+        public final int ordinal;
+        // Le noeud d'une fonction, null pour les autres symboles.
+        public final ASTFuncStmt function;
+
+        public Symbol(int id, String name, VarType type, int ordinal, ASTFuncStmt function) {
+            this.id = id;
+            this.name = name;
+            this.type = type;
+            this.ordinal = ordinal;
+            this.function = function;
+        }
+    }
+}
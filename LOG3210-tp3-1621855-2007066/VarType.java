@@ -0,0 +1,16 @@
+package analyzer.visitors;
+
+
+/**
+ * Type d'un symbole résolu par SymbolResolver, commun à IntermediateCodeGenVisitor et IntermediateCodeGenFallVisitor.
+ * Le type d'une fonction est celui de sa valeur de retour.
+ */
+public enum VarType {
+    Bool,
+    Number,
+    EnumType,
+    EnumVar,
+    EnumValue,
+    NumArray,
+    BoolArray
+}
@@ -0,0 +1,27 @@
+/* Generated By:JJTree: Do not edit this line. ASTCompExpr.java Version 7.0 */
+/* JavaCCOptions:MULTI=true,NODE_USES_PARSER=false,VISITOR=true,TRACK_TOKENS=false,NODE_PREFIX=AST,NODE_EXTENDS=,NODE_FACTORY=,SUPPORT_CLASS_VISIBILITY_PUBLIC=true */
+package analyzer.ast;
+
+public
+class ASTCompExpr extends SimpleNode {
+  public ASTCompExpr(int id) {
+    super(id);
+  }
+
+  public ASTCompExpr(Parser p, int id) {
+    super(p, id);
+  }
+
+  private String m_value = null;
+
+  public void setValue(String v) { m_value = v; }
+  public String getValue() { return m_value; }
+
+
+  /** Accept the visitor. **/
+  public Object jjtAccept(ParserVisitor visitor, Object data) {
+
+    return
+    visitor.visit(this, data);
+  }
+}
@@ -0,0 +1,27 @@
+/* Generated By:JJTree: Do not edit this line. ASTIntValue.java Version 7.0 */
+/* JavaCCOptions:MULTI=true,NODE_USES_PARSER=false,VISITOR=true,TRACK_TOKENS=false,NODE_PREFIX=AST,NODE_EXTENDS=,NODE_FACTORY=,SUPPORT_CLASS_VISIBILITY_PUBLIC=true */
+package analyzer.ast;
+
+public
+class ASTIntValue extends SimpleNode {
+  public ASTIntValue(int id) {
+    super(id);
+  }
+
+  public ASTIntValue(Parser p, int id) {
+    super(p, id);
+  }
+
+  private int m_value = 0;
+
+  public void setValue(int v) { m_value = v; }
+  public int getValue() { return m_value; }
+
+
+  /** Accept the visitor. **/
+  public Object jjtAccept(ParserVisitor visitor, Object data) {
+
+    return
+    visitor.visit(this, data);
+  }
+}
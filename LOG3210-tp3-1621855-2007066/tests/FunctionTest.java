@@ -0,0 +1,86 @@
+package analyzer.tests;
+
+import analyzer.ast.ASTProgram;
+import analyzer.ast.ParseException;
+import analyzer.ast.Parser;
+import analyzer.visitors.IRCompiler;
+import analyzer.visitors.IREmitter;
+import analyzer.visitors.IRInterpreter;
+import analyzer.visitors.IntermediateCodeGenFallVisitor;
+import analyzer.visitors.IntermediateCodeGenVisitor;
+import org.junit.Test;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Analyse un programme avec des fonctions, génère son code intermédiaire avec chacun des deux générateurs, avec et
+ * sans remplacement des appels par le corps des fonctions, puis l'exécute avec IRInterpreter et IRCompiler.
+ */
+public class FunctionTest {
+    private static final String DATA = "test-suite/FunctionTest/data/";
+
+    @Test
+    public void functions() throws Exception {
+        check("functions.txt", "n", 6, "s", 34, "r", 16, "ok", 0);
+    }
+
+    // Chaque fonction a son propre tableau a, de longueur différente de celle du tableau global.
+    @Test
+    public void localArrays() throws Exception {
+        check("arrays.txt", "s", 72, "u", 24, "v", 10);
+    }
+
+    /**
+     * @param expected Les variables et leur valeur finale, en alternance
+     */
+    private static void check(String file, Object... expected) throws IOException, ParseException {
+        for (boolean fall : new boolean[]{false, true}) {
+            for (boolean inlining : new boolean[]{true, false}) {
+                String code = generate(file, fall, inlining);
+                IRInterpreter interpreter = IRInterpreter.load(new StringReader(code));
+                int[] slots = interpreter.execute(new HashMap<>());
+
+                String message = file + (fall ? " (fall)" : " (labels)") + (inlining ? "" : " sans remplacement") + "\n" + code;
+                for (int i = 0; i < expected.length; i += 2) {
+                    assertEquals(message, expected[i + 1], slots[interpreter.slotOf((String) expected[i])]);
+                }
+
+                // Le code compilé doit laisser toutes les cases comme l'interpréteur, appels restants compris.
+                int[] compiled = interpreter.newSlots();
+                IRCompiler.compile(interpreter).execute(compiled);
+                assertArrayEquals(message, slots, compiled);
+            }
+        }
+    }
+
+    private static String generate(String file, boolean fall, boolean inlining) throws IOException, ParseException {
+        ASTProgram program;
+        try (InputStream input = new FileInputStream(DATA + file)) {
+            program = Parser.ParseTree(input);
+        }
+        StringWriter code = new StringWriter();
+        PrintWriter writer = new PrintWriter(code);
+        IREmitter emitter = new IREmitter(writer);
+        if (fall) {
+            IntermediateCodeGenFallVisitor visitor = new IntermediateCodeGenFallVisitor(emitter);
+            visitor.Inlining = inlining;
+            program.jjtAccept(visitor, null);
+        } else {
+            IntermediateCodeGenVisitor visitor = new IntermediateCodeGenVisitor(emitter);
+            visitor.Inlining = inlining;
+            program.jjtAccept(visitor, null);
+        }
+        writer.flush();
+        return code.toString();
+    }
+}
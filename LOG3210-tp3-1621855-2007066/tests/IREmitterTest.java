@@ -0,0 +1,86 @@
+package analyzer.tests;
+
+import analyzer.ast.ParseException;
+import analyzer.ast.Parser;
+import analyzer.ast.ParserVisitor;
+import analyzer.visitors.IREmitter;
+import analyzer.visitors.IRInterpreter;
+import analyzer.visitors.IntermediateCodeGenFallVisitor;
+import analyzer.visitors.IntermediateCodeGenVisitor;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Génère le code intermédiaire d'un programme avec chacun des deux générateurs, par un IREmitter vers un canal et vers
+ * un Writer, puis l'exécute avec IRInterpreter. Les deux sorties doivent être identiques, octet pour octet.
+ */
+public class IREmitterTest {
+    private static final String DATA = "test-suite/IREmitterTest/data/";
+
+    // Toutes les formes d'instruction : tableau, accès, opérations, négation, branchements, appel et retour.
+    @Test
+    public void shapes() throws Exception {
+        check(Files.readAllBytes(Paths.get(DATA + "shapes.txt")), "s", 5, "t", 3, "b", 1);
+    }
+
+    // Plus de code que le tampon de IREmitter n'en contient, qui est donc vidé plusieurs fois.
+    @Test
+    public void largerThanBuffer() throws Exception {
+        StringBuilder source = new StringBuilder("num i;\nnum s;\ni = 0;\ns = 0;\n");
+        for (int k = 0; k < 2000; k++) {
+            source.append("s = s + i;\ni = i + 1;\n");
+        }
+        String code = check(source.toString().getBytes(StandardCharsets.UTF_8), "i", 2000, "s", 1999000);
+        assertTrue(code.length() > IREmitter.BUFFER_SIZE);
+    }
+
+    /**
+     * @param expected Les variables et leur valeur finale, en alternance
+     * @return Le code du dernier générateur
+     */
+    private static String check(byte[] source, Object... expected) throws IOException, ParseException {
+        String code = null;
+        for (boolean fall : new boolean[]{false, true}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            IREmitter channel = new IREmitter(Channels.newChannel(bytes));
+            generate(source, fall, channel);
+
+            StringWriter text = new StringWriter();
+            IREmitter writer = new IREmitter(text);
+            generate(source, fall, writer);
+
+            code = text.toString();
+            String message = (fall ? "fall" : "labels") + "\n" + code;
+            assertEquals(message, code, bytes.toString(StandardCharsets.UTF_8));
+            assertEquals(message, writer.LINES, channel.LINES);
+            assertEquals(message, writer.BYTES, channel.BYTES);
+            assertEquals(message, code.getBytes(StandardCharsets.UTF_8).length, channel.BYTES);
+
+            IRInterpreter interpreter = IRInterpreter.load(new StringReader(code));
+            int[] slots = interpreter.execute(new HashMap<>());
+            for (int i = 0; i < expected.length; i += 2) {
+                assertEquals(message, expected[i + 1], slots[interpreter.slotOf((String) expected[i])]);
+            }
+        }
+        return code;
+    }
+
+    private static void generate(byte[] source, boolean fall, IREmitter emitter) throws ParseException {
+        ParserVisitor visitor = fall ? new IntermediateCodeGenFallVisitor(emitter) : new IntermediateCodeGenVisitor(emitter);
+        Parser.ParseTree(new ByteArrayInputStream(source)).jjtAccept(visitor, null);
+    }
+}
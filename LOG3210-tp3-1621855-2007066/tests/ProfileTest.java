@@ -0,0 +1,79 @@
+package analyzer.tests;
+
+import analyzer.ast.ASTProgram;
+import analyzer.ast.ParseException;
+import analyzer.ast.Parser;
+import analyzer.visitors.ExecutionProfile;
+import analyzer.visitors.IREmitter;
+import analyzer.visitors.IRInterpreter;
+import analyzer.visitors.IntermediateCodeGenFallVisitor;
+import analyzer.visitors.ProfileRunner;
+import org.junit.Test;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Profile un programme avec le code instrumenté de IntermediateCodeGenFallVisitor, puis s'assure que le profil ne sert
+ * qu'à ce programme. other.txt ne diffère de loop.txt que par une constante.
+ */
+public class ProfileTest {
+    private static final String DATA = "test-suite/ProfileTest/data/";
+
+    @Test
+    public void sameProgram() throws Exception {
+        ExecutionProfile profile = profile("loop.txt");
+        assertEquals(ExecutionProfile.key(parse("loop.txt")), profile.program());
+
+        // Le profil relu garde sa clé.
+        StringWriter file = new StringWriter();
+        profile.write(new PrintWriter(file, true));
+        ExecutionProfile read = ExecutionProfile.read(new StringReader(file.toString()));
+        assertEquals(profile.program(), read.program());
+
+        IRInterpreter interpreter = IRInterpreter.load(new StringReader(generate("loop.txt", false, read)));
+        int[] slots = interpreter.execute(new HashMap<>());
+        assertEquals(100, slots[interpreter.slotOf("s")]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void otherProgram() throws Exception {
+        generate("other.txt", false, profile("loop.txt"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addOtherProgram() throws Exception {
+        profile("loop.txt").add(profile("other.txt"));
+    }
+
+    private static ExecutionProfile profile(String file) throws IOException, ParseException {
+        String code = generate(file, true, null);
+        return ProfileRunner.run(Arrays.asList(code.split("\n")), new HashMap<>());
+    }
+
+    private static ASTProgram parse(String file) throws IOException, ParseException {
+        try (InputStream input = new FileInputStream(DATA + file)) {
+            return Parser.ParseTree(input);
+        }
+    }
+
+    private static String generate(String file, boolean instrumentation, ExecutionProfile profile) throws IOException, ParseException {
+        StringWriter code = new StringWriter();
+        PrintWriter writer = new PrintWriter(code);
+        IntermediateCodeGenFallVisitor visitor = new IntermediateCodeGenFallVisitor(new IREmitter(writer));
+        visitor.Instrumentation = instrumentation;
+        visitor.Profile = profile;
+        parse(file).jjtAccept(visitor, null);
+        writer.flush();
+        return code.toString();
+    }
+}
@@ -7,6 +7,7 @@ import java.io.Console;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 /**
  * Created: 19-01-10
@@ -21,6 +22,9 @@ public class SemantiqueVisitor implements ParserVisitor {
     private final PrintWriter m_writer;
 
     private HashMap<String, VarType> SymbolTable = new HashMap<>(); // mapping variable -> type
+    private HashMap<String, FunctionType> FunctionTable = new HashMap<>(); // mapping fonction -> signature
+    private HashMap<String, Integer> ArrayLengthTable = new HashMap<>(); // mapping tableau (voir arrayKey) -> longueur
+    private FunctionType currentFunction = null;
 
     // variable pour les metrics
     public int VAR = 0;
@@ -93,6 +97,9 @@ public class SemantiqueVisitor implements ParserVisitor {
         if (type != null) {
             validateAndRegisterVariableType(varName, type);
         }
+        if (currentFunction != null) {
+            currentFunction.locals.add(varName);
+        }
 
         return null;
     }
@@ -116,15 +123,99 @@ public class SemantiqueVisitor implements ParserVisitor {
     }
 
     private void validateAndRegisterVariableType(String varName, String type) {
+        SymbolTable.put(varName, declaredType(varName, type));
+    }
+
+    private VarType declaredType(String varName, String type) {
         if (type.equals("num")) {
-            SymbolTable.put(varName, VarType.Number);
+            return VarType.Number;
         } else if (type.equals("bool")) {
-            SymbolTable.put(varName, VarType.Bool);
+            return VarType.Bool;
+        } else if (type.equals("num[]")) {
+            return VarType.NumArray;
+        } else if (type.equals("bool[]")) {
+            return VarType.BoolArray;
         } else if (!SymbolTable.containsKey(type) || SymbolTable.get(type).equals(VarType.EnumValue)) {
             throw new SemantiqueError(String.format("Identifier %s has been declared with the type %s that does not exist", varName, type));
         } else {
-            SymbolTable.put(varName, VarType.EnumVar);
+            return VarType.EnumVar;
+        }
+    }
+
+    /*
+        Une fonction a sa propre table des symboles : celle du programme au moment de la déclaration, plus ses
+        paramètres et ses variables, qui disparaissent à la fin de la fonction. La fonction n'est ajoutée à la table
+        qu'après son corps, elle ne peut donc pas s'appeler elle-même : le langage n'a pas de récursion.
+     */
+    @Override
+    public Object visit(ASTFuncStmt node, Object data) {
+        ASTDeclaration header = (ASTDeclaration) node.jjtGetChild(0);
+        String funcName = getVariableName(header);
+        if (currentFunction != null) {
+            throw new SemantiqueError(String.format("Function %s must be declared outside of a function", funcName));
         }
+        validateVariableUniqueness(funcName);
+        FunctionType function = new FunctionType(funcName, declaredType(funcName, getVariableType(header)));
+        if (isArray(function.returnType)) {
+            throw new SemantiqueError(String.format("Function %s cannot return an array", funcName));
+        }
+
+        HashMap<String, VarType> programSymbols = SymbolTable;
+        SymbolTable = new HashMap<>(programSymbols);
+        currentFunction = function;
+        int numChildren = node.jjtGetNumChildren();
+        for (int i = 1; i < numChildren - 2; i++) {
+            ASTDeclaration param = (ASTDeclaration) node.jjtGetChild(i);
+            param.jjtAccept(this, data);
+            VarType paramType = SymbolTable.get(getVariableName(param));
+            if (isArray(paramType)) {
+                throw new SemantiqueError(String.format("Function %s cannot take an array as parameter", funcName));
+            }
+            function.params.add(paramType);
+        }
+        node.jjtGetChild(numChildren - 2).jjtAccept(this, data);
+        node.jjtGetChild(numChildren - 1).jjtAccept(this, data);
+        currentFunction = null;
+        SymbolTable = programSymbols;
+
+        SymbolTable.put(funcName, VarType.Function);
+        FunctionTable.put(funcName, function);
+        return null;
+    }
+
+    @Override
+    public Object visit(ASTReturnStmt node, Object data) {
+        DataStruct returnResult = callChildenCond(node, 0);
+        if (!isAssignable(currentFunction.returnType, returnResult.type)) {
+            throw new SemantiqueError("Return type does not match function type");
+        }
+        return null;
+    }
+
+    @Override
+    public Object visit(ASTCallExpr node, Object data) {
+        String funcName = ((ASTIdentifier) node.jjtGetChild(0)).getValue();
+        FunctionType function = FunctionTable.get(funcName);
+        if (function == null) {
+            throw new SemantiqueError("Invalid use of undefined Identifier " + funcName);
+        }
+        int numArgs = node.jjtGetNumChildren() - 1;
+        if (numArgs != function.params.size()) {
+            throw new SemantiqueError(String.format("Invalid number of arguments in call of function %s", funcName));
+        }
+        for (int i = 0; i < numArgs; i++) {
+            DataStruct argResult = callChildenCond(node, i + 1);
+            if (!isAssignable(function.params.get(i), argResult.type)) {
+                throw new SemantiqueError(String.format("Invalid type in argument %d of function %s", i + 1, funcName));
+            }
+        }
+        ((DataStruct) data).type = function.returnType;
+        return null;
+    }
+
+    private boolean isAssignable(VarType expected, VarType actual) {
+        return expected == actual
+                || expected == VarType.EnumVar && actual == VarType.EnumValue;
     }
 
     @Override
@@ -182,6 +273,15 @@ public class SemantiqueVisitor implements ParserVisitor {
 
     @Override
     public Object visit(ASTAssignStmt node, Object data) {
+        if (node.jjtGetChild(0) instanceof ASTArrayAccess) {
+            String arrayName = ((ASTIdentifier) node.jjtGetChild(0).jjtGetChild(0)).getValue();
+            DataStruct elementData = callChildenCond(node, 0);
+            DataStruct assignmentData = callChildenCond(node, 1);
+            if (assignmentData.type != elementData.type) {
+                throw new SemantiqueError(String.format("Invalid type in assignation of Identifier %s", arrayName));
+            }
+            return null;
+        }
         String varName = ((ASTIdentifier) node.jjtGetChild(0)).getValue();
         DataStruct assignmentData = new DataStruct();
         if (node.jjtGetNumChildren() > 1) {
@@ -195,10 +295,79 @@ public class SemantiqueVisitor implements ParserVisitor {
                     throw new SemantiqueError(String.format("Invalid type in assignation of Identifier %s", varName));
                 }
             }
+            if (isArray(assignedVarType)) {
+                registerArrayLength(varName, assignmentData.length);
+            }
         }
         return null;
     }
 
+    /*
+        Un tableau a une longueur fixe : la première valeur qu'il reçoit la détermine et les suivantes doivent avoir la
+        même. La longueur est donc connue à la compilation, ce qui permet d'allouer le tableau et de vérifier les accès.
+     */
+    private void registerArrayLength(String varName, int length) {
+        Integer knownLength = ArrayLengthTable.putIfAbsent(arrayKey(varName), length);
+        if (knownLength != null && knownLength != length) {
+            throw new SemantiqueError(String.format("Invalid array length in assignation of Identifier %s", varName));
+        }
+    }
+
+    /*
+        Un tableau déclaré dans une fonction est désigné par le nom de la fonction et le sien, comme dans le code
+        intermédiaire (f.a) : deux fonctions peuvent déclarer un tableau du même nom et de longueurs différentes.
+     */
+    private String arrayKey(String varName) {
+        if (currentFunction != null && currentFunction.locals.contains(varName)) {
+            return currentFunction.name + "." + varName;
+        }
+        return varName;
+    }
+
+    private boolean isArray(VarType type) {
+        return type == VarType.NumArray || type == VarType.BoolArray;
+    }
+
+    @Override
+    public Object visit(ASTArrayExpr node, Object data) {
+        int numChildren = node.jjtGetNumChildren();
+        if (numChildren == 0) {
+            throw new SemantiqueError("Invalid empty array");
+        }
+        VarType elementType = null;
+        for (int i = 0; i < numChildren; i++) {
+            DataStruct d = callChildenCond(node, i);
+            if (d.type != VarType.Number && d.type != VarType.Bool || elementType != null && d.type != elementType) {
+                throw new SemantiqueError("Invalid type in expression");
+            }
+            elementType = d.type;
+        }
+        ((DataStruct) data).type = elementType == VarType.Number ? VarType.NumArray : VarType.BoolArray;
+        ((DataStruct) data).length = numChildren;
+        return null;
+    }
+
+    @Override
+    public Object visit(ASTArrayAccess node, Object data) {
+        String varName = ((ASTIdentifier) node.jjtGetChild(0)).getValue();
+        VarType type = SymbolTable.get(varName);
+        if (type == null) {
+            throw new SemantiqueError("Invalid use of undefined Identifier " + varName);
+        }
+        if (!isArray(type)) {
+            throw new SemantiqueError(String.format("Invalid use of Identifier %s as an array", varName));
+        }
+        if (!ArrayLengthTable.containsKey(arrayKey(varName))) {
+            throw new SemantiqueError(String.format("Array %s is used before being assigned", varName));
+        }
+        DataStruct indexData = callChildenCond(node, 1);
+        if (indexData.type != VarType.Number) {
+            throw new SemantiqueError("Invalid type in array index");
+        }
+        ((DataStruct) data).type = type == VarType.NumArray ? VarType.Number : VarType.Bool;
+        return null;
+    }
+
     @Override
     public Object visit(ASTEnumStmt node, Object data) {
         String enumName = ((ASTIdentifier) node.jjtGetChild(0)).getValue();
@@ -283,6 +452,7 @@ public class SemantiqueVisitor implements ParserVisitor {
         if (numChildren == 1) {
             DataStruct childData = callChildenCond(node, 0);
             resultData.type = childData.type;
+            resultData.length = childData.length;
             return null;
         }
         this.OP++;
@@ -291,7 +461,7 @@ public class SemantiqueVisitor implements ParserVisitor {
         for (int i = 0; i < numChildren; i++) {
             DataStruct childData = callChildenCond(node, i);
             String operator = node.getValue();
-            if (isInvalidBooleanComparison(operator, childData.type)) {
+            if (isInvalidBooleanComparison(operator, childData.type) || isArray(childData.type)) {
                 throw new SemantiqueError("Invalid type in expression " + operator);
             }
             if (operator.equals("==") || operator.equals("!=")) {
@@ -332,6 +502,7 @@ public class SemantiqueVisitor implements ParserVisitor {
 
             if (d.type != null) {
                 ((DataStruct) data).type = d.type;
+                ((DataStruct) data).length = d.length;
             }
         }
         return null;
@@ -351,6 +522,7 @@ public class SemantiqueVisitor implements ParserVisitor {
             }
             if (d.type != null) {
                 ((DataStruct) data).type = d.type;
+                ((DataStruct) data).length = d.length;
             }
         }
         return null;
@@ -368,6 +540,7 @@ public class SemantiqueVisitor implements ParserVisitor {
             DataStruct d = callChildenCond(node, i);
             if (numChildren == 1) {
                 ((DataStruct)data).type = d.type;
+                ((DataStruct)data).length = d.length;
             }
             else {
                 if (d.type != VarType.Bool) {
@@ -435,6 +608,12 @@ public class SemantiqueVisitor implements ParserVisitor {
         if (node.jjtGetParent() instanceof ASTGenValue) {
             String varName = node.getValue();
             ((DataStruct) data).type = SymbolTable.get(varName);
+            if (isArray(SymbolTable.get(varName))) {
+                if (!ArrayLengthTable.containsKey(arrayKey(varName))) {
+                    throw new SemantiqueError(String.format("Array %s is used before being assigned", varName));
+                }
+                ((DataStruct) data).length = ArrayLengthTable.get(arrayKey(varName));
+            }
         }
         return null;
     }
@@ -451,11 +630,29 @@ public class SemantiqueVisitor implements ParserVisitor {
         Number,
         EnumType,
         EnumVar,
-        EnumValue
+        EnumValue,
+        Function,
+        NumArray,
+        BoolArray
+    }
+
+    private static class FunctionType {
+        public String name;
+        public VarType returnType;
+        public ArrayList<VarType> params = new ArrayList<>();
+        // Les paramètres et les variables déclarés dans la fonction
+        public HashSet<String> locals = new HashSet<>();
+
+        public FunctionType(String p_name, VarType p_returnType) {
+            name = p_name;
+            returnType = p_returnType;
+        }
     }
 
     private static class DataStruct {
         public VarType type;
+        // La longueur d'une valeur de type tableau, -1 sinon.
+        public int length = -1;
 
         public DataStruct() {
         }
@@ -0,0 +1,27 @@
+/* Generated By:JJTree: Do not edit this line. ASTBoolValue.java Version 7.0 */
+/* JavaCCOptions:MULTI=true,NODE_USES_PARSER=false,VISITOR=true,TRACK_TOKENS=false,NODE_PREFIX=AST,NODE_EXTENDS=,NODE_FACTORY=,SUPPORT_CLASS_VISIBILITY_PUBLIC=true */
+package analyzer.ast;
+
+public
+class ASTBoolValue extends SimpleNode {
+  public ASTBoolValue(int id) {
+    super(id);
+  }
+
+  public ASTBoolValue(Parser p, int id) {
+    super(p, id);
+  }
+
+  private boolean m_value = false;
+
+  public void setValue(boolean v) { m_value = v; }
+  public boolean getValue() { return m_value; }
+
+
+  /** Accept the visitor. **/
+  public Object jjtAccept(ParserVisitor visitor, Object data) {
+
+    return
+    visitor.visit(this, data);
+  }
+}
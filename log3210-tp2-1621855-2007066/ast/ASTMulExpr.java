@@ -0,0 +1,29 @@
+/* Generated By:JJTree: Do not edit this line. ASTMulExpr.java Version 7.0 */
+/* JavaCCOptions:MULTI=true,NODE_USES_PARSER=false,VISITOR=true,TRACK_TOKENS=false,NODE_PREFIX=AST,NODE_EXTENDS=,NODE_FACTORY=,SUPPORT_CLASS_VISIBILITY_PUBLIC=true */
+package analyzer.ast;
+
+import java.util.Vector;
+
+public
+class ASTMulExpr extends SimpleNode {
+  public ASTMulExpr(int id) {
+    super(id);
+  }
+
+  public ASTMulExpr(Parser p, int id) {
+    super(p, id);
+  }
+
+  private Vector<String> m_ops = new Vector<>();
+
+  public void addOp(String o) { m_ops.add(o); }
+  public Vector<String> getOps() { return m_ops; }
+
+
+  /** Accept the visitor. **/
+  public Object jjtAccept(ParserVisitor visitor, Object data) {
+
+    return
+    visitor.visit(this, data);
+  }
+}
@@ -0,0 +1,155 @@
+package analyzer.visitors;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Binary form of the machine code.
+ * <p>
+ * Header: the magic "LMC1", the number of variables, each variable name as a 16-bit length and UTF-8 bytes, then the
+ * number of instructions. Every instruction then takes 12 bytes:
+ * <pre>
+ * opcode (8 bits) | flags (8 bits) | destination register (16 bits) | left (32 bits) | right (32 bits)
+ * </pre>
+ * Flag bits 0 and 1 mark the left and right operands as constants, otherwise they are register numbers. LD and ST
+ * keep the variable index in left, and ST its source register in right. Flag bit 2 marks an indexed LD or ST: left
+ * is then the index of the array, which follows the variables in the header, right the offset, and the destination
+ * is the loaded or stored register. All numbers are big-endian.
+ */
+public class BinaryMachineCode {
+    public static final int MAGIC = 0x4C4D4331;
+    public static final int INSTRUCTION_SIZE = 12;
+
+    private static final String[] OPCODES = {"LD", "ST", "ADD", "MIN", "MUL", "DIV"};
+    private static final int LEFT_CONSTANT = 1;
+    private static final int RIGHT_CONSTANT = 2;
+    private static final int INDEXED = 4;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static int opcode(String operation) {
+        for (int i = 0; i < OPCODES.length; i++) {
+            if (OPCODES[i].equals(operation)) return i;
+        }
+        throw new IllegalArgumentException("Unknown operation: " + operation);
+    }
+
+    /**
+     * @param variables The variables then the arrays of the code
+     */
+    public static void write(WritableByteChannel channel, List<String> variables, List<MachineInstruction> code) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        HashMap<String, Integer> ids = new HashMap<>();
+        buffer.putInt(MAGIC);
+        buffer.putInt(variables.size());
+        for (String variable : variables) {
+            byte[] name = variable.getBytes(StandardCharsets.UTF_8);
+            ensure(channel, buffer, 2 + name.length);
+            buffer.putShort((short) name.length);
+            buffer.put(name);
+            ids.put(variable, ids.size());
+        }
+        ensure(channel, buffer, 4);
+        buffer.putInt(code.size());
+
+        for (MachineInstruction instruction : code) {
+            ensure(channel, buffer, INSTRUCTION_SIZE);
+            buffer.put((byte) opcode(instruction.OPERATION));
+            if (instruction.isMemory() && instruction.INDEXED) {
+                Integer id = ids.get(instruction.MEMORY);
+                if (id == null) throw new IllegalArgumentException("Unknown array: " + instruction.MEMORY);
+                buffer.put((byte) (INDEXED | (instruction.LEFT < 0 ? RIGHT_CONSTANT : 0)));
+                buffer.putShort((short) (instruction.isLoad() ? instruction.ASSIGN : instruction.RIGHT));
+                buffer.putInt(id);
+                buffer.putInt(instruction.LEFT < 0 ? instruction.LEFT_VALUE : instruction.LEFT);
+            } else if (instruction.isMemory()) {
+                Integer id = ids.get(instruction.MEMORY);
+                if (id == null) throw new IllegalArgumentException("Unknown variable: " + instruction.MEMORY);
+                buffer.put((byte) 0);
+                buffer.putShort((short) Math.max(instruction.ASSIGN, 0));
+                buffer.putInt(id);
+                buffer.putInt(Math.max(instruction.RIGHT, 0));
+            } else {
+                int flags = (instruction.LEFT < 0 ? LEFT_CONSTANT : 0) | (instruction.RIGHT < 0 ? RIGHT_CONSTANT : 0);
+                buffer.put((byte) flags);
+                buffer.putShort((short) instruction.ASSIGN);
+                buffer.putInt(instruction.LEFT < 0 ? instruction.LEFT_VALUE : instruction.LEFT);
+                buffer.putInt(instruction.RIGHT < 0 ? instruction.RIGHT_VALUE : instruction.RIGHT);
+            }
+        }
+        drain(channel, buffer);
+    }
+
+    private static void ensure(WritableByteChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (bytes > buffer.capacity()) throw new IllegalArgumentException("Record of " + bytes + " bytes is too large");
+        if (buffer.remaining() < bytes) drain(channel, buffer);
+    }
+
+    private static void drain(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Decode a whole file, the STEP of every instruction is its index.
+     */
+    public static ArrayList<MachineInstruction> read(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        buffer.flip();
+        if (fill(channel, buffer, 8).getInt() != MAGIC) throw new IllegalArgumentException("Not a binary machine code file");
+        int count = buffer.getInt();
+        ArrayList<String> variables = new ArrayList<>(count);
+        for (int v = 0; v < count; v++) {
+            int length = fill(channel, buffer, 2).getShort() & 0xFFFF;
+            byte[] name = new byte[length];
+            fill(channel, buffer, length).get(name);
+            variables.add(new String(name, StandardCharsets.UTF_8));
+        }
+
+        int size = fill(channel, buffer, 4).getInt();
+        ArrayList<MachineInstruction> code = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            fill(channel, buffer, INSTRUCTION_SIZE);
+            int opcode = buffer.get();
+            int flags = buffer.get();
+            int destination = buffer.getShort() & 0xFFFF;
+            int left = buffer.getInt();
+            int right = buffer.getInt();
+            if (opcode < 0 || opcode >= OPCODES.length) throw new IllegalArgumentException("Unknown opcode: " + opcode);
+            boolean rightConstant = (flags & RIGHT_CONSTANT) != 0;
+            if (opcode <= 1 && (flags & INDEXED) != 0) {
+                int offset = rightConstant ? -1 : right;
+                int offsetValue = rightConstant ? right : 0;
+                code.add(opcode == 0 ? MachineInstruction.indexedLoad(destination, variables.get(left), offset, offsetValue, i)
+                        : MachineInstruction.indexedStore(variables.get(left), offset, offsetValue, destination, i));
+            } else if (opcode == 0) {
+                code.add(MachineInstruction.load(destination, variables.get(left), i));
+            } else if (opcode == 1) {
+                code.add(MachineInstruction.store(variables.get(left), right, i));
+            } else {
+                boolean leftConstant = (flags & LEFT_CONSTANT) != 0;
+                code.add(MachineInstruction.operation(OPCODES[opcode], destination,
+                        leftConstant ? -1 : left, leftConstant ? left : 0,
+                        rightConstant ? -1 : right, rightConstant ? right : 0, i));
+            }
+        }
+        return code;
+    }
+
+    private static ByteBuffer fill(ReadableByteChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) return buffer;
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) throw new EOFException("Truncated binary machine code");
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,97 @@
+package analyzer.visitors;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Set-associative data cache with LRU replacement, for the cost of LD and ST.
+ * <p>
+ * Each variable takes one word of memory, laid out in the order the variables are first accessed. The elements of an
+ * array are contiguous words in a region of their own.
+ */
+public class CacheModel {
+    public static final int WORD_SIZE = 4;
+    // Each array starts at its own multiple of 1 MB, after the variables.
+    private static final int ARRAY_REGION_BITS = 20;
+
+    private final int sets;
+    private final int ways;
+    private final int lineSize;
+    private final int missPenalty;
+
+    private final long[] tags;
+    private final long[] lastUse;
+    private final HashMap<String, Integer> addresses = new HashMap<>();
+    private final HashMap<String, Long> regions = new HashMap<>();
+    private long clock = 0;
+
+    // variables pour les metrics
+    public long HITS = 0;
+    public long MISSES = 0;
+
+    /**
+     * A 1 KB, 2-way cache with 16-byte lines and a 20-cycle miss penalty.
+     */
+    public CacheModel() {
+        this(32, 2, 16, 20);
+    }
+
+    public CacheModel(int sets, int ways, int lineSize, int missPenalty) {
+        if (sets < 1 || ways < 1 || lineSize < WORD_SIZE || missPenalty < 0) {
+            throw new IllegalArgumentException("Invalid cache geometry");
+        }
+        this.sets = sets;
+        this.ways = ways;
+        this.lineSize = lineSize;
+        this.missPenalty = missPenalty;
+        this.tags = new long[sets * ways];
+        this.lastUse = new long[sets * ways];
+        Arrays.fill(tags, -1);
+    }
+
+    /**
+     * An empty cache of the same geometry.
+     */
+    public CacheModel empty() {
+        return new CacheModel(sets, ways, lineSize, missPenalty);
+    }
+
+    /**
+     * Touch the line of a variable.
+     *
+     * @return The extra cycles the access costs, 0 on a hit
+     */
+    public int access(String variable) {
+        return touch(addresses.computeIfAbsent(variable, k -> addresses.size() * WORD_SIZE));
+    }
+
+    /**
+     * Touch the line of an array element, at a byte offset in the region of its array.
+     *
+     * @return The extra cycles the access costs, 0 on a hit
+     */
+    public int access(String array, int offset) {
+        long region = regions.computeIfAbsent(array, k -> (long) (regions.size() + 1) << ARRAY_REGION_BITS);
+        return touch(region + offset);
+    }
+
+    private int touch(long address) {
+        long line = Math.floorDiv(address, lineSize);
+        int base = Math.floorMod(line, sets) * ways;
+        clock++;
+
+        int victim = base;
+        for (int way = base; way < base + ways; way++) {
+            if (tags[way] == line) {
+                lastUse[way] = clock;
+                HITS++;
+                return 0;
+            }
+            if (lastUse[way] < lastUse[victim]) victim = way;
+        }
+        tags[victim] = line;
+        lastUse[victim] = clock;
+        MISSES++;
+        return missPenalty;
+    }
+}
@@ -0,0 +1,231 @@
+package analyzer.visitors;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of compile outputs, addressed by the SHA-256 of the source bytes and of the options that change the
+ * output.
+ * <p>
+ * Each entry is a file named after its key: the magic "LCC1", the nanoseconds the compile took, the output length,
+ * then the output. Entries are written to a temporary file and renamed, so a reader never sees half an entry, and
+ * are read through a read-only mapping. When the entries exceed the size limit, the least recently used ones are
+ * deleted; a hit touches the modification time of its file so the order survives between processes.
+ * <p>
+ * The totals of every process sharing the directory are kept in the mapped file "stats": hits, misses, evictions and
+ * the nanoseconds saved, i.e. the recorded compile time minus the time the hit took.
+ */
+public class CompilationCache {
+    public static final int MAGIC = 0x4C434331;
+    public static final long DEFAULT_SIZE = 64L << 20;
+
+    private static final int HEADER_SIZE = 16;
+    private static final String SUFFIX = ".out";
+    private static final String STATS = "stats";
+
+    private final Path directory;
+    private final long maxBytes;
+    // Entries from the least to the most recently used, with their file size.
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+    // variables pour les metrics
+    public long HITS = 0;
+    public long MISSES = 0;
+    public long EVICTIONS = 0;
+    public long SAVED_NANOS = 0;
+
+    public CompilationCache(Path directory, long maxBytes) throws IOException {
+        if (maxBytes < HEADER_SIZE) throw new IllegalArgumentException("Cache size must be at least " + HEADER_SIZE + " bytes");
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            list.filter(file -> file.getFileName().toString().endsWith(SUFFIX)).forEach(files::add);
+        }
+        files.sort(Comparator.comparing(CompilationCache::lastUse));
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            try {
+                long bytes = Files.size(file);
+                entries.put(name.substring(0, name.length() - SUFFIX.length()), bytes);
+                size += bytes;
+            } catch (NoSuchFileException e) {
+                // Evicted by another process meanwhile.
+            }
+        }
+    }
+
+    private static FileTime lastUse(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * The key of a source compiled with some options, in hexadecimal.
+     */
+    public static String key(byte[] source, String... options) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(source);
+        for (String option : options) {
+            digest.update((byte) 0);
+            digest.update(option.getBytes(StandardCharsets.UTF_8));
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) key.append(String.format("%02x", b));
+        return key.toString();
+    }
+
+    /**
+     * @param started The System.nanoTime() when the lookup started, to account for the time saved
+     * @return The cached output, or null on a miss
+     */
+    public synchronized ByteBuffer get(String key, long started) {
+        Path file = directory.resolve(key + SUFFIX);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.limit() >= HEADER_SIZE && mapped.getInt(0) == MAGIC
+                    && mapped.getInt(12) == mapped.limit() - HEADER_SIZE) {
+                long compileNanos = mapped.getLong(4);
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+                // Another process may have written the entry since this one listed the directory.
+                if (entries.get(key) == null) {
+                    entries.put(key, (long) mapped.limit());
+                    size += mapped.limit();
+                }
+                HITS++;
+                long saved = Math.max(0, compileNanos - (System.nanoTime() - started));
+                SAVED_NANOS += saved;
+                record(1, 0, 0, saved);
+                return mapped.position(HEADER_SIZE).slice();
+            }
+            remove(key);
+        } catch (NoSuchFileException e) {
+            forget(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        MISSES++;
+        record(0, 1, 0, 0);
+        return null;
+    }
+
+    /**
+     * @param compileNanos How long the compile of this output took
+     */
+    public synchronized void put(String key, byte[] output, long compileNanos) {
+        long bytes = HEADER_SIZE + output.length;
+        if (bytes > maxBytes) return;
+        try {
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putLong(compileNanos).putInt(output.length).flip();
+                ByteBuffer body = ByteBuffer.wrap(output);
+                while (header.hasRemaining() || body.hasRemaining()) channel.write(new ByteBuffer[]{header, body});
+            }
+            Files.move(temporary, directory.resolve(key + SUFFIX), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        forget(key);
+        entries.put(key, bytes);
+        size += bytes;
+
+        long evicted = 0;
+        Iterator<Map.Entry<String, Long>> lru = entries.entrySet().iterator();
+        while (size > maxBytes && lru.hasNext()) {
+            Map.Entry<String, Long> entry = lru.next();
+            if (entry.getKey().equals(key)) continue;
+            try {
+                Files.deleteIfExists(directory.resolve(entry.getKey() + SUFFIX));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            size -= entry.getValue();
+            lru.remove();
+            evicted++;
+        }
+        EVICTIONS += evicted;
+        if (evicted > 0) record(0, 0, evicted, 0);
+    }
+
+    private void remove(String key) throws IOException {
+        Files.deleteIfExists(directory.resolve(key + SUFFIX));
+        forget(key);
+    }
+
+    private void forget(String key) {
+        Long bytes = entries.remove(key);
+        if (bytes != null) size -= bytes;
+    }
+
+    /**
+     * Add to the totals of the directory, under a file lock since other processes may share it.
+     */
+    private void record(long hits, long misses, long evictions, long savedNanos) {
+        try (FileChannel channel = FileChannel.open(directory.resolve(STATS),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Closing the channel releases the lock.
+            channel.lock();
+            MappedByteBuffer stats = channel.map(FileChannel.MapMode.READ_WRITE, 0, 32);
+            stats.putLong(0, stats.getLong(0) + hits);
+            stats.putLong(8, stats.getLong(8) + misses);
+            stats.putLong(16, stats.getLong(16) + evictions);
+            stats.putLong(24, stats.getLong(24) + savedNanos);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The totals of every process that used the directory.
+     */
+    public synchronized String totals() {
+        try (FileChannel channel = FileChannel.open(directory.resolve(STATS),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Closing the channel releases the lock.
+            channel.lock();
+            MappedByteBuffer stats = channel.map(FileChannel.MapMode.READ_WRITE, 0, 32);
+            return format(stats.getLong(0), stats.getLong(8), stats.getLong(16), stats.getLong(24));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized String metrics() {
+        return format(HITS, MISSES, EVICTIONS, SAVED_NANOS);
+    }
+
+    private static String format(long hits, long misses, long evictions, long savedNanos) {
+        double hitRate = hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        double savedPerHit = hits == 0 ? 0 : savedNanos / 1e6 / hits;
+        return String.format("{HITS:%d, MISSES:%d, HIT_RATE:%.3f, EVICTIONS:%d, SAVED_MS_PER_HIT:%.3f}",
+                hits, misses, hitRate, evictions, savedPerHit);
+    }
+}
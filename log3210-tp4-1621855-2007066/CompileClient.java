@@ -0,0 +1,65 @@
+package analyzer.visitors;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Sends a MachineCodeCompiler command line to a running {@link CompileDaemon} and prints its answer, so that it takes
+ * the same arguments, prints the same output and exits with the same status as MachineCodeCompiler. Without a daemon,
+ * the command line is compiled in this JVM.
+ * <p>
+ * CompileClient -daemon-stats prints the queue depth and latency percentiles of the daemon, CompileClient
+ * -daemon-stop stops it.
+ */
+public class CompileClient {
+    public static void main(String[] args) throws IOException {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(CompileDaemon.defaultSocket()));
+        } catch (IOException e) {
+            MachineCodeCompiler.main(args);
+            return;
+        }
+
+        int status;
+        try (SocketChannel daemon = channel) {
+            status = request(daemon, Paths.get("").toAbsolutePath(), args, System.out, System.err);
+        }
+        System.out.flush();
+        System.err.flush();
+        if (status != 0) System.exit(status);
+    }
+
+    /**
+     * Send a command line to the daemon at the other end of a channel and copy its output and error output.
+     *
+     * @return The exit status of the command line
+     */
+    public static int request(SocketChannel daemon, Path workingDirectory, String[] args, OutputStream out, OutputStream err) throws IOException {
+        DataOutputStream request = new DataOutputStream(Channels.newOutputStream(daemon));
+        request.writeUTF(workingDirectory.toString());
+        request.writeInt(args.length);
+        for (String arg : args) request.writeUTF(arg);
+        request.flush();
+
+        DataInputStream response = new DataInputStream(Channels.newInputStream(daemon));
+        byte[] buffer = new byte[1 << 16];
+        for (byte kind = response.readByte(); kind != CompileDaemon.EXIT; kind = response.readByte()) {
+            OutputStream output = kind == CompileDaemon.OUT ? out : err;
+            for (int length = response.readInt(); length > 0; ) {
+                int read = response.read(buffer, 0, Math.min(length, buffer.length));
+                if (read < 0) throw new IOException("The compile daemon closed the connection");
+                output.write(buffer, 0, read);
+                length -= read;
+            }
+        }
+        return response.readInt();
+    }
+}
@@ -0,0 +1,222 @@
+package analyzer.visitors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a warm JVM that runs MachineCodeCompiler command lines sent by {@link CompileClient} over a Unix domain
+ * socket.
+ * <p>
+ * Each connection carries one request and is handled on its own virtual thread, with a new compiler and a new visitor,
+ * so no SymbolTable, CODE or REGISTERS state is shared between requests. At most one compile per processor runs at a
+ * time, the others wait in the queue. The caches are opened once per directory and shared, with the size of the first
+ * request that used them. The -binary and -debug files are written by the daemon, relative to the working directory of
+ * the client.
+ * <p>
+ * Request: the working directory of the client, the number of arguments and the arguments, all with writeUTF.
+ * Response: frames of a kind byte, a length and the bytes, where the kind is OUT or ERR, then EXIT and the status.
+ */
+public class CompileDaemon {
+    public static final byte OUT = 1;
+    public static final byte ERR = 2;
+    public static final byte EXIT = 0;
+
+    public static final String STATS = "-daemon-stats";
+    public static final String STOP = "-daemon-stop";
+
+    private static final int LATENCY_WINDOW = 4096;
+
+    private final Path socket;
+    private final Semaphore compiles = new Semaphore(Runtime.getRuntime().availableProcessors());
+    private final ConcurrentHashMap<Path, CompilationCache> caches = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    // The latencies of the last LATENCY_WINDOW requests, in nanoseconds.
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private volatile boolean running = true;
+
+    // variables pour les metrics
+    public long REQUESTS = 0;
+
+    public CompileDaemon(Path socket) {
+        this.socket = socket;
+    }
+
+    /**
+     * The socket of the daemon, from the property log3210.socket or in the temporary directory.
+     */
+    public static Path defaultSocket() {
+        String path = System.getProperty("log3210.socket");
+        return path != null ? Paths.get(path) : Paths.get(System.getProperty("java.io.tmpdir"), "log3210-compiler.sock");
+    }
+
+    public void serve() throws IOException {
+        Files.deleteIfExists(socket);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor()) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            while (running) {
+                SocketChannel client = server.accept();
+                if (!running) {
+                    client.close();
+                    break;
+                }
+                requests.submit(() -> handle(client));
+            }
+        } finally {
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        long started = System.nanoTime();
+        try (SocketChannel channel = client) {
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            Path workingDirectory = Paths.get(in.readUTF());
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) args[i] = in.readUTF();
+
+            ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            PrintStream err = new PrintStream(errors, true, StandardCharsets.UTF_8);
+            int status;
+            if (args.length == 1 && args[0].equals(STATS)) {
+                new Frames(channel, OUT).write(ByteBuffer.wrap((metrics() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8)));
+                status = 0;
+            } else if (args.length == 1 && args[0].equals(STOP)) {
+                stop();
+                status = 0;
+            } else {
+                status = compile(args, workingDirectory, new Frames(channel, OUT), err);
+                record(System.nanoTime() - started);
+            }
+            new Frames(channel, ERR).write(ByteBuffer.wrap(errors.toByteArray()));
+            ByteBuffer exit = ByteBuffer.allocate(5).put(EXIT).putInt(status).flip();
+            while (exit.hasRemaining()) channel.write(exit);
+        } catch (IOException e) {
+            // The client went away, there is nobody to answer.
+        }
+    }
+
+    private void record(long nanos) {
+        synchronized (latencies) {
+            latencies[(int) (REQUESTS % LATENCY_WINDOW)] = nanos;
+            REQUESTS++;
+        }
+    }
+
+    /**
+     * Run a command line, an exception is printed as the one-shot compiler would let it escape main.
+     */
+    private int compile(String[] args, Path workingDirectory, WritableByteChannel out, PrintStream err) {
+        queued.incrementAndGet();
+        compiles.acquireUninterruptibly();
+        queued.decrementAndGet();
+        try {
+            return MachineCodeCompiler.run(args, workingDirectory, out, err, this::cache);
+        } catch (IOException | RuntimeException e) {
+            err.print("Exception in thread \"main\" ");
+            e.printStackTrace(err);
+            return 1;
+        } finally {
+            compiles.release();
+        }
+    }
+
+    private CompilationCache cache(Path directory, long maxBytes) throws IOException {
+        directory = directory.normalize();
+        CompilationCache cache = caches.get(directory);
+        if (cache == null) {
+            CompilationCache opened = new CompilationCache(directory, maxBytes);
+            cache = caches.putIfAbsent(directory, opened);
+            if (cache == null) cache = opened;
+        }
+        return cache;
+    }
+
+    /**
+     * Stop accepting requests, the ones already accepted still complete.
+     */
+    public void stop() throws IOException {
+        running = false;
+        // Wake up the accept loop.
+        SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+    }
+
+    /**
+     * Requests waiting for a compile slot, and percentiles of the latency of the last compile requests.
+     */
+    public String metrics() {
+        long[] window;
+        long requests;
+        synchronized (latencies) {
+            requests = REQUESTS;
+            window = Arrays.copyOf(latencies, (int) Math.min(requests, LATENCY_WINDOW));
+        }
+        Arrays.sort(window);
+        return String.format("{REQUESTS:%d, QUEUED:%d, P50_MS:%.3f, P90_MS:%.3f, P99_MS:%.3f}", requests, queued.get(),
+                percentile(window, 50), percentile(window, 90), percentile(window, 99));
+    }
+
+    private static double percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (sorted.length * percent + 99) / 100 - 1)] / 1e6;
+    }
+
+    /**
+     * Writes every buffer as one frame of the response.
+     */
+    private static class Frames implements WritableByteChannel {
+        private final SocketChannel channel;
+        private final byte kind;
+
+        Frames(SocketChannel channel, byte kind) {
+            this.channel = channel;
+            this.kind = kind;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int length = src.remaining();
+            if (length == 0) return 0;
+            ByteBuffer header = ByteBuffer.allocate(5).put(kind).putInt(length).flip();
+            ByteBuffer[] frame = {header, src};
+            while (src.hasRemaining()) channel.write(frame);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * CompileDaemon [socket]
+     */
+    public static void main(String[] args) throws IOException {
+        Path socket = args.length > 0 ? Paths.get(args[0]) : defaultSocket();
+        new CompileDaemon(socket).serve();
+    }
+}
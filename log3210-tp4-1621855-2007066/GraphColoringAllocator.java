@@ -0,0 +1,366 @@
+package analyzer.visitors;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+
+/**
+ * Chaitin-Briggs register allocator.
+ * <p>
+ * Every definition of a variable starts a live range of its own, and a variable read before it is written gets a live
+ * range that starts with a load at its first use. Live ranges that are live at the same time interfere. Moves
+ * ("ADD d, #0, s") are coalesced when Briggs' conservative test says the merged node is still colorable, then the
+ * graph is simplified and colored optimistically. Live ranges that get no color are spilled: every use is reloaded into
+ * a short live range and every definition is stored right away, and the allocation starts over on the rewritten code.
+ * <p>
+ * The spill cost of a live range is its number of loads and stores, each weighted by 10^(loop depth of its line).
+ */
+public class GraphColoringAllocator {
+    private static final int MAX_ROUNDS = 64;
+
+    private static final int OPERATION = 0;
+    private static final int LOAD = 1;
+    private static final int STORE = 2;
+
+    private final ThreeAddressCode code;
+    private final int registers;
+    private final int[] loopDepth;
+
+    // Live ranges: memory variable, whether spilling it is allowed and its spill cost.
+    private final ArrayList<Integer> rangeVariable = new ArrayList<>();
+    private final ArrayList<Boolean> rangeSpillable = new ArrayList<>();
+    private boolean[] spillable;
+    private double[] cost;
+
+    private ArrayList<Instruction> instructions = new ArrayList<>();
+
+    // Interference graph, rebuilt every round.
+    private ArrayList<HashSet<Integer>> adjacent;
+    private int[] alias;
+    private int[] color;
+
+    // variables pour les metrics
+    public int ROUNDS = 0;
+    public int COALESCED = 0;
+    public int SPILLED = 0;
+
+    /**
+     * @param code      The code to allocate
+     * @param registers The number of registers
+     * @param loopDepth The loop nesting depth of each line of the code
+     */
+    public GraphColoringAllocator(ThreeAddressCode code, int registers, int[] loopDepth) {
+        this.code = code;
+        this.registers = registers;
+        this.loopDepth = loopDepth;
+    }
+
+    public ArrayList<MachineInstruction> allocate() {
+        build();
+        while (true) {
+            if (++ROUNDS > MAX_ROUNDS) {
+                throw new IllegalStateException("Cannot allocate the code with " + registers + " registers");
+            }
+            buildInterference();
+            coalesce();
+            BitSet spilled = select(simplify());
+            if (spilled.isEmpty()) break;
+            SPILLED += spilled.cardinality();
+            rewrite(spilled);
+        }
+        return emit();
+    }
+
+    private int newRange(int variable, boolean spillable) {
+        rangeVariable.add(variable);
+        rangeSpillable.add(spillable);
+        return rangeVariable.size() - 1;
+    }
+
+    /**
+     * Split the variables in live ranges and add the loads of the inputs and the stores of the returned variables.
+     */
+    private void build() {
+        int[] current = new int[code.variableCount()];
+        BitSet loaded = new BitSet();
+        Arrays.fill(current, -1);
+        for (int i = 0; i < code.size(); i++) {
+            int left = readRange(code.LEFT[i], current, loaded, i);
+            int right = readRange(code.RIGHT[i], current, loaded, i);
+            int assign = newRange(code.ASSIGN[i], true);
+            current[code.ASSIGN[i]] = assign;
+            instructions.add(new Instruction(OPERATION, code.OPERATION[i], assign, left, code.LEFT_VALUE[i], right, code.RIGHT_VALUE[i], i));
+        }
+        for (int v = 0; v < code.variableCount(); v++) {
+            // A returned variable that was only read is still up to date in memory.
+            if (Liveness.contains(code.RETURNED, v) && current[v] >= 0 && !loaded.get(current[v])) {
+                instructions.add(new Instruction(STORE, "ST", -1, -1, 0, current[v], 0, code.size()));
+            }
+        }
+    }
+
+    private int readRange(int variable, int[] current, BitSet loaded, int line) {
+        if (variable < 0) return -1;
+        if (current[variable] < 0) {
+            current[variable] = newRange(variable, true);
+            loaded.set(current[variable]);
+            instructions.add(new Instruction(LOAD, "LD", current[variable], -1, 0, -1, 0, line));
+        }
+        return current[variable];
+    }
+
+    private int find(int range) {
+        while (alias[range] != range) {
+            alias[range] = alias[alias[range]];
+            range = alias[range];
+        }
+        return range;
+    }
+
+    private void addEdge(int a, int b) {
+        if (a == b) return;
+        adjacent.get(a).add(b);
+        adjacent.get(b).add(a);
+    }
+
+    /**
+     * One backward pass over the code: a definition interferes with everything live after it, except the source of a
+     * move. Spill costs are counted on the way.
+     */
+    private void buildInterference() {
+        int count = rangeVariable.size();
+        adjacent = new ArrayList<>(count);
+        for (int r = 0; r < count; r++) adjacent.add(new HashSet<>());
+        alias = new int[count];
+        for (int r = 0; r < count; r++) alias[r] = r;
+        cost = new double[count];
+        spillable = new boolean[count];
+        for (int r = 0; r < count; r++) spillable[r] = rangeSpillable.get(r);
+
+        BitSet live = new BitSet(count);
+        for (int k = instructions.size() - 1; k >= 0; k--) {
+            Instruction instruction = instructions.get(k);
+            double weight = Math.pow(10, instruction.step < code.size() ? loopDepth[instruction.step] : 0);
+            if (instruction.assign >= 0) {
+                live.clear(instruction.assign);
+                for (int r = live.nextSetBit(0); r >= 0; r = live.nextSetBit(r + 1)) {
+                    if (!(instruction.isMove() && r == instruction.right)) addEdge(instruction.assign, r);
+                }
+                cost[instruction.assign] += weight;
+            }
+            if (instruction.left >= 0) {
+                live.set(instruction.left);
+                cost[instruction.left] += weight;
+            }
+            if (instruction.right >= 0) {
+                live.set(instruction.right);
+                cost[instruction.right] += weight;
+            }
+        }
+    }
+
+    /**
+     * Briggs' test: the merged node has fewer than K neighbours of significant degree.
+     */
+    private boolean canCoalesce(int a, int b) {
+        HashSet<Integer> neighbours = new HashSet<>(adjacent.get(a));
+        neighbours.addAll(adjacent.get(b));
+        int significant = 0;
+        for (int n : neighbours) {
+            int degree = adjacent.get(n).size();
+            if (adjacent.get(n).contains(a) && adjacent.get(n).contains(b)) degree--;
+            if (degree >= registers && ++significant >= registers) return false;
+        }
+        return true;
+    }
+
+    private void coalesce() {
+        for (Instruction instruction : instructions) {
+            if (!instruction.isMove()) continue;
+            int a = find(instruction.assign);
+            int b = find(instruction.right);
+            if (a == b || adjacent.get(a).contains(b) || !canCoalesce(a, b)) continue;
+
+            alias[b] = a;
+            for (int n : adjacent.get(b)) {
+                adjacent.get(n).remove(b);
+                addEdge(a, n);
+            }
+            adjacent.get(b).clear();
+            cost[a] += cost[b];
+            spillable[a] &= spillable[b];
+            COALESCED++;
+        }
+    }
+
+    /**
+     * Remove the nodes of degree < K first. When none is left, push the cheapest node to spill per neighbour anyway,
+     * it may still get a color in {@link #select}.
+     */
+    private ArrayDeque<Integer> simplify() {
+        int count = rangeVariable.size();
+        int[] degree = new int[count];
+        boolean[] removed = new boolean[count];
+        ArrayDeque<Integer> low = new ArrayDeque<>();
+        int remaining = 0;
+        for (int r = 0; r < count; r++) {
+            if (find(r) != r) {
+                removed[r] = true;
+                continue;
+            }
+            remaining++;
+            degree[r] = adjacent.get(r).size();
+            if (degree[r] < registers) low.add(r);
+        }
+
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        while (remaining > 0) {
+            int node = -1;
+            while (!low.isEmpty() && node < 0) {
+                int r = low.poll();
+                if (!removed[r]) node = r;
+            }
+            if (node < 0) node = spillCandidate(degree, removed);
+
+            removed[node] = true;
+            remaining--;
+            stack.push(node);
+            for (int n : adjacent.get(node)) {
+                if (!removed[n] && --degree[n] == registers - 1) low.add(n);
+            }
+        }
+        return stack;
+    }
+
+    private int spillCandidate(int[] degree, boolean[] removed) {
+        int best = -1;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for (int r = 0; r < degree.length; r++) {
+            if (removed[r]) continue;
+            double c = spillable[r] ? cost[r] / degree[r] : Double.POSITIVE_INFINITY;
+            if (best < 0 || c < bestCost) {
+                best = r;
+                bestCost = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Give each node the lowest color its neighbours do not use.
+     *
+     * @return The live ranges to spill, every member of an uncolored coalesced node
+     */
+    private BitSet select(ArrayDeque<Integer> stack) {
+        color = new int[rangeVariable.size()];
+        Arrays.fill(color, -1);
+        BitSet uncolored = new BitSet();
+        BitSet taken = new BitSet(registers);
+        while (!stack.isEmpty()) {
+            int node = stack.pop();
+            taken.clear();
+            for (int n : adjacent.get(node)) {
+                if (color[n] >= 0) taken.set(color[n]);
+            }
+            int c = taken.nextClearBit(0);
+            if (c < registers) color[node] = c;
+            else uncolored.set(node);
+        }
+
+        BitSet spilled = new BitSet();
+        for (int r = 0; r < rangeVariable.size(); r++) {
+            if (uncolored.get(find(r))) spilled.set(r);
+        }
+        return spilled;
+    }
+
+    /**
+     * Reload the spilled live ranges before each use and store them after their definition.
+     */
+    private void rewrite(BitSet spilled) {
+        ArrayList<Instruction> rewritten = new ArrayList<>(instructions.size());
+        for (Instruction instruction : instructions) {
+            if (instruction.kind == LOAD && spilled.get(instruction.assign)) continue;
+            if (instruction.kind == STORE && spilled.get(instruction.right)) continue;
+
+            if (instruction.left >= 0 && spilled.get(instruction.left)) {
+                int spilledLeft = instruction.left;
+                instruction.left = reload(spilledLeft, instruction.step, rewritten);
+                if (instruction.right == spilledLeft) instruction.right = instruction.left;
+            }
+            if (instruction.right >= 0 && spilled.get(instruction.right)) {
+                instruction.right = reload(instruction.right, instruction.step, rewritten);
+            }
+            rewritten.add(instruction);
+            if (instruction.kind == OPERATION && spilled.get(instruction.assign)) {
+                int variable = rangeVariable.get(instruction.assign);
+                instruction.assign = newRange(variable, false);
+                rewritten.add(new Instruction(STORE, "ST", -1, -1, 0, instruction.assign, 0, instruction.step));
+            }
+        }
+        instructions = rewritten;
+    }
+
+    private int reload(int range, int step, ArrayList<Instruction> rewritten) {
+        int variable = rangeVariable.get(range);
+        int temporary = newRange(variable, false);
+        rewritten.add(new Instruction(LOAD, "LD", temporary, -1, 0, -1, 0, step));
+        return temporary;
+    }
+
+    private ArrayList<MachineInstruction> emit() {
+        ArrayList<MachineInstruction> output = new ArrayList<>(instructions.size());
+        for (Instruction instruction : instructions) {
+            if (instruction.kind == LOAD) {
+                output.add(MachineInstruction.load(register(instruction.assign), name(instruction), instruction.step));
+            } else if (instruction.kind == STORE) {
+                output.add(MachineInstruction.store(name(instruction), register(instruction.right), instruction.step));
+            } else {
+                // The step of an operation is its line of the code.
+                MachineInstruction.emit(code, instruction.step, register(instruction.assign),
+                        register(instruction.left), register(instruction.right), instruction.step, output);
+            }
+        }
+        return output;
+    }
+
+    private int register(int range) {
+        return range < 0 ? -1 : color[find(range)];
+    }
+
+    private String name(Instruction instruction) {
+        int range = instruction.kind == LOAD ? instruction.assign : instruction.right;
+        return code.VARIABLES.get(rangeVariable.get(range));
+    }
+
+    /**
+     * An instruction over live ranges instead of registers.
+     */
+    private static class Instruction {
+        final int kind;
+        final String operation;
+        int assign;
+        int left;
+        final int leftValue;
+        int right;
+        final int rightValue;
+        final int step;
+
+        Instruction(int kind, String operation, int assign, int left, int leftValue, int right, int rightValue, int step) {
+            this.kind = kind;
+            this.operation = operation;
+            this.assign = assign;
+            this.left = left;
+            this.leftValue = leftValue;
+            this.right = right;
+            this.rightValue = rightValue;
+            this.step = step;
+        }
+
+        boolean isMove() {
+            return kind == OPERATION && operation.equals("ADD") && left < 0 && leftValue == 0 && right >= 0;
+        }
+    }
+}
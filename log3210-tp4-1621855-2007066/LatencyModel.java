@@ -0,0 +1,89 @@
+package analyzer.visitors;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Latency of each machine instruction, in cycles, for an in-order pipeline that issues one instruction per cycle.
+ * <p>
+ * An instruction issues once the registers it reads are ready, and a load also waits for the last store to the same
+ * variable. Its result is ready latency cycles after it issues.
+ */
+public class LatencyModel {
+    private final HashMap<String, Integer> LATENCIES = new HashMap<>();
+
+    public LatencyModel() {
+        LATENCIES.put("LD", 3);
+        LATENCIES.put("ST", 1);
+        LATENCIES.put("ADD", 1);
+        LATENCIES.put("MIN", 1);
+        LATENCIES.put("MUL", 3);
+        LATENCIES.put("DIV", 10);
+    }
+
+    /**
+     * The default model with some latencies changed, e.g. "LD=4,DIV=20".
+     */
+    public static LatencyModel parse(String spec) {
+        LatencyModel model = new LatencyModel();
+        if (spec.isBlank()) return model;
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.split("=");
+            if (parts.length != 2 || !model.LATENCIES.containsKey(parts[0].trim())) {
+                throw new IllegalArgumentException("Invalid latency: " + entry);
+            }
+            model.setLatency(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+        }
+        return model;
+    }
+
+    public int latency(String operation) {
+        return LATENCIES.get(operation);
+    }
+
+    public void setLatency(String operation, int cycles) {
+        if (cycles < 1) throw new IllegalArgumentException("Latency of " + operation + " must be at least 1");
+        LATENCIES.put(operation, cycles);
+    }
+
+    /**
+     * Every latency in the format of parse, always in the same order.
+     */
+    @Override
+    public String toString() {
+        StringBuilder spec = new StringBuilder();
+        for (String operation : new String[]{"LD", "ST", "ADD", "MIN", "MUL", "DIV"}) {
+            if (spec.length() > 0) spec.append(',');
+            spec.append(operation).append('=').append(LATENCIES.get(operation));
+        }
+        return spec.toString();
+    }
+
+    /**
+     * Cycles until the last result of the code is ready.
+     */
+    public long cycles(List<MachineInstruction> code) {
+        int registers = 0;
+        for (MachineInstruction instruction : code) {
+            registers = Math.max(registers, Math.max(instruction.ASSIGN, Math.max(instruction.LEFT, instruction.RIGHT)) + 1);
+        }
+        long[] ready = new long[registers];
+        HashMap<String, Long> stored = new HashMap<>();
+
+        long issue = -1;
+        long end = 0;
+        for (MachineInstruction instruction : code) {
+            long start = issue + 1;
+            if (instruction.LEFT >= 0) start = Math.max(start, ready[instruction.LEFT]);
+            if (instruction.RIGHT >= 0) start = Math.max(start, ready[instruction.RIGHT]);
+            if (instruction.isLoad()) start = Math.max(start, stored.getOrDefault(instruction.MEMORY, 0L));
+            issue = start;
+
+            long done = issue + latency(instruction.OPERATION);
+            if (instruction.ASSIGN >= 0) ready[instruction.ASSIGN] = done;
+            if (instruction.isStore()) stored.put(instruction.MEMORY, done);
+            end = Math.max(end, done);
+        }
+        return end;
+    }
+}
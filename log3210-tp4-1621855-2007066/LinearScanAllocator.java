@@ -0,0 +1,112 @@
+package analyzer.visitors;
+
+import java.util.ArrayList;
+
+/**
+ * Linear scan register allocator with interval splitting and second-chance binpacking.
+ * <p>
+ * Live intervals come from the liveness sets: an interval starts where a variable is written (or first read for an
+ * input) and ends at the line whose Life_OUT no longer contains it, where its register is released. When no register
+ * is free, the active interval with the furthest next use is split: the value is stored if memory is out of date and
+ * the rest of the interval waits in memory until its next use, where it gets a second chance at a register.
+ * <p>
+ * Every line costs O(log K) for K registers, plus the liveness and next-use tables it reads.
+ */
+public class LinearScanAllocator {
+    private final ThreeAddressCode code;
+    private final int registers;
+    private final Liveness liveness;
+    private final NextUseTable nextUse;
+
+    private RegisterFile file;
+    private ArrayList<MachineInstruction> output;
+
+    // variables pour les metrics
+    public int SPLITS = 0;
+
+    public LinearScanAllocator(ThreeAddressCode code, int registers, Liveness liveness, NextUseTable nextUse) {
+        this.code = code;
+        this.registers = registers;
+        this.liveness = liveness;
+        this.nextUse = nextUse;
+    }
+
+    public ArrayList<MachineInstruction> allocate() {
+        file = new RegisterFile(registers, code.variableCount());
+        output = new ArrayList<>();
+        long[] life = Liveness.newSet(code.variableCount());
+        int[] next = new int[code.variableCount()];
+        for (int b = 0; b < liveness.blockCount(); b++) {
+            liveness.enter(b, life);
+            nextUse.enter(b, next);
+            for (int reg = 0; reg < file.used(); reg++) {
+                if (file.variableOf(reg) >= 0) file.setNextUse(file.variableOf(reg), next[file.variableOf(reg)]);
+            }
+
+            for (int i = liveness.blockStart(b); i < liveness.blockEnd(b); i++) {
+                int left = read(code.LEFT[i], next, i);
+                int right = read(code.RIGHT[i], next, i);
+                liveness.advance(i, life);
+                nextUse.advance(i, next);
+                expire(code.LEFT[i], life, next);
+                expire(code.RIGHT[i], life, next);
+
+                int assign = code.ASSIGN[i];
+                int assignReg = file.registerOf(assign);
+                if (assignReg < 0) assignReg = take(assign, next[assign], i);
+                else file.setNextUse(assign, next[assign]);
+                file.setDirty(assign, true);
+
+                MachineInstruction.emit(code, i, assignReg, left, right, i, output);
+
+                // A value nobody reads still needs a register to be written to, but only for this line.
+                if (!Liveness.contains(life, assign)) file.release(assignReg);
+            }
+        }
+
+        for (int reg = 0; reg < file.used(); reg++) {
+            int var = file.variableOf(reg);
+            if (Liveness.contains(code.RETURNED, var) && file.isDirty(var)) {
+                output.add(MachineInstruction.store(code.VARIABLES.get(var), reg, code.size()));
+            }
+        }
+        return output;
+    }
+
+    /**
+     * The register of an operand, loaded from memory when its interval was split or starts here.
+     */
+    private int read(int variable, int[] next, int line) {
+        if (variable < 0) return -1;
+        int reg = file.registerOf(variable);
+        if (reg >= 0) return reg;
+        reg = take(variable, next[variable], line);
+        output.add(MachineInstruction.load(reg, code.VARIABLES.get(variable), line));
+        return reg;
+    }
+
+    /**
+     * Release the register of an operand whose interval ends on this line.
+     */
+    private void expire(int variable, long[] life, int[] next) {
+        if (variable < 0 || file.registerOf(variable) < 0) return;
+        if (Liveness.contains(life, variable)) file.setNextUse(variable, next[variable]);
+        else file.release(file.registerOf(variable));
+    }
+
+    /**
+     * A free register, or the one of the active interval used furthest away, which is split.
+     */
+    private int take(int variable, int next, int line) {
+        if (!file.isFull()) return file.allocate(variable, next);
+
+        int reg = file.victim();
+        int evicted = file.variableOf(reg);
+        if (file.isDirty(evicted)) {
+            output.add(MachineInstruction.store(code.VARIABLES.get(evicted), reg, line));
+        }
+        SPLITS++;
+        file.replace(reg, variable, next);
+        return reg;
+    }
+}
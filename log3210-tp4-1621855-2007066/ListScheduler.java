@@ -0,0 +1,151 @@
+package analyzer.visitors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * List scheduler for the machine code of each basic block.
+ * <p>
+ * The dependence graph keeps every read after its write, every write after the reads and the write before it, on
+ * registers and on memory variables alike. Instructions are issued one per cycle, the ready one with the longest
+ * latency path to the end of the block first, and the original order breaks ties. Registers are never renamed, so the
+ * scheduled code uses exactly the registers the allocator chose.
+ */
+public class ListScheduler {
+    private final LatencyModel model;
+
+    public ListScheduler(LatencyModel model) {
+        this.model = model;
+    }
+
+    /**
+     * @param code        The code to schedule, in step order
+     * @param blockStarts The first step of each basic block
+     */
+    public ArrayList<MachineInstruction> schedule(List<MachineInstruction> code, int[] blockStarts) {
+        ArrayList<MachineInstruction> output = new ArrayList<>(code.size());
+        int from = 0;
+        int block = 0;
+        while (from < code.size()) {
+            while (block + 1 < blockStarts.length && code.get(from).STEP >= blockStarts[block + 1]) block++;
+            int to = from;
+            int limit = block + 1 < blockStarts.length ? blockStarts[block + 1] : Integer.MAX_VALUE;
+            while (to < code.size() && code.get(to).STEP < limit) to++;
+            scheduleBlock(code.subList(from, to), output);
+            from = to;
+        }
+        return output;
+    }
+
+    private void scheduleBlock(List<MachineInstruction> block, ArrayList<MachineInstruction> output) {
+        int count = block.size();
+        Graph graph = new Graph(count);
+        int registers = 0;
+        for (MachineInstruction instruction : block) {
+            registers = Math.max(registers, Math.max(instruction.ASSIGN, Math.max(instruction.LEFT, instruction.RIGHT)) + 1);
+        }
+        int[] writer = new int[registers];
+        Arrays.fill(writer, -1);
+        ArrayList<ArrayList<Integer>> readers = new ArrayList<>();
+        for (int r = 0; r < registers; r++) readers.add(new ArrayList<>());
+        HashMap<String, Integer> store = new HashMap<>();
+        HashMap<String, ArrayList<Integer>> loads = new HashMap<>();
+
+        for (int j = 0; j < count; j++) {
+            MachineInstruction instruction = block.get(j);
+            for (int r : new int[]{instruction.LEFT, instruction.RIGHT}) {
+                if (r >= 0 && writer[r] >= 0) graph.add(writer[r], j, model.latency(block.get(writer[r]).OPERATION));
+            }
+
+            int d = instruction.ASSIGN;
+            if (d >= 0) {
+                for (int reader : readers.get(d)) graph.add(reader, j, 0);
+                if (writer[d] >= 0) graph.add(writer[d], j, 1);
+                writer[d] = j;
+                readers.get(d).clear();
+            }
+            if (instruction.LEFT >= 0 && instruction.LEFT != d) readers.get(instruction.LEFT).add(j);
+            if (instruction.RIGHT >= 0 && instruction.RIGHT != d && instruction.RIGHT != instruction.LEFT) {
+                readers.get(instruction.RIGHT).add(j);
+            }
+
+            if (instruction.isLoad()) {
+                Integer previous = store.get(instruction.MEMORY);
+                if (previous != null) graph.add(previous, j, model.latency("ST"));
+                loads.computeIfAbsent(instruction.MEMORY, k -> new ArrayList<>()).add(j);
+            } else if (instruction.isStore()) {
+                ArrayList<Integer> pending = loads.remove(instruction.MEMORY);
+                if (pending != null) for (int load : pending) graph.add(load, j, 0);
+                Integer previous = store.put(instruction.MEMORY, j);
+                if (previous != null) graph.add(previous, j, 1);
+            }
+        }
+
+        // Longest latency path from each instruction to the end of the block.
+        long[] priority = new long[count];
+        for (int i = count - 1; i >= 0; i--) {
+            priority[i] = model.latency(block.get(i).OPERATION);
+            for (int e = graph.first[i]; e >= 0; e = graph.nextEdge[e]) {
+                priority[i] = Math.max(priority[i], graph.latency[e] + priority[graph.target[e]]);
+            }
+        }
+
+        long[] earliest = new long[count];
+        PriorityQueue<Integer> waiting = new PriorityQueue<>((a, b) -> earliest[a] != earliest[b] ? Long.compare(earliest[a], earliest[b]) : Integer.compare(a, b));
+        PriorityQueue<Integer> ready = new PriorityQueue<>((a, b) -> priority[a] != priority[b] ? Long.compare(priority[b], priority[a]) : Integer.compare(a, b));
+        for (int i = 0; i < count; i++) {
+            if (graph.predecessors[i] == 0) waiting.add(i);
+        }
+
+        long cycle = 0;
+        while (!waiting.isEmpty() || !ready.isEmpty()) {
+            while (!waiting.isEmpty() && earliest[waiting.peek()] <= cycle) ready.add(waiting.poll());
+            if (ready.isEmpty()) {
+                cycle = earliest[waiting.peek()];
+                continue;
+            }
+            int i = ready.poll();
+            output.add(block.get(i));
+            for (int e = graph.first[i]; e >= 0; e = graph.nextEdge[e]) {
+                int t = graph.target[e];
+                earliest[t] = Math.max(earliest[t], cycle + graph.latency[e]);
+                if (--graph.predecessors[t] == 0) waiting.add(t);
+            }
+            cycle++;
+        }
+    }
+
+    /**
+     * Dependence edges as linked lists in flat arrays.
+     */
+    private static class Graph {
+        final int[] first;
+        final int[] predecessors;
+        int[] target = new int[16];
+        int[] latency = new int[16];
+        int[] nextEdge = new int[16];
+        int edges = 0;
+
+        Graph(int count) {
+            first = new int[count];
+            predecessors = new int[count];
+            Arrays.fill(first, -1);
+        }
+
+        void add(int from, int to, int cycles) {
+            if (edges == target.length) {
+                target = Arrays.copyOf(target, 2 * edges);
+                latency = Arrays.copyOf(latency, 2 * edges);
+                nextEdge = Arrays.copyOf(nextEdge, 2 * edges);
+            }
+            target[edges] = to;
+            latency[edges] = cycles;
+            nextEdge[edges] = first[from];
+            first[from] = edges++;
+            predecessors[to]++;
+        }
+    }
+}
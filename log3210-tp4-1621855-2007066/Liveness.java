@@ -0,0 +1,181 @@
+package analyzer.visitors;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Live variable analysis solved with a worklist over basic blocks.
+ * <p>
+ * Sets are dense bitsets (long[]) indexed by variable id. Only the block boundaries keep a full set; for each line
+ * we keep three bits telling whether its operands are still live after it, which is enough to rebuild the set of
+ * any line on demand by walking its block forward with {@link #enter} and {@link #advance}.
+ */
+public class Liveness {
+    private static final byte LEFT_LIVE = 1;
+    private static final byte RIGHT_LIVE = 2;
+    private static final byte ASSIGN_LIVE = 4;
+
+    private final int words;
+    private final int[] assign;
+    private final int[] left;
+    private final int[] right;
+    private final int[] blockStarts;
+    private final int[][] successors;
+    private final long[] exitLive;
+
+    private long[][] blockIn;
+    private long[][] blockOut;
+    private byte[] flags;
+
+    // variable pour les metrics
+    public int ITERATIONS = 0;
+
+    /**
+     * @param assign      variable id defined by each line
+     * @param left        variable id of the left operand of each line, -1 for a constant
+     * @param right       variable id of the right operand of each line, -1 for a constant
+     * @param blockStarts first line of each basic block, in increasing order
+     * @param successors  successor blocks of each block; a block without successor exits the program
+     * @param exitLive    variables live when the program exits
+     */
+    public Liveness(int varCount, int[] assign, int[] left, int[] right, int[] blockStarts, int[][] successors, long[] exitLive) {
+        this.words = (varCount + 63) >>> 6;
+        this.assign = assign;
+        this.left = left;
+        this.right = right;
+        this.blockStarts = blockStarts;
+        this.successors = successors;
+        this.exitLive = exitLive;
+    }
+
+    public static long[] newSet(int varCount) {
+        return new long[(varCount + 63) >>> 6];
+    }
+
+    public static boolean contains(long[] set, int variable) {
+        return variable >= 0 && (set[variable >>> 6] & (1L << variable)) != 0;
+    }
+
+    public static void add(long[] set, int variable) {
+        if (variable >= 0) set[variable >>> 6] |= 1L << variable;
+    }
+
+    public static void remove(long[] set, int variable) {
+        if (variable >= 0) set[variable >>> 6] &= ~(1L << variable);
+    }
+
+    public int blockCount() {
+        return blockStarts.length;
+    }
+
+    public int blockStart(int block) {
+        return blockStarts[block];
+    }
+
+    public int blockEnd(int block) {
+        return block + 1 < blockStarts.length ? blockStarts[block + 1] : assign.length;
+    }
+
+    public long[] blockIn(int block) {
+        return blockIn[block];
+    }
+
+    public long[] blockOut(int block) {
+        return blockOut[block];
+    }
+
+    public void solve() {
+        int blocks = blockStarts.length;
+        long[][] use = new long[blocks][words];
+        long[][] def = new long[blocks][words];
+        blockIn = new long[blocks][words];
+        blockOut = new long[blocks][words];
+        flags = new byte[assign.length];
+
+        ArrayList<ArrayList<Integer>> predecessors = new ArrayList<>();
+        for (int b = 0; b < blocks; b++) {
+            predecessors.add(new ArrayList<>());
+        }
+        for (int b = 0; b < blocks; b++) {
+            for (int s : successors[b]) {
+                predecessors.get(s).add(b);
+            }
+            for (int i = blockStart(b); i < blockEnd(b); i++) {
+                if (!contains(def[b], left[i])) add(use[b], left[i]);
+                if (!contains(def[b], right[i])) add(use[b], right[i]);
+                add(def[b], assign[i]);
+            }
+        }
+
+        ArrayDeque<Integer> worklist = new ArrayDeque<>();
+        boolean[] queued = new boolean[blocks];
+        for (int b = blocks - 1; b >= 0; b--) {
+            worklist.add(b);
+            queued[b] = true;
+        }
+        long[] in = new long[words];
+        while (!worklist.isEmpty()) {
+            int b = worklist.poll();
+            queued[b] = false;
+            ITERATIONS++;
+
+            long[] out = blockOut[b];
+            if (successors[b].length == 0) {
+                System.arraycopy(exitLive, 0, out, 0, words);
+            } else {
+                Arrays.fill(out, 0);
+                for (int s : successors[b]) {
+                    long[] succIn = blockIn[s];
+                    for (int w = 0; w < words; w++) out[w] |= succIn[w];
+                }
+            }
+            for (int w = 0; w < words; w++) {
+                in[w] = use[b][w] | (out[w] & ~def[b][w]);
+            }
+            if (!Arrays.equals(in, blockIn[b])) {
+                System.arraycopy(in, 0, blockIn[b], 0, words);
+                for (int p : predecessors.get(b)) {
+                    if (!queued[p]) {
+                        queued[p] = true;
+                        worklist.add(p);
+                    }
+                }
+            }
+        }
+
+        // Dernier passage arriere dans chaque bloc pour retenir ce qui survit a chaque ligne.
+        long[] live = new long[words];
+        for (int b = 0; b < blocks; b++) {
+            System.arraycopy(blockOut[b], 0, live, 0, words);
+            for (int i = blockEnd(b) - 1; i >= blockStart(b); i--) {
+                byte f = 0;
+                if (contains(live, left[i])) f |= LEFT_LIVE;
+                if (contains(live, right[i])) f |= RIGHT_LIVE;
+                if (contains(live, assign[i])) f |= ASSIGN_LIVE;
+                flags[i] = f;
+                remove(live, assign[i]);
+                add(live, left[i]);
+                add(live, right[i]);
+            }
+        }
+    }
+
+    /**
+     * Sets life to the variables live at the entry of the block.
+     */
+    public void enter(int block, long[] life) {
+        System.arraycopy(blockIn[block], 0, life, 0, words);
+    }
+
+    /**
+     * Turns Life_IN of the line into its Life_OUT (which is also Life_IN of the next line in the block).
+     */
+    public void advance(int line, long[] life) {
+        byte f = flags[line];
+        if ((f & LEFT_LIVE) == 0) remove(life, left[line]);
+        if ((f & RIGHT_LIVE) == 0) remove(life, right[line]);
+        if ((f & ASSIGN_LIVE) == 0) remove(life, assign[line]);
+        else add(life, assign[line]);
+    }
+}
@@ -0,0 +1,315 @@
+package analyzer.visitors;
+
+import analyzer.ast.JavaCharStream;
+import analyzer.ast.ParseException;
+import analyzer.ast.Parser;
+import analyzer.ast.ParserConstants;
+import analyzer.ast.ParserTokenManager;
+import analyzer.ast.Token;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compiles a source file to printed machine code, optionally through a {@link CompilationCache}.
+ * <p>
+ * A cache hit writes the stored output as is, without running the Parser or any visitor.
+ */
+public class MachineCodeCompiler {
+    private final PrintMachineCodeVisitor.Allocator ALLOCATOR;
+    private final boolean PEEPHOLE;
+    private final LatencyModel SCHEDULING;
+    private final Map<String, Long> PROFILE;
+    private final int WINDOW;
+    private final int LOOKAHEAD;
+    private final boolean BINARY;
+
+    public MachineCodeCompiler(PrintMachineCodeVisitor.Allocator allocator, boolean peephole, LatencyModel scheduling) {
+        this(allocator, peephole, scheduling, Collections.emptyMap());
+    }
+
+    /**
+     * @param profile The accesses of each variable in a profiled run, see {@link #readProfile}
+     */
+    public MachineCodeCompiler(PrintMachineCodeVisitor.Allocator allocator, boolean peephole, LatencyModel scheduling, Map<String, Long> profile) {
+        this(allocator, peephole, scheduling, profile, 0, 0);
+    }
+
+    /**
+     * @param window    The lines the NEXT_USE allocator compiles at a time, 0 to buffer the whole program
+     * @param lookahead The lines read past each window before it is compiled
+     */
+    public MachineCodeCompiler(PrintMachineCodeVisitor.Allocator allocator, boolean peephole, LatencyModel scheduling, Map<String, Long> profile, int window, int lookahead) {
+        this(allocator, peephole, scheduling, profile, window, lookahead, false);
+    }
+
+    /**
+     * @param binary Whether the code is compiled in the format of BinaryMachineCode instead of text
+     */
+    public MachineCodeCompiler(PrintMachineCodeVisitor.Allocator allocator, boolean peephole, LatencyModel scheduling, Map<String, Long> profile, int window, int lookahead, boolean binary) {
+        ALLOCATOR = allocator;
+        PEEPHOLE = peephole;
+        SCHEDULING = scheduling;
+        PROFILE = new TreeMap<>(profile);
+        WINDOW = window;
+        LOOKAHEAD = lookahead;
+        BINARY = binary;
+    }
+
+    /**
+     * Read the "variable name accesses" lines of a profile written by the ProfileRunner of the intermediate code.
+     * The other lines describe its branches, which straight-line code does not have, and the key of the program of
+     * the intermediate code, which the three-address code does not share: {@link #compile(byte[])} checks the
+     * variables instead.
+     */
+    public static Map<String, Long> readProfile(Path file) throws IOException {
+        TreeMap<String, Long> uses = new TreeMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] tokens = line.trim().split("\\s+");
+                if (tokens.length == 3 && tokens[0].equals("variable")) {
+                    uses.merge(tokens[1], Long.parseLong(tokens[2]), Long::sum);
+                }
+            }
+        }
+        return uses;
+    }
+
+    /**
+     * Parse and compile a source with a new visitor, in UTF-8 like the PrintWriter of main would print it, or in the
+     * binary format.
+     */
+    public byte[] compile(byte[] source) throws ParseException {
+        checkProfile(new ByteArrayInputStream(source));
+        if (BINARY) {
+            ByteArrayOutputStream binary = new ByteArrayOutputStream();
+            compile(new ByteArrayInputStream(source), Channels.newChannel(binary), null);
+            return binary.toByteArray();
+        }
+        StringWriter output = new StringWriter();
+        PrintWriter writer = new PrintWriter(output);
+        compile(new ByteArrayInputStream(source), writer);
+        writer.flush();
+        return output.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parse and compile a source a statement at a time with a new visitor. With a window, the code is printed as the
+     * windows are compiled, and neither the source nor the code is ever held whole.
+     */
+    public void compile(InputStream source, PrintWriter writer) throws ParseException {
+        PrintMachineCodeVisitor visitor = new PrintMachineCodeVisitor(writer, ALLOCATOR, PEEPHOLE, SCHEDULING);
+        visitor.setProfile(PROFILE);
+        visitor.setWindow(WINDOW, LOOKAHEAD);
+        visitor.visitStatements(new Parser(source));
+    }
+
+    /**
+     * Parse and compile a source in the binary format with a new visitor. The whole code is written at the end of the
+     * program.
+     *
+     * @param debug Where to write the liveness and next-use annotations, null to skip them
+     */
+    public void compile(InputStream source, WritableByteChannel binary, PrintWriter debug) throws ParseException {
+        PrintMachineCodeVisitor visitor = new PrintMachineCodeVisitor(binary, debug, ALLOCATOR, PEEPHOLE, SCHEDULING);
+        visitor.setProfile(PROFILE);
+        visitor.setWindow(WINDOW, LOOKAHEAD);
+        visitor.visitStatements(new Parser(source));
+    }
+
+    /**
+     * Reject a profile of another program. The profile names the variables and arrays of the program it was taken
+     * from, so each of them must be an identifier of the source.
+     *
+     * @throws IllegalArgumentException If the source does not name a variable of the profile
+     */
+    private void checkProfile(InputStream source) {
+        if (PROFILE.isEmpty()) return;
+        HashSet<String> identifiers = new HashSet<>();
+        ParserTokenManager tokens = new ParserTokenManager(new JavaCharStream(source));
+        for (Token token = tokens.getNextToken(); token.kind != ParserConstants.EOF; token = tokens.getNextToken()) {
+            if (token.kind == ParserConstants.IDENTIFIER) identifiers.add(token.image);
+        }
+        for (String variable : PROFILE.keySet()) {
+            if (!identifiers.contains(variable)) {
+                throw new IllegalArgumentException("The profile is not of this program, which has no variable " + variable);
+            }
+        }
+    }
+
+    /**
+     * The cache key of a source. The register count is declared by the source itself, so only the options of the
+     * back end are added to it, and the profile, the window and the binary format when they change the output.
+     */
+    public String key(byte[] source) {
+        String scheduling = SCHEDULING == null ? "" : SCHEDULING.toString();
+        ArrayList<String> options = new ArrayList<>(Arrays.asList(ALLOCATOR.name(), Boolean.toString(PEEPHOLE), scheduling));
+        if (!PROFILE.isEmpty()) options.add(PROFILE.toString());
+        if (WINDOW > 0 && ALLOCATOR == PrintMachineCodeVisitor.Allocator.NEXT_USE && !PEEPHOLE) {
+            options.add("window=" + WINDOW + "+" + LOOKAHEAD);
+        }
+        if (BINARY) options.add("binary");
+        return CompilationCache.key(source, options.toArray(new String[0]));
+    }
+
+    /**
+     * The compiled source, from the cache when it holds it.
+     *
+     * @param cache The cache to use, null to always compile
+     */
+    public ByteBuffer compile(byte[] source, CompilationCache cache) throws ParseException {
+        if (cache == null) return ByteBuffer.wrap(compile(source));
+        long started = System.nanoTime();
+        String key = key(source);
+        ByteBuffer cached = cache.get(key, started);
+        if (cached != null) return cached;
+        byte[] output = compile(source);
+        cache.put(key, output, System.nanoTime() - started);
+        return ByteBuffer.wrap(output);
+    }
+
+    /**
+     * Where a command line gets its cache from, so that a long-running process can share one per directory.
+     */
+    public interface Caches {
+        CompilationCache open(Path directory, long maxBytes) throws IOException;
+    }
+
+    /**
+     * MachineCodeCompiler [-allocator NEXT_USE|GRAPH_COLORING|LINEAR_SCAN] [-peephole] [-schedule LD=3,...]
+     * [-profile file] [-window lines lookahead] [-binary file [-debug file]] [-cache directory] [-cache-size bytes]
+     * [-stats] file
+     * <p>
+     * The machine code goes to the standard output, or to the -binary file in the format of BinaryMachineCode, with
+     * the liveness and next-use annotations in the -debug file. The totals of the cache go to the error output with
+     * -stats.
+     */
+    public static void main(String[] args) throws IOException {
+        WritableByteChannel out = Channels.newChannel(System.out);
+        int status = run(args, Paths.get("").toAbsolutePath(), out, System.err, CompilationCache::new);
+        System.out.flush();
+        if (status != 0) System.exit(status);
+    }
+
+    /**
+     * Run one command line, with the relative paths resolved against a working directory.
+     *
+     * @return The exit status
+     */
+    public static int run(String[] args, Path workingDirectory, WritableByteChannel out, PrintStream err, Caches caches) throws IOException {
+        PrintMachineCodeVisitor.Allocator allocator = PrintMachineCodeVisitor.Allocator.NEXT_USE;
+        boolean peephole = false;
+        LatencyModel scheduling = null;
+        Map<String, Long> profile = Collections.emptyMap();
+        int window = 0;
+        int lookahead = 0;
+        Path binary = null;
+        Path debug = null;
+        Path cacheDirectory = null;
+        long cacheSize = CompilationCache.DEFAULT_SIZE;
+        boolean stats = false;
+        String file = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-allocator") && i + 1 < args.length) {
+                allocator = PrintMachineCodeVisitor.Allocator.valueOf(args[++i]);
+            } else if (args[i].equals("-peephole")) {
+                peephole = true;
+            } else if (args[i].equals("-schedule") && i + 1 < args.length) {
+                scheduling = LatencyModel.parse(args[++i]);
+            } else if (args[i].equals("-profile") && i + 1 < args.length) {
+                profile = readProfile(workingDirectory.resolve(args[++i]));
+            } else if (args[i].equals("-window") && i + 2 < args.length) {
+                window = Integer.parseInt(args[++i]);
+                lookahead = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-binary") && i + 1 < args.length) {
+                binary = workingDirectory.resolve(args[++i]);
+            } else if (args[i].equals("-debug") && i + 1 < args.length) {
+                debug = workingDirectory.resolve(args[++i]);
+            } else if (args[i].equals("-cache") && i + 1 < args.length) {
+                cacheDirectory = workingDirectory.resolve(args[++i]);
+            } else if (args[i].equals("-cache-size") && i + 1 < args.length) {
+                cacheSize = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-stats")) {
+                stats = true;
+            } else {
+                file = args[i];
+            }
+        }
+        if (file == null || (debug != null && binary == null)) {
+            err.println("Usage: MachineCodeCompiler [-allocator NEXT_USE|GRAPH_COLORING|LINEAR_SCAN] [-peephole] " +
+                    "[-schedule LD=3,...] [-profile file] [-window lines lookahead] [-binary file [-debug file]] [-cache directory] [-cache-size bytes] " +
+                    "[-stats] file");
+            return 1;
+        }
+
+        CompilationCache cache = cacheDirectory == null ? null : caches.open(cacheDirectory, cacheSize);
+        MachineCodeCompiler compiler = new MachineCodeCompiler(allocator, peephole, scheduling, profile, window, lookahead, binary != null);
+        Path source = workingDirectory.resolve(file);
+        if (debug != null) {
+            // The cache only stores the code, the annotations need a compile.
+            try (FileChannel channel = FileChannel.open(binary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 PrintWriter writer = new PrintWriter(Files.newBufferedWriter(debug));
+                 InputStream profiled = Files.newInputStream(source); InputStream input = Files.newInputStream(source)) {
+                compiler.checkProfile(profiled);
+                compiler.compile(input, channel, writer);
+            } catch (ParseException | IllegalArgumentException e) {
+                err.println(e.getMessage());
+                return 1;
+            }
+            return 0;
+        }
+        if (cache == null && window > 0 && binary == null) {
+            // A cache keys the whole source and stores the whole code, without it both are streamed.
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(Channels.newOutputStream(out), StandardCharsets.UTF_8));
+            try (InputStream profiled = Files.newInputStream(source); InputStream input = Files.newInputStream(source)) {
+                compiler.checkProfile(profiled);
+                compiler.compile(input, writer);
+            } catch (ParseException | IllegalArgumentException e) {
+                err.println(e.getMessage());
+                return 1;
+            } finally {
+                writer.flush();
+            }
+            return 0;
+        }
+        ByteBuffer output;
+        try {
+            output = compiler.compile(Files.readAllBytes(source), cache);
+        } catch (ParseException | IllegalArgumentException e) {
+            err.println(e.getMessage());
+            return 1;
+        }
+        if (binary != null) {
+            try (FileChannel channel = FileChannel.open(binary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (output.hasRemaining()) channel.write(output);
+            }
+        } else {
+            while (output.hasRemaining()) out.write(output);
+        }
+        if (stats && cache != null) err.println(cache.totals());
+        return 0;
+    }
+}
@@ -0,0 +1,226 @@
+package analyzer.visitors;
+
+import java.util.List;
+
+/**
+ * One instruction of the generated machine code.
+ * <p>
+ * LD and ST move a variable between memory and a register; ADD, MIN, MUL and DIV read two operands, each either a
+ * register or a constant (register -1), and write ASSIGN.
+ * <p>
+ * An INDEXED LD or ST moves an element of the array MEMORY instead, at the byte offset given by LEFT or LEFT_VALUE.
+ */
+public class MachineInstruction {
+    public final String OPERATION;
+    public int ASSIGN;
+    public int LEFT;
+    public int RIGHT;
+    public int LEFT_VALUE;
+    public int RIGHT_VALUE;
+    public String MEMORY;
+    public boolean INDEXED;
+
+    // Line of CODE the instruction was generated for, CODE.size() for the final stores.
+    public int STEP;
+
+    private MachineInstruction(String operation, int step) {
+        OPERATION = operation;
+        STEP = step;
+    }
+
+    public static MachineInstruction load(int register, String memory, int step) {
+        MachineInstruction instruction = new MachineInstruction("LD", step);
+        instruction.ASSIGN = register;
+        instruction.LEFT = -1;
+        instruction.RIGHT = -1;
+        instruction.MEMORY = memory;
+        return instruction;
+    }
+
+    public static MachineInstruction store(String memory, int register, int step) {
+        MachineInstruction instruction = new MachineInstruction("ST", step);
+        instruction.ASSIGN = -1;
+        instruction.LEFT = -1;
+        instruction.RIGHT = register;
+        instruction.MEMORY = memory;
+        return instruction;
+    }
+
+    /**
+     * "LD register, array[offset]"
+     */
+    public static MachineInstruction indexedLoad(int register, String array, int offset, int offsetValue, int step) {
+        MachineInstruction instruction = load(register, array, step);
+        instruction.INDEXED = true;
+        instruction.LEFT = offset;
+        instruction.LEFT_VALUE = offsetValue;
+        return instruction;
+    }
+
+    /**
+     * "ST array[offset], register"
+     */
+    public static MachineInstruction indexedStore(String array, int offset, int offsetValue, int register, int step) {
+        MachineInstruction instruction = store(array, register, step);
+        instruction.INDEXED = true;
+        instruction.LEFT = offset;
+        instruction.LEFT_VALUE = offsetValue;
+        return instruction;
+    }
+
+    public static MachineInstruction operation(String operation, int assign, int left, int leftValue, int right, int rightValue, int step) {
+        MachineInstruction instruction = new MachineInstruction(operation, step);
+        instruction.ASSIGN = assign;
+        instruction.LEFT = left;
+        instruction.LEFT_VALUE = leftValue;
+        instruction.RIGHT = right;
+        instruction.RIGHT_VALUE = rightValue;
+        return instruction;
+    }
+
+    /**
+     * "ADD destination, #0, source"
+     */
+    public static MachineInstruction move(int destination, int source, int step) {
+        return operation("ADD", destination, -1, 0, source, 0, step);
+    }
+
+    /**
+     * Append the instructions of line i of the code, once its operands are in registers.
+     * <p>
+     * An LD line loads the element into assign. An ST line stores right into the element; it also defines its value
+     * variable again, which only needs a move when the allocator gave it another register. "ADD Rx, #0, Rx" is a no-op
+     * and is never emitted, but any other operation must be emitted even in place.
+     */
+    public static void emit(ThreeAddressCode code, int i, int assign, int left, int right, int step, List<MachineInstruction> output) {
+        if (code.ARRAY[i] == null) {
+            MachineInstruction operation = operation(code.OPERATION[i], assign, left, code.LEFT_VALUE[i], right, code.RIGHT_VALUE[i], step);
+            if (!operation.isSelfMove()) output.add(operation);
+        } else if (code.OPERATION[i].equals("LD")) {
+            output.add(indexedLoad(assign, code.ARRAY[i], left, code.LEFT_VALUE[i], step));
+        } else {
+            output.add(indexedStore(code.ARRAY[i], left, code.LEFT_VALUE[i], right, step));
+            if (assign != right) output.add(move(assign, right, step));
+        }
+    }
+
+    /**
+     * The memory name of the element of an array at a byte offset, e.g. "a[2]".
+     */
+    public static String element(String array, int offset) {
+        return array + "[" + Math.floorDiv(offset, CacheModel.WORD_SIZE) + "]";
+    }
+
+    /**
+     * Whether a memory name is an element of an array rather than a variable.
+     */
+    public static boolean isElement(String memory) {
+        return memory.endsWith("]");
+    }
+
+    /**
+     * Read back one line of printed machine code, e.g. "LD R0, a", "ST a, R0", "LD R0, a[R1]", "ST a[#8], R0" or
+     * "ADD R1, #0, R0".
+     */
+    public static MachineInstruction parse(String line, int step) {
+        String[] parts = line.trim().split("[\\s,]+");
+        try {
+            switch (parts[0]) {
+                case "LD":
+                    if (parts.length == 3 && isIndexed(parts[2])) {
+                        String offset = offset(parts[2]);
+                        return indexedLoad(register(parts[1]), array(parts[2]), operandRegister(offset), operandValue(offset), step);
+                    }
+                    if (parts.length == 3) return load(register(parts[1]), parts[2], step);
+                    break;
+                case "ST":
+                    if (parts.length == 3 && isIndexed(parts[1])) {
+                        String offset = offset(parts[1]);
+                        return indexedStore(array(parts[1]), operandRegister(offset), operandValue(offset), register(parts[2]), step);
+                    }
+                    if (parts.length == 3) return store(parts[1], register(parts[2]), step);
+                    break;
+                case "ADD":
+                case "MIN":
+                case "MUL":
+                case "DIV":
+                    if (parts.length == 4) {
+                        return operation(parts[0], register(parts[1]), operandRegister(parts[2]), operandValue(parts[2]),
+                                operandRegister(parts[3]), operandValue(parts[3]), step);
+                    }
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        throw new IllegalArgumentException("Invalid machine instruction: " + line);
+    }
+
+    private static int register(String text) {
+        if (text.charAt(0) != 'R') throw new NumberFormatException(text);
+        return Integer.parseInt(text.substring(1));
+    }
+
+    private static boolean isIndexed(String text) {
+        return text.indexOf('[') > 0 && text.endsWith("]");
+    }
+
+    private static String array(String text) {
+        return text.substring(0, text.indexOf('['));
+    }
+
+    private static String offset(String text) {
+        return text.substring(text.indexOf('[') + 1, text.length() - 1);
+    }
+
+    private static int operandRegister(String text) {
+        return text.charAt(0) == '#' ? -1 : register(text);
+    }
+
+    private static int operandValue(String text) {
+        return text.charAt(0) == '#' ? Integer.parseInt(text.substring(1)) : 0;
+    }
+
+    public boolean isLoad() {
+        return OPERATION.equals("LD");
+    }
+
+    public boolean isStore() {
+        return OPERATION.equals("ST");
+    }
+
+    public boolean isMemory() {
+        return isLoad() || isStore();
+    }
+
+    public boolean isMove() {
+        return OPERATION.equals("ADD") && LEFT < 0 && LEFT_VALUE == 0 && RIGHT >= 0;
+    }
+
+    /**
+     * "ADD Rx, #0, Rx" does nothing.
+     */
+    public boolean isSelfMove() {
+        return isMove() && RIGHT == ASSIGN;
+    }
+
+    public boolean reads(int register) {
+        return register >= 0 && (LEFT == register || RIGHT == register);
+    }
+
+    public boolean writes(int register) {
+        return register >= 0 && ASSIGN == register;
+    }
+
+    private static String operand(int register, int value) {
+        return register < 0 ? "#" + value : "R" + register;
+    }
+
+    @Override
+    public String toString() {
+        String memory = INDEXED ? MEMORY + "[" + operand(LEFT, LEFT_VALUE) + "]" : MEMORY;
+        if (isLoad()) return "LD R" + ASSIGN + ", " + memory;
+        if (isStore()) return "ST " + memory + ", R" + RIGHT;
+        return OPERATION + " R" + ASSIGN + ", " + operand(LEFT, LEFT_VALUE) + ", " + operand(RIGHT, RIGHT_VALUE);
+    }
+}
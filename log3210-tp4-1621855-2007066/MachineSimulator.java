@@ -0,0 +1,316 @@
+package analyzer.visitors;
+
+import analyzer.ast.ParseException;
+import analyzer.ast.Parser;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.TreeMap;
+
+/**
+ * Executes the LD / ST / ADD / MIN / MUL / DIV code printed by PrintMachineCodeVisitor on a memory image and counts
+ * its cycles.
+ * <p>
+ * Cycles follow the in-order pipeline of {@link LatencyModel}, where every LD and ST also goes through a
+ * {@link CacheModel}: a load that misses waits for the miss penalty, a store that misses allocates its line but is
+ * buffered and does not stall.
+ */
+public class MachineSimulator {
+    private final LatencyModel latencies;
+    private final CacheModel cache;
+
+    // variables pour les metrics
+    public long INSTRUCTIONS = 0;
+    public long CYCLES = 0;
+
+    public MachineSimulator() {
+        this(new LatencyModel(), new CacheModel());
+    }
+
+    public MachineSimulator(LatencyModel latencies, CacheModel cache) {
+        this.latencies = latencies;
+        this.cache = cache;
+    }
+
+    public CacheModel cache() {
+        return cache;
+    }
+
+    /**
+     * Read printed machine code, skipping the "//" comment lines.
+     */
+    public static ArrayList<MachineInstruction> load(Reader reader) throws IOException {
+        ArrayList<MachineInstruction> code = new ArrayList<>();
+        BufferedReader lines = new BufferedReader(reader);
+        int step = 0;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            line = line.trim();
+            if (line.startsWith("// Step ")) step = Integer.parseInt(line.substring(8).trim());
+            if (line.isEmpty() || line.startsWith("//")) continue;
+            code.add(MachineInstruction.parse(line, step));
+        }
+        return code;
+    }
+
+    /**
+     * Read machine code in either format, binary when it starts with the magic of BinaryMachineCode.
+     */
+    public static ArrayList<MachineInstruction> load(byte[] output) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(output);
+        if (output.length >= 4 && buffer.getInt(0) == BinaryMachineCode.MAGIC) {
+            return BinaryMachineCode.read(Channels.newChannel(new ByteArrayInputStream(output)));
+        }
+        return load(new StringReader(new String(output, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Run the code, the stores update memory in place.
+     */
+    public void run(List<MachineInstruction> code, Map<String, Integer> memory) {
+        int registers = 0;
+        for (MachineInstruction instruction : code) {
+            registers = Math.max(registers, Math.max(instruction.ASSIGN, Math.max(instruction.LEFT, instruction.RIGHT)) + 1);
+        }
+        int[] values = new int[registers];
+        boolean[] written = new boolean[registers];
+        long[] ready = new long[registers];
+        HashMap<String, Long> stored = new HashMap<>();
+
+        long issue = -1;
+        for (MachineInstruction instruction : code) {
+            long start = issue + 1;
+            if (instruction.LEFT >= 0) start = Math.max(start, ready[instruction.LEFT]);
+            if (instruction.RIGHT >= 0) start = Math.max(start, ready[instruction.RIGHT]);
+            long latency = latencies.latency(instruction.OPERATION);
+
+            if (instruction.isLoad()) {
+                start = Math.max(start, stored.getOrDefault(instruction.MEMORY, 0L));
+                latency += access(instruction, values, written);
+                values[instruction.ASSIGN] = memory.getOrDefault(address(instruction, values, written), 0);
+                written[instruction.ASSIGN] = true;
+            } else if (instruction.isStore()) {
+                access(instruction, values, written);
+                memory.put(address(instruction, values, written), read(values, written, instruction.RIGHT, instruction));
+                stored.put(instruction.MEMORY, start + latency);
+            } else {
+                int left = instruction.LEFT < 0 ? instruction.LEFT_VALUE : read(values, written, instruction.LEFT, instruction);
+                int right = instruction.RIGHT < 0 ? instruction.RIGHT_VALUE : read(values, written, instruction.RIGHT, instruction);
+                values[instruction.ASSIGN] = ThreeAddressCode.apply(instruction.OPERATION, left, right);
+                written[instruction.ASSIGN] = true;
+            }
+
+            issue = start;
+            if (instruction.ASSIGN >= 0) ready[instruction.ASSIGN] = start + latency;
+            CYCLES = Math.max(CYCLES, start + latency);
+            INSTRUCTIONS++;
+        }
+    }
+
+    /**
+     * The memory name an LD or ST accesses: its variable, or the element of its array.
+     */
+    private static String address(MachineInstruction instruction, int[] values, boolean[] written) {
+        if (!instruction.INDEXED) return instruction.MEMORY;
+        return MachineInstruction.element(instruction.MEMORY, offset(instruction, values, written));
+    }
+
+    private static int offset(MachineInstruction instruction, int[] values, boolean[] written) {
+        return instruction.LEFT < 0 ? instruction.LEFT_VALUE : read(values, written, instruction.LEFT, instruction);
+    }
+
+    private int access(MachineInstruction instruction, int[] values, boolean[] written) {
+        if (!instruction.INDEXED) return cache.access(instruction.MEMORY);
+        return cache.access(instruction.MEMORY, offset(instruction, values, written));
+    }
+
+    private static int read(int[] values, boolean[] written, int register, MachineInstruction instruction) {
+        if (!written[register]) {
+            throw new IllegalStateException("R" + register + " is read before it is written: " + instruction);
+        }
+        return values[register];
+    }
+
+    /**
+     * Run the code and compare every returned variable and every array element with the value the source code gives
+     * it.
+     *
+     * @throws IllegalStateException When a returned variable differs
+     */
+    public void check(ThreeAddressCode source, List<MachineInstruction> code, Map<String, Integer> image) {
+        Map<String, Integer> expected = new HashMap<>(image);
+        source.evaluate(expected);
+        Map<String, Integer> memory = new HashMap<>(image);
+        run(code, memory);
+        for (int v = 0; v < source.variableCount(); v++) {
+            if (!Liveness.contains(source.RETURNED, v)) continue;
+            String name = source.VARIABLES.get(v);
+            int want = expected.getOrDefault(name, 0);
+            int got = memory.getOrDefault(name, 0);
+            if (want != got) {
+                throw new IllegalStateException("Returned variable " + name + " is " + got + ", expected " + want);
+            }
+        }
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            if (!MachineInstruction.isElement(entry.getKey())) continue;
+            int got = memory.getOrDefault(entry.getKey(), 0);
+            if (entry.getValue() != got) {
+                throw new IllegalStateException("Array element " + entry.getKey() + " is " + got + ", expected " + entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * A reproducible memory image with a value in [-100, 100] for every variable of the source code.
+     */
+    public static HashMap<String, Integer> image(ThreeAddressCode source, long seed) {
+        Random random = new Random(seed);
+        HashMap<String, Integer> image = new HashMap<>();
+        for (String variable : source.VARIABLES) image.put(variable, random.nextInt(201) - 100);
+        return image;
+    }
+
+    /**
+     * Compile a source with an allocator, then run the code on the memory image of a seed and check it.
+     *
+     * @return The simulator of the run, with its cycles
+     * @throws IllegalStateException When the code gives another value than the source
+     */
+    public static MachineSimulator check(byte[] source, PrintMachineCodeVisitor.Allocator allocator, long seed,
+                                         LatencyModel latencies, CacheModel cache) throws ParseException, IOException {
+        return check(source, new MachineCodeCompiler(allocator, false, null), seed, latencies, cache);
+    }
+
+    /**
+     * Compile a source with the options of a compiler, then run the code on the memory image of a seed and check it.
+     * The source code to check against is taken from a buffered compile, since a streamed one only keeps its last
+     * window.
+     *
+     * @return The simulator of the run, with its cycles
+     * @throws IllegalStateException When the code gives another value than the source
+     */
+    public static MachineSimulator check(byte[] source, MachineCodeCompiler compiler, long seed,
+                                         LatencyModel latencies, CacheModel cache) throws ParseException, IOException {
+        PrintMachineCodeVisitor reference = new PrintMachineCodeVisitor(new PrintWriter(Writer.nullWriter()));
+        reference.visitStatements(new Parser(new ByteArrayInputStream(source)));
+
+        ThreeAddressCode code = reference.threeAddressCode();
+        MachineSimulator simulator = new MachineSimulator(latencies, cache);
+        simulator.check(code, load(compiler.compile(source)), image(code, seed));
+        return simulator;
+    }
+
+    public String metrics() {
+        return String.format("{INSTRUCTIONS:%d, CYCLES:%d, HITS:%d, MISSES:%d}", INSTRUCTIONS, CYCLES, cache.HITS, cache.MISSES);
+    }
+
+    /**
+     * MachineSimulator [-latency LD=3,...] [-cache sets,ways,line,penalty] file [var=value ...]
+     * <br>
+     * MachineSimulator [-latency LD=3,...] [-cache sets,ways,line,penalty] [-seeds count] -check source ...
+     * <p>
+     * The file holds either printed or binary machine code. With -check, each source, or each .txt source of a
+     * directory, is compiled with every allocator and its code checked on the memory image of each seed; the cycles
+     * of each allocator are summed over the seeds.
+     */
+    public static void main(String[] args) throws IOException {
+        LatencyModel latencies = new LatencyModel();
+        CacheModel cache = new CacheModel();
+        String file = null;
+        Map<String, Integer> memory = new TreeMap<>();
+        boolean check = false;
+        int seeds = 10;
+        ArrayList<String> sources = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-check")) {
+                check = true;
+            } else if (args[i].equals("-seeds") && i + 1 < args.length) {
+                seeds = Integer.parseInt(args[++i]);
+            } else if (check) {
+                sources.add(args[i]);
+            } else if (args[i].equals("-latency") && i + 1 < args.length) {
+                latencies = LatencyModel.parse(args[++i]);
+            } else if (args[i].equals("-cache") && i + 1 < args.length) {
+                String[] geometry = args[++i].split(",");
+                if (geometry.length != 4) throw new IllegalArgumentException("Invalid cache: " + args[i]);
+                cache = new CacheModel(Integer.parseInt(geometry[0]), Integer.parseInt(geometry[1]),
+                        Integer.parseInt(geometry[2]), Integer.parseInt(geometry[3]));
+            } else if (args[i].contains("=")) {
+                String[] binding = args[i].split("=", 2);
+                memory.put(binding[0], Integer.parseInt(binding[1]));
+            } else {
+                file = args[i];
+            }
+        }
+        if (check && !sources.isEmpty()) {
+            System.exit(checkCorpus(sources, seeds, latencies, cache) ? 0 : 1);
+        }
+        if (file == null) {
+            System.err.println("Usage: MachineSimulator [-latency LD=3,...] [-cache sets,ways,line,penalty] file [var=value ...]");
+            System.err.println("       MachineSimulator [-latency LD=3,...] [-cache sets,ways,line,penalty] [-seeds count] -check source ...");
+            System.exit(1);
+        }
+
+        List<MachineInstruction> code = load(Files.readAllBytes(Paths.get(file)));
+        MachineSimulator simulator = new MachineSimulator(latencies, cache);
+        simulator.run(code, memory);
+        for (Map.Entry<String, Integer> entry : memory.entrySet()) {
+            System.out.println(entry.getKey() + " = " + entry.getValue());
+        }
+        System.out.println(simulator.metrics());
+    }
+
+    /**
+     * Check every source with every allocator and print the cycles of each.
+     *
+     * @return Whether the code of every source was right
+     */
+    private static boolean checkCorpus(List<String> sources, int seeds, LatencyModel latencies, CacheModel cache) throws IOException {
+        ArrayList<Path> files = new ArrayList<>();
+        for (String source : sources) {
+            Path path = Paths.get(source);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> entries = Files.list(path)) {
+                    entries.filter(entry -> entry.toString().endsWith(".txt")).sorted().forEach(files::add);
+                }
+            } else {
+                files.add(path);
+            }
+        }
+
+        boolean right = true;
+        System.out.printf("%-30s %-15s %12s%n", "source", "allocator", "cycles");
+        for (Path path : files) {
+            byte[] source = Files.readAllBytes(path);
+            for (PrintMachineCodeVisitor.Allocator allocator : PrintMachineCodeVisitor.Allocator.values()) {
+                long cycles = 0;
+                try {
+                    for (int seed = 0; seed < seeds; seed++) {
+                        cycles += check(source, allocator, seed, latencies, cache.empty()).CYCLES;
+                    }
+                    System.out.printf("%-30s %-15s %12d%n", path.getFileName(), allocator, cycles);
+                } catch (ParseException | IllegalStateException e) {
+                    System.out.printf("%-30s %-15s %12s %s%n", path.getFileName(), allocator, "FAILED", e.getMessage());
+                    right = false;
+                }
+            }
+        }
+        return right;
+    }
+}
@@ -0,0 +1,90 @@
+package analyzer.visitors;
+
+import java.util.Arrays;
+
+/**
+ * Next-use information computed in one backward pass over each basic block.
+ * <p>
+ * Every operand slot of a line (left, right, assign) gets the index of the next line that reads the same variable,
+ * or {@link #NONE} when the variable is redefined or dead first. Variables live at the end of a block get the index
+ * of the block end, so they rank after every real use but before dead values.
+ */
+public class NextUseTable {
+    public static final int NONE = Integer.MAX_VALUE;
+
+    private static final int LEFT = 0;
+    private static final int RIGHT = 1;
+    private static final int ASSIGN = 2;
+
+    private final int varCount;
+    private final int[] assign;
+    private final int[] left;
+    private final int[] right;
+    private final Liveness liveness;
+
+    private final int[] next;
+
+    public NextUseTable(int varCount, int[] assign, int[] left, int[] right, Liveness liveness) {
+        this.varCount = varCount;
+        this.assign = assign;
+        this.left = left;
+        this.right = right;
+        this.liveness = liveness;
+        this.next = new int[3 * assign.length];
+    }
+
+    public void compute() {
+        int[] lastSeen = new int[varCount];
+        for (int b = 0; b < liveness.blockCount(); b++) {
+            enterBackward(b, lastSeen);
+            for (int i = liveness.blockEnd(b) - 1; i >= liveness.blockStart(b); i--) {
+                next[3 * i + ASSIGN] = lastSeen[assign[i]];
+                next[3 * i + LEFT] = left[i] < 0 ? NONE : lastSeen[left[i]];
+                next[3 * i + RIGHT] = right[i] < 0 ? NONE : lastSeen[right[i]];
+                lastSeen[assign[i]] = NONE;
+                if (left[i] >= 0) lastSeen[left[i]] = i;
+                if (right[i] >= 0) lastSeen[right[i]] = i;
+            }
+        }
+    }
+
+    private void enterBackward(int block, int[] lastSeen) {
+        Arrays.fill(lastSeen, NONE);
+        long[] out = liveness.blockOut(block);
+        int end = liveness.blockEnd(block);
+        for (int v = 0; v < varCount; v++) {
+            if (Liveness.contains(out, v)) lastSeen[v] = end;
+        }
+    }
+
+    /**
+     * Sets upcoming to the first use of each variable from the start of the block (Next_IN of its first line).
+     */
+    public void enter(int block, int[] upcoming) {
+        enterBackward(block, upcoming);
+        for (int i = liveness.blockEnd(block) - 1; i >= liveness.blockStart(block); i--) {
+            upcoming[assign[i]] = NONE;
+            if (left[i] >= 0) upcoming[left[i]] = i;
+            if (right[i] >= 0) upcoming[right[i]] = i;
+        }
+    }
+
+    /**
+     * Turns Next_IN of the line into its Next_OUT, which is also Next_IN of the next line in the block.
+     */
+    public void advance(int line, int[] upcoming) {
+        if (left[line] >= 0) upcoming[left[line]] = next[3 * line + LEFT];
+        if (right[line] >= 0) upcoming[right[line]] = next[3 * line + RIGHT];
+        upcoming[assign[line]] = next[3 * line + ASSIGN];
+    }
+
+    /**
+     * Next use of the variable after a line that reads it.
+     */
+    public int after(int line, int variable) {
+        if (assign[line] == variable) return NONE;
+        if (left[line] == variable) return next[3 * line + LEFT];
+        if (right[line] == variable) return next[3 * line + RIGHT];
+        return NONE;
+    }
+}
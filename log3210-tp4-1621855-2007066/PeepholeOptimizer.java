@@ -0,0 +1,203 @@
+package analyzer.visitors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Peephole pass over the machine code.
+ * <p>
+ * Every rule of {@link Rule} is tried on each instruction and may look at most WINDOW instructions ahead. The passes
+ * repeat until no rule applies. Adding a rule is adding a constant to the table.
+ * <p>
+ * The memory rules only track variables: an indexed LD or ST names its array, not the element it accesses.
+ */
+public class PeepholeOptimizer {
+    public static final int DEFAULT_WINDOW = 16;
+    private static final int MAX_PASSES = 8;
+
+    private final int window;
+    private MachineInstruction[] code;
+
+    // variables pour les metrics
+    public final int[] APPLIED = new int[Rule.values().length];
+
+    public PeepholeOptimizer() {
+        this(DEFAULT_WINDOW);
+    }
+
+    public PeepholeOptimizer(int window) {
+        this.window = window;
+    }
+
+    /**
+     * The rules, tried in this order. Each one gets the position of an instruction that is still in the code.
+     */
+    public enum Rule {
+        /**
+         * "ADD Rx, #0, Rx" is removed.
+         */
+        SELF_MOVE {
+            @Override
+            boolean apply(PeepholeOptimizer optimizer, int at) {
+                if (!optimizer.code[at].isSelfMove()) return false;
+                optimizer.code[at] = null;
+                return true;
+            }
+        },
+        /**
+         * After "LD Rk, x" or "ST x, Rk", Rk holds x until either changes: a later load of x becomes a move from Rk,
+         * or disappears when it targets Rk.
+         */
+        REDUNDANT_LOAD {
+            @Override
+            boolean apply(PeepholeOptimizer optimizer, int at) {
+                MachineInstruction first = optimizer.code[at];
+                if (!first.isMemory() || first.INDEXED) return false;
+                int register = first.isLoad() ? first.ASSIGN : first.RIGHT;
+                boolean changed = false;
+                for (int k = optimizer.next(at), seen = 1; k >= 0 && seen < optimizer.window; k = optimizer.next(k), seen++) {
+                    MachineInstruction instruction = optimizer.code[k];
+                    if (instruction.isLoad() && !instruction.INDEXED && instruction.MEMORY.equals(first.MEMORY)) {
+                        optimizer.code[k] = instruction.ASSIGN == register ? null
+                                : MachineInstruction.move(instruction.ASSIGN, register, instruction.STEP);
+                        changed = true;
+                        continue;
+                    }
+                    if (instruction.writes(register) || optimizer.overwrites(instruction, first.MEMORY, register)) break;
+                }
+                return changed;
+            }
+        },
+        /**
+         * After "LD Rk, x" or "ST x, Rk", storing Rk to x again changes nothing.
+         */
+        REDUNDANT_STORE {
+            @Override
+            boolean apply(PeepholeOptimizer optimizer, int at) {
+                MachineInstruction first = optimizer.code[at];
+                if (!first.isMemory() || first.INDEXED) return false;
+                int register = first.isLoad() ? first.ASSIGN : first.RIGHT;
+                boolean changed = false;
+                for (int k = optimizer.next(at), seen = 1; k >= 0 && seen < optimizer.window; k = optimizer.next(k), seen++) {
+                    MachineInstruction instruction = optimizer.code[k];
+                    if (instruction.isStore() && !instruction.INDEXED && instruction.MEMORY.equals(first.MEMORY) && instruction.RIGHT == register) {
+                        optimizer.code[k] = null;
+                        changed = true;
+                        continue;
+                    }
+                    if (instruction.writes(register) || optimizer.overwrites(instruction, first.MEMORY, register)) break;
+                }
+                return changed;
+            }
+        },
+        /**
+         * "ST x, Ra" is removed when x is stored again before anything loads it.
+         */
+        DEAD_STORE {
+            @Override
+            boolean apply(PeepholeOptimizer optimizer, int at) {
+                MachineInstruction first = optimizer.code[at];
+                if (!first.isStore() || first.INDEXED) return false;
+                for (int k = optimizer.next(at), seen = 1; k >= 0 && seen < optimizer.window; k = optimizer.next(k), seen++) {
+                    MachineInstruction instruction = optimizer.code[k];
+                    if (!instruction.isMemory() || instruction.INDEXED || !instruction.MEMORY.equals(first.MEMORY)) continue;
+                    if (instruction.isLoad()) return false;
+                    optimizer.code[at] = null;
+                    return true;
+                }
+                return false;
+            }
+        },
+        /**
+         * After "ADD Rd, #0, Rs", reads of Rd use Rs while neither register changes. The move goes away once Rd is
+         * written again, or at the end of the code, without being read in between.
+         */
+        COPY_FORWARD {
+            @Override
+            boolean apply(PeepholeOptimizer optimizer, int at) {
+                MachineInstruction move = optimizer.code[at];
+                if (!move.isMove() || move.isSelfMove()) return false;
+                int destination = move.ASSIGN;
+                int source = move.RIGHT;
+                boolean changed = false;
+                boolean dead = false;
+                int k = optimizer.next(at);
+                for (int seen = 1; k >= 0 && seen < optimizer.window; k = optimizer.next(k), seen++) {
+                    MachineInstruction instruction = optimizer.code[k];
+                    if (instruction.LEFT == destination) {
+                        instruction.LEFT = source;
+                        changed = true;
+                    }
+                    if (instruction.RIGHT == destination) {
+                        instruction.RIGHT = source;
+                        changed = true;
+                    }
+                    if (instruction.writes(destination)) {
+                        dead = true;
+                        break;
+                    }
+                    if (instruction.writes(source)) return changed;
+                }
+                // Rd is dead after the move only if it is written again, or if the code ends, within the window.
+                if (!dead && k >= 0) return changed;
+                optimizer.code[at] = null;
+                return true;
+            }
+        };
+
+        abstract boolean apply(PeepholeOptimizer optimizer, int at);
+    }
+
+    public ArrayList<MachineInstruction> optimize(List<MachineInstruction> input) {
+        code = input.toArray(new MachineInstruction[0]);
+        boolean changed = true;
+        for (int pass = 0; pass < MAX_PASSES && changed; pass++) {
+            changed = false;
+            for (int at = 0; at < code.length; at++) {
+                for (Rule rule : Rule.values()) {
+                    if (code[at] == null) break;
+                    if (rule.apply(this, at)) {
+                        APPLIED[rule.ordinal()]++;
+                        changed = true;
+                    }
+                }
+            }
+            code = compact();
+        }
+        return new ArrayList<>(List.of(code));
+    }
+
+    private MachineInstruction[] compact() {
+        int size = 0;
+        for (MachineInstruction instruction : code) {
+            if (instruction != null) code[size++] = instruction;
+        }
+        return Arrays.copyOf(code, size);
+    }
+
+    /**
+     * Position of the next instruction still in the code, -1 at the end.
+     */
+    private int next(int at) {
+        for (int k = at + 1; k < code.length; k++) {
+            if (code[k] != null) return k;
+        }
+        return -1;
+    }
+
+    /**
+     * Whether the instruction puts another value than the register in memory at the variable.
+     */
+    private boolean overwrites(MachineInstruction instruction, String memory, int register) {
+        return instruction.isStore() && instruction.MEMORY.equals(memory) && instruction.RIGHT != register;
+    }
+
+    public String metrics() {
+        ArrayList<String> items = new ArrayList<>();
+        for (Rule rule : Rule.values()) {
+            items.add(String.format("%s:%d", rule, APPLIED[rule.ordinal()]));
+        }
+        return "{" + String.join(", ", items) + "}";
+    }
+}
@@ -2,29 +2,130 @@ package analyzer.visitors;
 
 import analyzer.ast.*;
 
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
 
 public class PrintMachineCodeVisitor implements ParserVisitor {
+    /**
+     * The register allocators available to a compile.
+     */
+    public enum Allocator {
+        NEXT_USE,
+        GRAPH_COLORING,
+        LINEAR_SCAN
+    }
+
     private PrintWriter m_writer = null;
+    private WritableByteChannel m_channel = null;
+    private final Allocator ALLOCATOR;
+    private final boolean PEEPHOLE;
+    private final LatencyModel SCHEDULING;
 
     private int MAX_REGISTERS_COUNT = 256;
 
     private final ArrayList<String> RETURNS = new ArrayList<>();
     private final ArrayList<MachineCodeLine> CODE = new ArrayList<>();
 
-    private final ArrayList<String> MODIFIED = new ArrayList<>();
-    private final ArrayList<String> REGISTERS = new ArrayList<>();
+    private final ArrayList<String> VARIABLES = new ArrayList<>();
+    private final HashMap<String, Integer> VARIABLE_IDS = new HashMap<>();
+    private final ArrayList<String> ARRAYS = new ArrayList<>();
+    private ThreeAddressCode THREE_ADDRESS_CODE = null;
+    private Liveness LIVENESS = null;
+    private NextUseTable NEXT_USE = null;
+
+    // Lines the NEXT_USE allocator compiles at a time when the code is streamed, 0 to buffer the whole program.
+    private int WINDOW = 0;
+    // Lines read past a window before compiling it, so that its next uses see that far.
+    private int LOOKAHEAD = 0;
+    // Line of the program at CODE[0], once the windows before it were compiled and dropped.
+    private int FIRST_LINE = 0;
+    // The registers a window leaves to the next one.
+    private RegisterFile STREAM_REGISTERS = null;
 
     private final HashMap<String, String> OPERATIONS = new HashMap<>();
+    private Map<String, Long> PROFILE = Collections.emptyMap();
+
+    // variables pour les metrics
+    public int LOADS = 0;
+    public int STORES = 0;
+    public long UNSCHEDULED_CYCLES = 0;
+    public long CYCLES = 0;
+    public int COALESCED = 0;
+    public int WINDOWS = 0;
+    public int PEAK_LINES = 0;
+    public int PEAK_VARIABLES = 0;
 
     public PrintMachineCodeVisitor(PrintWriter writer) {
+        this(writer, Allocator.NEXT_USE);
+    }
+
+    public PrintMachineCodeVisitor(PrintWriter writer, Allocator allocator) {
+        this(writer, allocator, false);
+    }
+
+    public PrintMachineCodeVisitor(PrintWriter writer, Allocator allocator, boolean peephole) {
+        this(writer, allocator, peephole, null);
+    }
+
+    /**
+     * @param scheduling The latency model to schedule the code with, null to keep the order of CODE
+     */
+    public PrintMachineCodeVisitor(PrintWriter writer, Allocator allocator, boolean peephole, LatencyModel scheduling) {
         m_writer = writer;
+        ALLOCATOR = allocator;
+        PEEPHOLE = peephole;
+        SCHEDULING = scheduling;
 
         OPERATIONS.put("+", "ADD");
         OPERATIONS.put("-", "MIN");
         OPERATIONS.put("*", "MUL");
         OPERATIONS.put("/", "DIV");
+        OPERATIONS.put("LD", "LD");
+        OPERATIONS.put("ST", "ST");
+    }
+
+    /**
+     * Write the code in the format of BinaryMachineCode instead of text.
+     *
+     * @param channel The binary output
+     * @param debug   Where to write the liveness and next-use annotations, null to skip them
+     */
+    public PrintMachineCodeVisitor(WritableByteChannel channel, PrintWriter debug, Allocator allocator, boolean peephole, LatencyModel scheduling) {
+        this(debug, allocator, peephole, scheduling);
+        m_channel = channel;
+    }
+
+    /**
+     * Weight the evictions of the NEXT_USE allocator with the accesses of each variable in a profiled run.
+     *
+     * @param uses The accesses of each variable, as counted by the ProfileRunner of the intermediate code
+     */
+    public void setProfile(Map<String, Long> uses) {
+        PROFILE = uses;
+    }
+
+    /**
+     * Compile the code of the NEXT_USE allocator a window at a time, as the statements are visited, and drop each
+     * window once printed: CODE never holds more than a window, its look-ahead and the last statement. Past the
+     * look-ahead, every variable counts as live and not used again, so a window stores what it evicts and leaves the
+     * rest in the registers for the next one. The variables neither the registers nor the look-ahead name are then
+     * forgotten, so VARIABLES does not grow with the program either. Without the peephole pass and the binary output
+     * only, whose rewrites and header need the whole code. See {@link #visitStatements} to parse a statement at a
+     * time as well.
+     *
+     * @param lines     The window size, 0 to buffer the whole program
+     * @param lookahead The lines read past the window before it is compiled
+     */
+    public void setWindow(int lines, int lookahead) {
+        WINDOW = lines;
+        LOOKAHEAD = lookahead;
+    }
+
+    private boolean streaming() {
+        return WINDOW > 0 && ALLOCATOR == Allocator.NEXT_USE && !PEEPHOLE && m_channel == null;
     }
 
     @Override
@@ -35,13 +136,31 @@ public class PrintMachineCodeVisitor implements ParserVisitor {
     @Override
     public Object visit(ASTProgram node, Object data) {
         node.childrenAccept(this, null);
+        endProgram();
+        return null;
+    }
 
-        computeLifeVar();
+    /**
+     * Compile a program as the parser reads it, like a visit of its ASTProgram: each statement is visited and dropped
+     * before the next one is parsed, so the AST never holds more than one statement.
+     */
+    public void visitStatements(Parser parser) throws ParseException {
+        parser.Header().childrenAccept(this, null);
+        for (Node statement = parser.NextStmt(); statement != null; statement = parser.NextStmt()) {
+            statement.jjtAccept(this, null);
+        }
+        endProgram();
+    }
+
+    private void endProgram() {
+        if (streaming()) {
+            compileWindow(CODE.size(), true);
+            return;
+        }
+        computeLifeVar(true);
         computeNextUse();
 
         printMachineCode();
-
-        return null;
     }
 
     @Override
@@ -67,6 +186,9 @@ public class PrintMachineCodeVisitor implements ParserVisitor {
     @Override
     public Object visit(ASTStmt node, Object data) {
         node.childrenAccept(this, null);
+        PEAK_LINES = Math.max(PEAK_LINES, CODE.size());
+        PEAK_VARIABLES = Math.max(PEAK_VARIABLES, VARIABLES.size());
+        while (streaming() && CODE.size() >= WINDOW + LOOKAHEAD) compileWindow(WINDOW, false);
         return null;
     }
 
@@ -118,6 +240,46 @@ public class PrintMachineCodeVisitor implements ParserVisitor {
         return null;
     }
 
+    @Override
+    public Object visit(ASTArrayLoadStmt node, Object data) {
+        // Here the type of Assignment is "assigned = array[index]".
+        String assignedVariable = (String) node.jjtGetChild(0).jjtAccept(this, null);
+        String array = (String) node.jjtGetChild(1).jjtAccept(this, null);
+        String offset = offset((String) node.jjtGetChild(2).jjtAccept(this, null));
+
+        CODE.add(new MachineCodeLine("LD", array, assignedVariable, offset, "#0"));
+
+        return null;
+    }
+
+    @Override
+    public Object visit(ASTArrayStoreStmt node, Object data) {
+        // Here the type of Assignment is "array[index] = right".
+        String array = (String) node.jjtGetChild(0).jjtAccept(this, null);
+        String offset = offset((String) node.jjtGetChild(1).jjtAccept(this, null));
+        String rightExpression = (String) node.jjtGetChild(2).jjtAccept(this, null);
+
+        if (rightExpression.charAt(0) == '#') {
+            // ST only stores a register, the constant goes through the variable "array_value".
+            String value = array + "_value";
+            CODE.add(new MachineCodeLine("+", value, "#0", rightExpression));
+            rightExpression = value;
+        }
+        CODE.add(new MachineCodeLine("ST", array, rightExpression, offset, rightExpression));
+
+        return null;
+    }
+
+    /**
+     * The byte offset of an array index: a constant is scaled right away, a variable by a MUL into "index*4".
+     */
+    private String offset(String index) {
+        if (index.charAt(0) == '#') return "#" + Integer.parseInt(index.substring(1)) * CacheModel.WORD_SIZE;
+        String offset = index + "*" + CacheModel.WORD_SIZE;
+        CODE.add(new MachineCodeLine("*", offset, index, "#" + CacheModel.WORD_SIZE));
+        return offset;
+    }
+
     @Override
     public Object visit(ASTExpr node, Object data) {
         return node.jjtGetChild(0).jjtAccept(this, null);
@@ -133,131 +295,271 @@ public class PrintMachineCodeVisitor implements ParserVisitor {
         return node.getValue();
     }
 
-    private void computeLifeVar() {
-        // TODO (ex2): Implement life variables algorithm on the CODE array.
-        for (int i = 0; i < CODE.size(); i++) {
-            CODE.get(i).Life_IN.clear();
-            CODE.get(i).Life_OUT.clear();
-        }
-
-        CODE.get(CODE.size() - 1).Life_OUT = new HashSet<>(RETURNS);
+    /**
+     * The source code in array form, once the program was visited. MachineSimulator checks the output against it.
+     */
+    public ThreeAddressCode threeAddressCode() {
+        return THREE_ADDRESS_CODE;
+    }
 
-        for (int i = CODE.size() - 1; i >= 0; i--) {
-            if (i < CODE.size() - 1) {
-                CODE.get(i).Life_OUT = new HashSet<>(CODE.get(i + 1).Life_IN);
-            }
+    /**
+     * Give each variable a dense id, used to index the liveness bitsets.
+     */
+    private int variableId(String variable) {
+        if (variable.charAt(0) == '#') return -1;
+        Integer id = VARIABLE_IDS.get(variable);
+        if (id == null) {
+            id = VARIABLES.size();
+            VARIABLE_IDS.put(variable, id);
+            VARIABLES.add(variable);
+        }
+        return id;
+    }
 
-            HashSet<String> currentLifeIn = new HashSet<>(CODE.get(i).Life_OUT);
-            currentLifeIn.removeAll(CODE.get(i).DEF);
-            currentLifeIn.addAll(CODE.get(i).REF);
+    /**
+     * @param last Whether CODE ends the program, so that only the returned variables live past it
+     */
+    private void computeLifeVar(boolean last) {
+        // TODO (ex2): Implement life variables algorithm on the CODE array.
+        ThreeAddressCode code = new ThreeAddressCode(VARIABLES, CODE.size());
+        for (int i = 0; i < code.size(); i++) {
+            MachineCodeLine line = CODE.get(i);
+            code.OPERATION[i] = line.OPERATION;
+            code.ASSIGN[i] = line.ASSIGN_ID;
+            code.LEFT[i] = line.LEFT_ID;
+            code.RIGHT[i] = line.RIGHT_ID;
+            code.LEFT_VALUE[i] = line.LEFT_ID < 0 ? Integer.parseInt(line.LEFT.substring(1)) : 0;
+            code.RIGHT_VALUE[i] = line.RIGHT_ID < 0 ? Integer.parseInt(line.RIGHT.substring(1)) : 0;
+            code.ARRAY[i] = line.ARRAY;
+        }
+        for (String var : RETURNS) {
+            Integer id = VARIABLE_IDS.get(var);
+            if (id != null) Liveness.add(code.RETURNED, id);
+        }
+        THREE_ADDRESS_CODE = code;
 
-            CODE.get(i).Life_IN = currentLifeIn;
+        long[] exit = code.RETURNED;
+        if (!last) {
+            // The lines not read yet may use any variable.
+            exit = Liveness.newSet(VARIABLES.size());
+            for (int v = 0; v < VARIABLES.size(); v++) Liveness.add(exit, v);
         }
+        // The code has no jumps, so CODE is a single basic block without successor.
+        LIVENESS = new Liveness(VARIABLES.size(), code.ASSIGN, code.LEFT, code.RIGHT, new int[]{0}, new int[][]{{}}, exit);
+        LIVENESS.solve();
     }
 
     private void computeNextUse() {
         // TODO (ex3): Implement next-use algorithm on the CODE array.
-        for (int i = 0; i < CODE.size(); i++) {
-            CODE.get(i).Next_IN.nextUse.clear();
-            CODE.get(i).Next_OUT.nextUse.clear();
-        }
+        ThreeAddressCode code = THREE_ADDRESS_CODE;
+        NEXT_USE = new NextUseTable(VARIABLES.size(), code.ASSIGN, code.LEFT, code.RIGHT, LIVENESS);
+        NEXT_USE.compute();
+    }
 
-        for (int i = CODE.size() - 1; i >= 0; i--) {
-            if (i < CODE.size() - 1) {
-                CODE.get(i).Next_OUT.nextUse = new HashMap<>(CODE.get(i + 1).Next_IN.nextUse);
+    /**
+     * Rebuild the full next-use lists of a program point, for the debug output only.
+     *
+     * @param upcoming The next use of each variable at this point
+     * @param end      The end of the current block
+     */
+    private NextUse nextUse(int[] upcoming, int end) {
+        NextUse next = new NextUse();
+        for (int v = 0; v < upcoming.length; v++) {
+            for (int p = upcoming[v]; p < end; p = NEXT_USE.after(p, v)) {
+                next.add(VARIABLES.get(v), p);
             }
+        }
+        return next;
+    }
 
-            int finalI = i;
-            CODE.get(i).Next_OUT.nextUse.forEach((variable, positions) -> {
-                if (!CODE.get(finalI).DEF.contains(variable)) {
-                    CODE.get(finalI).Next_IN.nextUse.put(variable, new ArrayList<>(positions));
-                }
-            });
-
-            final int position = i;
-            CODE.get(i).REF.forEach(ref -> {
-                if (!CODE.get(finalI).Next_IN.nextUse.containsKey(ref)) {
-                    CODE.get(finalI).Next_IN.nextUse.put(ref, new ArrayList<>());
-                }
-                CODE.get(finalI).Next_IN.nextUse.get(ref).add(position);
-            });
+    /**
+     * Print the machine code in the output file
+     */
+    public void printMachineCode() {
+        // TODO (ex4): Print the machine code in the output file.
+        // You should change the code below.
+        List<MachineInstruction> output;
+        if (ALLOCATOR == Allocator.GRAPH_COLORING) {
+            // The code has no loops, every line runs once.
+            output = new GraphColoringAllocator(THREE_ADDRESS_CODE, MAX_REGISTERS_COUNT, new int[CODE.size()]).allocate();
+        } else if (ALLOCATOR == Allocator.LINEAR_SCAN) {
+            output = new LinearScanAllocator(THREE_ADDRESS_CODE, MAX_REGISTERS_COUNT, LIVENESS, NEXT_USE).allocate();
+        } else {
+            output = allocateNextUse();
         }
+        emit(output, CODE.size());
     }
 
     /**
-     * This function should generate the LD and ST when needed.
+     * Compile and print the first lines of CODE, then drop them. The lines after them only serve as look-ahead and
+     * are compiled with the next window.
+     *
+     * @param last Whether the window ends the program, which stores the returned variables
      */
-    public String chooseRegister(String variable, HashSet<String> life, NextUse next, boolean loadIfNotFound) {
-        // TODO (ex4): if variable is a constant (starts with '#'), return variable
-        // TODO (ex4): if REGISTERS contains variable, return "R" + index
-        // TODO (ex4): if REGISTERS size is not max (< MAX_REGISTERS_COUNT), add variable to REGISTERS and return "R" + index
-        // TODO (ex4): if REGISTERS has max size:
-        if (variable.charAt(0) == '#') return variable;
-
-        if (REGISTERS.contains(variable)) return "R" + REGISTERS.indexOf(variable);
-
-        if (REGISTERS.size() < MAX_REGISTERS_COUNT) {
-            REGISTERS.add(variable);
-            int regIndex = REGISTERS.size() - 1;
-            if (loadIfNotFound) m_writer.println("LD R" + regIndex + ", " + variable);
-            return "R" + regIndex;
+    private void compileWindow(int lines, boolean last) {
+        computeLifeVar(last);
+        computeNextUse();
+        if (STREAM_REGISTERS == null) STREAM_REGISTERS = new RegisterFile(MAX_REGISTERS_COUNT, VARIABLES.size());
+        STREAM_REGISTERS.addVariables(VARIABLES.size());
+
+        Allocation allocation = new Allocation(0, lines, -1, Liveness.newSet(VARIABLES.size()), new int[VARIABLES.size()], STREAM_REGISTERS);
+        allocation.LAST = last;
+        emit(allocation.allocate(), lines);
+        COALESCED += allocation.COALESCED;
+        WINDOWS++;
+
+        FIRST_LINE += lines;
+        CODE.subList(0, lines).clear();
+        if (!last) forgetVariables();
+    }
+
+    /**
+     * Forget the variables that neither the registers nor the lines left in CODE name, and the arrays those lines do
+     * not access. The others are numbered again in the order of VARIABLES. A forgotten variable is in memory, and
+     * gets a new number if the code names it again.
+     */
+    private void forgetVariables() {
+        int[] ids = new int[VARIABLES.size()];
+        Arrays.fill(ids, -1);
+        for (int reg = 0; reg < STREAM_REGISTERS.used(); reg++) {
+            int var = STREAM_REGISTERS.variableOf(reg);
+            if (var >= 0) ids[var] = 0;
+        }
+        HashSet<String> arrays = new HashSet<>();
+        for (MachineCodeLine line : CODE) {
+            if (line.ASSIGN_ID >= 0) ids[line.ASSIGN_ID] = 0;
+            if (line.LEFT_ID >= 0) ids[line.LEFT_ID] = 0;
+            if (line.RIGHT_ID >= 0) ids[line.RIGHT_ID] = 0;
+            if (line.ARRAY != null) arrays.add(line.ARRAY);
         }
 
-        String toReplace = null;
-        int latestUseIndex = -1;
+        ArrayList<String> kept = new ArrayList<>();
+        VARIABLE_IDS.clear();
+        for (int var = 0; var < ids.length; var++) {
+            if (ids[var] < 0) continue;
+            ids[var] = kept.size();
+            VARIABLE_IDS.put(VARIABLES.get(var), ids[var]);
+            kept.add(VARIABLES.get(var));
+        }
+        VARIABLES.clear();
+        VARIABLES.addAll(kept);
+        ARRAYS.retainAll(arrays);
+        for (MachineCodeLine line : CODE) {
+            line.ASSIGN_ID = renumber(ids, line.ASSIGN_ID);
+            line.LEFT_ID = renumber(ids, line.LEFT_ID);
+            line.RIGHT_ID = renumber(ids, line.RIGHT_ID);
+        }
+        STREAM_REGISTERS.renumber(ids, VARIABLES.size());
+    }
 
-        for (String regVar : REGISTERS) {
-            if (!next.nextUse.containsKey(regVar) || next.nextUse.get(regVar).isEmpty()) {
-                toReplace = regVar;
-                break;
-            } else {
-                int nextUseTime = next.nextUse.get(regVar).get(0);
-                if (nextUseTime > latestUseIndex) {
-                    latestUseIndex = nextUseTime;
-                    toReplace = regVar;
-                }
-            }
+    private static int renumber(int[] ids, int variable) {
+        return variable < 0 ? variable : ids[variable];
+    }
+
+    /**
+     * Schedule, count and print the instructions of the first lines of CODE.
+     */
+    private void emit(List<MachineInstruction> output, int lines) {
+        if (PEEPHOLE) output = new PeepholeOptimizer().optimize(output);
+
+        LatencyModel model = SCHEDULING != null ? SCHEDULING : new LatencyModel();
+        UNSCHEDULED_CYCLES += model.cycles(output);
+        if (SCHEDULING != null) {
+            int[] blockStarts = new int[LIVENESS.blockCount()];
+            for (int b = 0; b < blockStarts.length; b++) blockStarts[b] = LIVENESS.blockStart(b);
+            output = new ListScheduler(SCHEDULING).schedule(output, blockStarts);
         }
+        CYCLES += model.cycles(output);
 
-        if (toReplace != null) {
-            int regIndex = REGISTERS.indexOf(toReplace);
-            if (MODIFIED.contains(toReplace) && life.contains(toReplace)) {
-                m_writer.println("ST " + toReplace + ", R" + regIndex);
+        for (MachineInstruction instruction : output) {
+            if (instruction.isLoad()) LOADS++;
+            if (instruction.isStore()) STORES++;
+            // A streamed window numbers its steps from its own first line.
+            instruction.STEP += FIRST_LINE;
+        }
+        if (m_channel != null) {
+            try {
+                ArrayList<String> names = new ArrayList<>(VARIABLES);
+                names.addAll(ARRAYS);
+                BinaryMachineCode.write(m_channel, names, output);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-            REGISTERS.set(regIndex, variable);
-            if (loadIfNotFound) m_writer.println("LD R" + regIndex + ", " + variable);
-            return "R" + regIndex;
+            if (m_writer != null) printOutput(output, lines, false);
+        } else {
+            printOutput(output, lines, true);
         }
-
-        return null;
     }
 
     /**
-     * Print the machine code in the output file
+     * Allocate the registers line by line, evicting the variable with the furthest next use.
      */
-    public void printMachineCode() {
-        // TODO (ex4): Print the machine code in the output file.
-        // You should change the code below.
-        for (int i = 0; i < CODE.size(); i++) {
-            m_writer.println("// Step " + i);
-            String leftReg = chooseRegister(CODE.get(i).LEFT, CODE.get(i).Life_IN, CODE.get(i).Next_IN, true);
-            String rightReg = chooseRegister(CODE.get(i).RIGHT, CODE.get(i).Life_IN, CODE.get(i).Next_IN, true);
-            String assignReg = chooseRegister(CODE.get(i).ASSIGN, CODE.get(i).Life_OUT, CODE.get(i).Next_OUT, false);
+    private List<MachineInstruction> allocateNextUse() {
+        Allocation allocation = new Allocation(0, CODE.size(), -1, Liveness.newSet(VARIABLES.size()), new int[VARIABLES.size()]);
+        List<MachineInstruction> output = allocation.allocate();
+        COALESCED = allocation.COALESCED;
+        return output;
+    }
 
-            MODIFIED.add(CODE.get(i).ASSIGN);
+    private static int register(String operand) {
+        return operand.charAt(0) == 'R' ? Integer.parseInt(operand.substring(1)) : -1;
+    }
 
-            if (!(assignReg.equals(rightReg) && leftReg.charAt(0) == '#')) {
-                m_writer.println(CODE.get(i).OPERATION + " " + assignReg + ", " + leftReg + ", " + rightReg);
+    /**
+     * Print the instructions of each step followed by its liveness and next-use dump, then the final stores.
+     * Scheduled code keeps its order: an instruction moved up waits for the header of its step.
+     *
+     * @param lines        The lines of CODE the instructions were generated for
+     * @param instructions Whether to print the instructions, or only the range of their indices for the binary output
+     */
+    private void printOutput(List<MachineInstruction> output, int lines, boolean instructions) {
+        long[] life = Liveness.newSet(VARIABLES.size());
+        int[] next = new int[VARIABLES.size()];
+        int block = -1;
+        int k = 0;
+        for (int i = 0; i < lines; i++) {
+            if (block + 1 < LIVENESS.blockCount() && LIVENESS.blockStart(block + 1) == i) {
+                LIVENESS.enter(++block, life);
+                NEXT_USE.enter(block, next);
             }
+            int end = LIVENESS.blockEnd(block);
 
-            m_writer.println(CODE.get(i));
+            int first = k;
+            while (k < output.size() && output.get(k).STEP <= FIRST_LINE + i) k++;
+            if (instructions) {
+                m_writer.println("// Step " + (FIRST_LINE + i));
+                for (int j = first; j < k; j++) m_writer.println(output.get(j));
+            } else {
+                m_writer.println("// Step " + (FIRST_LINE + i) + " [" + first + ", " + k + ")");
+            }
+            List<String> lifeIn = lifeSet(life);
+            NextUse nextIn = nextUse(next, end);
+            LIVENESS.advance(i, life);
+            NEXT_USE.advance(i, next);
+            m_writer.println(CODE.get(i).toString(lifeIn, lifeSet(life), nextIn, nextUse(next, end)));
         }
+        if (instructions) {
+            for (; k < output.size(); k++) m_writer.println(output.get(k));
+        } else if (k < output.size()) {
+            m_writer.println("// Final stores [" + k + ", " + output.size() + ")");
+        }
+    }
 
-        for (String var : REGISTERS) {
-            if (RETURNS.contains(var) && MODIFIED.contains(var)) {
-                m_writer.println("ST " + var + ", R" + REGISTERS.indexOf(var));
+    /**
+     * Names of the variables in a liveness bitset, in alphabetic order
+     *
+     * @param life The bitset to convert
+     * @return The ordered list
+     */
+    public List<String> lifeSet(long[] life) {
+        List<String> list = new ArrayList<>();
+        for (int w = 0; w < life.length; w++) {
+            for (long bits = life[w]; bits != 0; bits &= bits - 1) {
+                list.add(VARIABLES.get((w << 6) + Long.numberOfTrailingZeros(bits)));
             }
         }
+        Collections.sort(list);
+        return list;
     }
 
     /**
@@ -272,6 +574,157 @@ public class PrintMachineCodeVisitor implements ParserVisitor {
         return list;
     }
 
+    /**
+     * The registers of the NEXT_USE allocator over a range of lines, and the instructions generated for them.
+     */
+    private class Allocation {
+        private final int START;
+        private final int END;
+        private int BLOCK;
+        private final long[] LIFE;
+        private final int[] NEXT;
+        // Whether the range ends the program, false for a streamed window that leaves its registers to the next one.
+        private boolean LAST = true;
+
+        private final RegisterFile REGISTERS;
+        private final ArrayList<MachineInstruction> OUTPUT = new ArrayList<>();
+        private int STEP = 0;
+        private int COALESCED = 0;
+
+        /**
+         * @param block The basic block of the first line, -1 to enter it at the first line
+         * @param life  The variables live at the first line
+         * @param next  The next use of each variable at the first line
+         */
+        Allocation(int start, int end, int block, long[] life, int[] next) {
+            this(start, end, block, life, next, new RegisterFile(MAX_REGISTERS_COUNT, VARIABLES.size()));
+        }
+
+        /**
+         * @param block     The basic block of the first line, -1 to enter it at the first line
+         * @param registers The registers as the range before left them
+         */
+        Allocation(int start, int end, int block, long[] life, int[] next, RegisterFile registers) {
+            START = start;
+            END = end;
+            BLOCK = block;
+            LIFE = life;
+            NEXT = next;
+            REGISTERS = registers;
+            for (int v = 0; v < VARIABLES.size(); v++) {
+                // A variable accessed 2^k times in the profile is kept as if its next use were k lines closer.
+                long uses = PROFILE.getOrDefault(VARIABLES.get(v), 0L);
+                if (uses > 1) REGISTERS.setBias(v, 63 - Long.numberOfLeadingZeros(uses));
+            }
+        }
+
+        /**
+         * This function should generate the LD and ST when needed.
+         */
+        public String chooseRegister(String variable, long[] life, int[] next, boolean loadIfNotFound) {
+            // TODO (ex4): if variable is a constant (starts with '#'), return variable
+            // TODO (ex4): if REGISTERS contains variable, return "R" + index
+            // TODO (ex4): if REGISTERS size is not max (< MAX_REGISTERS_COUNT), add variable to REGISTERS and return "R" + index
+            // TODO (ex4): if REGISTERS has max size:
+            if (variable.charAt(0) == '#') return variable;
+
+            int id = VARIABLE_IDS.get(variable);
+            int regIndex = REGISTERS.registerOf(id);
+            if (regIndex >= 0) return "R" + regIndex;
+
+            if (!REGISTERS.isFull()) {
+                regIndex = REGISTERS.allocate(id, next[id]);
+            } else {
+                // The heap root holds the variable with the furthest next use (or none at all), hot variables of the
+                // profile counting as used sooner.
+                regIndex = REGISTERS.victim();
+                int toReplace = REGISTERS.variableOf(regIndex);
+                if (REGISTERS.isDirty(toReplace) && Liveness.contains(life, toReplace)) {
+                    OUTPUT.add(MachineInstruction.store(VARIABLES.get(toReplace), regIndex, STEP));
+                }
+                REGISTERS.replace(regIndex, id, next[id]);
+            }
+            if (loadIfNotFound) OUTPUT.add(MachineInstruction.load(regIndex, variable, STEP));
+            return "R" + regIndex;
+        }
+
+        /**
+         * Whether the line is a move "ADD d, #0, s" whose source dies there. Their live ranges then do not interfere,
+         * whatever the register pressure.
+         *
+         * @param life The variables live after the line
+         */
+        private boolean isCoalescable(int line, long[] life) {
+            ThreeAddressCode code = THREE_ADDRESS_CODE;
+            return code.ARRAY[line] == null && code.OPERATION[line].equals("ADD") && code.LEFT[line] < 0
+                    && code.LEFT_VALUE[line] == 0 && code.RIGHT[line] >= 0 && code.RIGHT[line] != code.ASSIGN[line]
+                    && !Liveness.contains(life, code.RIGHT[line]);
+        }
+
+        /**
+         * Hand the register of the source of a move over to its destination, which leaves the move as "ADD R, #0, R"
+         * for emit to drop. The source is dead, so it is not stored. A register the destination held before is freed.
+         */
+        private int coalesce(int variable, int source, int[] next) {
+            int register = REGISTERS.registerOf(source);
+            int previous = REGISTERS.registerOf(variable);
+            if (previous >= 0) REGISTERS.release(previous);
+            REGISTERS.replace(register, variable, next[variable]);
+            COALESCED++;
+            return register;
+        }
+
+        /**
+         * Keep the eviction keys of the registers in sync with the next uses.
+         */
+        private void updateNextUse(int line, int[] next) {
+            ThreeAddressCode code = THREE_ADDRESS_CODE;
+            if (code.LEFT[line] >= 0) REGISTERS.setNextUse(code.LEFT[line], next[code.LEFT[line]]);
+            if (code.RIGHT[line] >= 0) REGISTERS.setNextUse(code.RIGHT[line], next[code.RIGHT[line]]);
+            REGISTERS.setNextUse(code.ASSIGN[line], next[code.ASSIGN[line]]);
+        }
+
+        List<MachineInstruction> allocate() {
+            long[] life = LIFE;
+            int[] next = NEXT;
+            for (int i = START; i < END; i++) {
+                if (BLOCK + 1 < LIVENESS.blockCount() && LIVENESS.blockStart(BLOCK + 1) == i) {
+                    LIVENESS.enter(++BLOCK, life);
+                    NEXT_USE.enter(BLOCK, next);
+                    for (int reg = 0; reg < REGISTERS.used(); reg++) {
+                        int var = REGISTERS.variableOf(reg);
+                        if (var >= 0) REGISTERS.setNextUse(var, next[var]);
+                    }
+                }
+
+                STEP = i;
+                String leftReg = chooseRegister(CODE.get(i).LEFT, life, next, true);
+                // A biased variable can rank before the left operand, which must still be in its register for the line.
+                if (THREE_ADDRESS_CODE.LEFT[i] >= 0) REGISTERS.pin(THREE_ADDRESS_CODE.LEFT[i]);
+                String rightReg = chooseRegister(CODE.get(i).RIGHT, life, next, true);
+                LIVENESS.advance(i, life);
+                NEXT_USE.advance(i, next);
+                updateNextUse(i, next);
+                String assignReg = isCoalescable(i, life)
+                        ? "R" + coalesce(THREE_ADDRESS_CODE.ASSIGN[i], THREE_ADDRESS_CODE.RIGHT[i], next)
+                        : chooseRegister(CODE.get(i).ASSIGN, life, next, false);
+
+                REGISTERS.setDirty(CODE.get(i).ASSIGN_ID, true);
+
+                MachineInstruction.emit(THREE_ADDRESS_CODE, i, register(assignReg), register(leftReg), register(rightReg), i, OUTPUT);
+            }
+
+            if (!LAST) return OUTPUT;
+            for (int reg = 0; reg < REGISTERS.used(); reg++) {
+                int var = REGISTERS.variableOf(reg);
+                if (var >= 0 && Liveness.contains(THREE_ADDRESS_CODE.RETURNED, var) && REGISTERS.isDirty(var)) {
+                    OUTPUT.add(MachineInstruction.store(VARIABLES.get(var), reg, CODE.size()));
+                }
+            }
+            return OUTPUT;
+        }
+    }
+
     /**
      * A class to store and manage next uses.
      */
@@ -318,15 +771,12 @@ public class PrintMachineCodeVisitor implements ParserVisitor {
         String ASSIGN;
         String LEFT;
         String RIGHT;
+        // The array of an LD or ST line, null for an operation.
+        String ARRAY;
 
-        public HashSet<String> REF = new HashSet<>();
-        public HashSet<String> DEF = new HashSet<>();
-
-        public HashSet<String> Life_IN = new HashSet<>();
-        public HashSet<String> Life_OUT = new HashSet<>();
-
-        public NextUse Next_IN = new NextUse();
-        public NextUse Next_OUT = new NextUse();
+        int ASSIGN_ID;
+        int LEFT_ID;
+        int RIGHT_ID;
 
         public MachineCodeLine(String operation, String assign, String left, String right) {
             this.OPERATION = OPERATIONS.get(operation);
@@ -334,15 +784,18 @@ public class PrintMachineCodeVisitor implements ParserVisitor {
             this.LEFT = left;
             this.RIGHT = right;
 
-            DEF.add(this.ASSIGN);
-            if (this.LEFT.charAt(0) != '#')
-                REF.add(this.LEFT);
-            if (this.RIGHT.charAt(0) != '#')
-                REF.add(this.RIGHT);
+            this.ASSIGN_ID = variableId(assign);
+            this.LEFT_ID = variableId(left);
+            this.RIGHT_ID = variableId(right);
         }
 
-        @Override
-        public String toString() {
+        public MachineCodeLine(String operation, String array, String assign, String left, String right) {
+            this(operation, assign, left, right);
+            this.ARRAY = array;
+            if (!ARRAYS.contains(array)) ARRAYS.add(array);
+        }
+
+        public String toString(List<String> Life_IN, List<String> Life_OUT, NextUse Next_IN, NextUse Next_OUT) {
             String buffer = "";
             buffer += String.format("// Life_IN  : %s\n", Life_IN);
             buffer += String.format("// Life_OUT : %s\n", Life_OUT);
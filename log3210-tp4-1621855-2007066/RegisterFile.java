@@ -0,0 +1,236 @@
+package analyzer.visitors;
+
+import java.util.Arrays;
+
+/**
+ * Register and address descriptors used by the machine code generator.
+ * <p>
+ * The register descriptor maps each register to the variable it holds, the address descriptor maps each variable to
+ * its register and keeps a dirty bit when memory is out of date. Registers in use are also kept in an indexed
+ * max-heap keyed on the next use of their variable, so the eviction candidate is always at the root. Ties go to the
+ * lowest register, like a scan of the registers in order would. A variable with a bias ranks as if its next use were
+ * that many lines closer, which keeps the variables of a profiled hot path in registers.
+ * <p>
+ * Released registers are handed out again before any register that was never used.
+ */
+public class RegisterFile {
+    private final int capacity;
+    private final int[] variableOf;
+    private int[] registerOf;
+    private long[] dirty;
+    private int[] bias;
+
+    private final int[] key;
+    private final int[] heap;
+    private final int[] position;
+    private int used = 0;
+    private int size = 0;
+
+    private final int[] released;
+    private int releasedCount = 0;
+
+    public RegisterFile(int capacity, int varCount) {
+        this.capacity = capacity;
+        this.variableOf = new int[capacity];
+        this.registerOf = new int[varCount];
+        this.dirty = Liveness.newSet(varCount);
+        this.bias = new int[varCount];
+        this.key = new int[capacity];
+        this.heap = new int[capacity];
+        this.position = new int[capacity];
+        this.released = new int[capacity];
+        Arrays.fill(variableOf, -1);
+        Arrays.fill(registerOf, -1);
+    }
+
+    /**
+     * Make room for the variables below varCount, which a compile reading its code a window at a time only learns
+     * about as it goes.
+     */
+    public void addVariables(int varCount) {
+        if (varCount <= registerOf.length) return;
+        int previous = registerOf.length;
+        int length = Math.max(varCount, 2 * previous);
+        registerOf = Arrays.copyOf(registerOf, length);
+        Arrays.fill(registerOf, previous, length, -1);
+        dirty = Arrays.copyOf(dirty, Liveness.newSet(length).length);
+        bias = Arrays.copyOf(bias, length);
+    }
+
+    /**
+     * Number the variables again, so that a compile reading its code a window at a time can forget the ones it is
+     * done with. The registers keep their variables and the heap its order.
+     *
+     * @param ids      The new number of each variable, -1 for a forgotten one, which no register may hold
+     * @param varCount The number of variables afterwards
+     */
+    public void renumber(int[] ids, int varCount) {
+        int[] registers = new int[varCount];
+        long[] dirtyIds = Liveness.newSet(varCount);
+        int[] biases = new int[varCount];
+        Arrays.fill(registers, -1);
+        for (int variable = 0; variable < ids.length; variable++) {
+            int id = ids[variable];
+            if (id < 0) continue;
+            biases[id] = bias[variable];
+            if (isDirty(variable)) Liveness.add(dirtyIds, id);
+            if (registerOf[variable] >= 0) {
+                registers[id] = registerOf[variable];
+                variableOf[registerOf[variable]] = id;
+            }
+        }
+        registerOf = registers;
+        dirty = dirtyIds;
+        bias = biases;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Number of registers handed out so far. They are always R0 to R(used - 1), released ones hold no variable.
+     */
+    public int used() {
+        return used;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public int registerOf(int variable) {
+        return registerOf[variable];
+    }
+
+    public int variableOf(int register) {
+        return variableOf[register];
+    }
+
+    public boolean isDirty(int variable) {
+        return Liveness.contains(dirty, variable);
+    }
+
+    public void setDirty(int variable, boolean value) {
+        if (value) Liveness.add(dirty, variable);
+        else Liveness.remove(dirty, variable);
+    }
+
+    /**
+     * Set the number of lines a variable is kept ahead of its next use, before it gets a register.
+     */
+    public void setBias(int variable, int lines) {
+        bias[variable] = lines;
+    }
+
+    private int key(int variable, int nextUse) {
+        return nextUse == NextUseTable.NONE ? nextUse : nextUse - bias[variable];
+    }
+
+    /**
+     * Give a free register to the variable, the last released one first.
+     */
+    public int allocate(int variable, int nextUse) {
+        int register = releasedCount > 0 ? released[--releasedCount] : used++;
+        variableOf[register] = variable;
+        registerOf[variable] = register;
+        key[register] = key(variable, nextUse);
+        heap[size] = register;
+        position[register] = size;
+        siftUp(size++);
+        return register;
+    }
+
+    /**
+     * Free a register whose variable is dead.
+     */
+    public void release(int register) {
+        int variable = variableOf[register];
+        registerOf[variable] = -1;
+        variableOf[register] = -1;
+        setDirty(variable, false);
+        released[releasedCount++] = register;
+
+        int index = position[register];
+        int last = heap[--size];
+        if (last != register) {
+            heap[index] = last;
+            position[last] = index;
+            siftUp(index);
+            siftDown(position[last]);
+        }
+    }
+
+    /**
+     * The register whose variable has the furthest next use.
+     */
+    public int victim() {
+        return heap[0];
+    }
+
+    /**
+     * Hand a register over to another variable. The previous variable is only in memory afterwards.
+     */
+    public void replace(int register, int variable, int nextUse) {
+        int previous = variableOf[register];
+        if (previous >= 0) {
+            registerOf[previous] = -1;
+            setDirty(previous, false);
+        }
+        variableOf[register] = variable;
+        registerOf[variable] = register;
+        setNextUse(variable, nextUse);
+    }
+
+    /**
+     * Rank a variable after every other until its next use is set again, so that it keeps its register meanwhile.
+     */
+    public void pin(int variable) {
+        int register = registerOf[variable];
+        key[register] = Integer.MIN_VALUE;
+        siftDown(position[register]);
+    }
+
+    public void setNextUse(int variable, int nextUse) {
+        int register = registerOf[variable];
+        if (register < 0) return;
+        int updated = key(variable, nextUse);
+        int previous = key[register];
+        if (updated == previous) return;
+        key[register] = updated;
+        if (updated > previous) siftUp(position[register]);
+        else siftDown(position[register]);
+    }
+
+    private boolean before(int a, int b) {
+        return key[a] > key[b] || (key[a] == key[b] && a < b);
+    }
+
+    private void siftUp(int index) {
+        int register = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!before(register, heap[parent])) break;
+            heap[index] = heap[parent];
+            position[heap[index]] = index;
+            index = parent;
+        }
+        heap[index] = register;
+        position[register] = index;
+    }
+
+    private void siftDown(int index) {
+        int register = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) break;
+            if (child + 1 < size && before(heap[child + 1], heap[child])) child++;
+            if (!before(heap[child], register)) break;
+            heap[index] = heap[child];
+            position[heap[index]] = index;
+            index = child;
+        }
+        heap[index] = register;
+        position[register] = index;
+    }
+}
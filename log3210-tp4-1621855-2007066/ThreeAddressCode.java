@@ -0,0 +1,82 @@
+package analyzer.visitors;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Array form of the CODE list used by the register allocators: line i computes ASSIGN[i] = LEFT[i] OPERATION[i] RIGHT[i].
+ * <p>
+ * Operands are variable ids, or -1 for a constant whose value is kept in LEFT_VALUE / RIGHT_VALUE.
+ * <p>
+ * A line with an ARRAY is an indexed access at the byte offset LEFT: "LD" computes ASSIGN = ARRAY[LEFT], "ST" computes
+ * ARRAY[LEFT] = RIGHT. The ST line also has its value as ASSIGN, so that every line defines a variable, even if the
+ * value does not change.
+ */
+public class ThreeAddressCode {
+    public final ArrayList<String> VARIABLES;
+    public final long[] RETURNED;
+
+    public final String[] OPERATION;
+    public final int[] ASSIGN;
+    public final int[] LEFT;
+    public final int[] RIGHT;
+    public final int[] LEFT_VALUE;
+    public final int[] RIGHT_VALUE;
+    public final String[] ARRAY;
+
+    public ThreeAddressCode(ArrayList<String> variables, int size) {
+        VARIABLES = variables;
+        RETURNED = Liveness.newSet(variables.size());
+        OPERATION = new String[size];
+        ASSIGN = new int[size];
+        LEFT = new int[size];
+        RIGHT = new int[size];
+        LEFT_VALUE = new int[size];
+        RIGHT_VALUE = new int[size];
+        ARRAY = new String[size];
+    }
+
+    public int size() {
+        return ASSIGN.length;
+    }
+
+    public int variableCount() {
+        return VARIABLES.size();
+    }
+
+    /**
+     * Apply an operation the way the machine does. Division by zero gives 0.
+     */
+    public static int apply(String operation, int left, int right) {
+        switch (operation) {
+            case "ADD":
+                return left + right;
+            case "MIN":
+                return left - right;
+            case "MUL":
+                return left * right;
+            case "DIV":
+                return right == 0 ? 0 : left / right;
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + operation);
+        }
+    }
+
+    /**
+     * Run the code on a memory image. Variables missing from the image read as 0, array elements are named by
+     * {@link MachineInstruction#element}.
+     */
+    public void evaluate(Map<String, Integer> memory) {
+        for (int i = 0; i < size(); i++) {
+            int left = LEFT[i] < 0 ? LEFT_VALUE[i] : memory.getOrDefault(VARIABLES.get(LEFT[i]), 0);
+            int right = RIGHT[i] < 0 ? RIGHT_VALUE[i] : memory.getOrDefault(VARIABLES.get(RIGHT[i]), 0);
+            if (ARRAY[i] == null) {
+                memory.put(VARIABLES.get(ASSIGN[i]), apply(OPERATION[i], left, right));
+            } else if (OPERATION[i].equals("LD")) {
+                memory.put(VARIABLES.get(ASSIGN[i]), memory.getOrDefault(MachineInstruction.element(ARRAY[i], left), 0));
+            } else {
+                memory.put(MachineInstruction.element(ARRAY[i], left), right);
+            }
+        }
+    }
+}
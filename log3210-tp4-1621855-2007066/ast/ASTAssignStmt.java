@@ -0,0 +1,27 @@
+/* Generated By:JJTree: Do not edit this line. ASTAssignStmt.java Version 7.0 */
+/* JavaCCOptions:MULTI=true,NODE_USES_PARSER=false,VISITOR=true,TRACK_TOKENS=false,NODE_PREFIX=AST,NODE_EXTENDS=,NODE_FACTORY=,SUPPORT_CLASS_VISIBILITY_PUBLIC=true */
+package analyzer.ast;
+
+public
+class ASTAssignStmt extends SimpleNode {
+  public ASTAssignStmt(int id) {
+    super(id);
+  }
+
+  public ASTAssignStmt(Parser p, int id) {
+    super(p, id);
+  }
+
+  private String m_op = null;
+
+  public void setOp(String o) { m_op = o; }
+  public String getOp() { return m_op; }
+
+
+  /** Accept the visitor. **/
+  public Object jjtAccept(ParserVisitor visitor, Object data) {
+
+    return
+    visitor.visit(this, data);
+  }
+}
@@ -0,0 +1,125 @@
+package analyzer.tests;
+
+import analyzer.visitors.CacheModel;
+import analyzer.visitors.CompileClient;
+import analyzer.visitors.CompileDaemon;
+import analyzer.visitors.LatencyModel;
+import analyzer.visitors.MachineCodeCompiler;
+import analyzer.visitors.MachineSimulator;
+import analyzer.visitors.PrintMachineCodeVisitor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Start a daemon on a socket of its own, send it concurrent command lines with CompileClient.request, then compare
+ * each answer with the compile of this JVM and check it.
+ */
+public class CompileDaemonTest {
+    private static final String DATA = "test-suite/CompileDaemonTest/data/";
+    private static final int SEEDS = 5;
+    private static final int REQUESTS = 12;
+
+    private Path socket;
+    private CompileDaemon daemon;
+    private Thread server;
+
+    @Before
+    public void start() throws Exception {
+        socket = Files.createTempDirectory("log3210").resolve("compiler.sock");
+        daemon = new CompileDaemon(socket);
+        server = new Thread(() -> {
+            try {
+                daemon.serve();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        server.start();
+        for (int wait = 0; wait < 500 && !Files.exists(socket); wait++) Thread.sleep(10);
+        assertTrue("The daemon does not listen on " + socket, Files.exists(socket));
+    }
+
+    @After
+    public void stop() throws Exception {
+        daemon.stop();
+        server.join(10000);
+        Files.deleteIfExists(socket.getParent());
+    }
+
+    @Test
+    public void compile() throws Exception {
+        byte[] source = Files.readAllBytes(Paths.get(DATA + "program.txt"));
+        PrintMachineCodeVisitor.Allocator[] allocators = PrintMachineCodeVisitor.Allocator.values();
+        ExecutorService clients = Executors.newFixedThreadPool(4);
+        try {
+            ArrayList<Future<Response>> responses = new ArrayList<>();
+            for (int i = 0; i < REQUESTS; i++) {
+                String allocator = allocators[i % allocators.length].name();
+                responses.add(clients.submit(() -> request("-allocator", allocator, "program.txt")));
+            }
+            for (int i = 0; i < REQUESTS; i++) {
+                PrintMachineCodeVisitor.Allocator allocator = allocators[i % allocators.length];
+                Response response = responses.get(i).get();
+                assertEquals(response.err, 0, response.status);
+
+                MachineCodeCompiler compiler = new MachineCodeCompiler(allocator, false, null);
+                assertArrayEquals(allocator.name(), compiler.compile(source), response.out);
+                for (int seed = 0; seed < SEEDS; seed++) {
+                    MachineSimulator.check(source, compiler, seed, new LatencyModel(), new CacheModel());
+                }
+            }
+        } finally {
+            clients.shutdown();
+        }
+        assertTrue(daemon.metrics(), daemon.metrics().startsWith("{REQUESTS:" + REQUESTS + ","));
+    }
+
+    // A command line without a source fails in the daemon as in MachineCodeCompiler.
+    @Test
+    public void usage() throws Exception {
+        Response response = request("-peephole");
+        assertEquals(1, response.status);
+        assertEquals(0, response.out.length);
+        assertTrue(response.err, response.err.startsWith("Usage: MachineCodeCompiler"));
+    }
+
+    private Response request(String... args) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            int status = CompileClient.request(channel, Paths.get(DATA).toAbsolutePath(), args, out, err);
+            return new Response(status, out.toByteArray(), err.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static class Response {
+        final int status;
+        final byte[] out;
+        final String err;
+
+        Response(int status, byte[] out, String err) {
+            this.status = status;
+            this.out = out;
+            this.err = err;
+        }
+    }
+}
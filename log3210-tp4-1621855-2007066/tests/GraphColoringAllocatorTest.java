@@ -0,0 +1,37 @@
+package analyzer.tests;
+
+import analyzer.visitors.CacheModel;
+import analyzer.visitors.LatencyModel;
+import analyzer.visitors.MachineCodeCompiler;
+import analyzer.visitors.MachineInstruction;
+import analyzer.visitors.MachineSimulator;
+import analyzer.visitors.PrintMachineCodeVisitor;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Compile a source whose live ranges interfere more than there are registers with GRAPH_COLORING, then check its code
+ * and that it never names a register past num_register.
+ */
+public class GraphColoringAllocatorTest {
+    private static final String DATA = "test-suite/GraphColoringAllocatorTest/data/";
+    private static final int SEEDS = 5;
+    private static final int REGISTERS = 3;
+
+    @Test
+    public void interference() throws Exception {
+        byte[] source = Files.readAllBytes(Paths.get(DATA + "interference.txt"));
+        MachineCodeCompiler compiler = new MachineCodeCompiler(PrintMachineCodeVisitor.Allocator.GRAPH_COLORING, false, null);
+        for (MachineInstruction instruction : MachineSimulator.load(compiler.compile(source))) {
+            assertTrue(instruction.toString(), Math.max(instruction.ASSIGN, Math.max(instruction.LEFT, instruction.RIGHT)) < REGISTERS);
+        }
+        for (int seed = 0; seed < SEEDS; seed++) {
+            MachineSimulator.check(source, compiler, seed, new LatencyModel(), new CacheModel());
+        }
+    }
+}
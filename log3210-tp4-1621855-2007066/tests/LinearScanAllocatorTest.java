@@ -0,0 +1,51 @@
+package analyzer.tests;
+
+import analyzer.visitors.CacheModel;
+import analyzer.visitors.LatencyModel;
+import analyzer.visitors.MachineCodeCompiler;
+import analyzer.visitors.MachineInstruction;
+import analyzer.visitors.MachineSimulator;
+import analyzer.visitors.PrintMachineCodeVisitor;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Compile a source whose intervals overlap more than there are registers with LINEAR_SCAN, then a long generated one,
+ * and check their code and that it never names a register past num_register.
+ */
+public class LinearScanAllocatorTest {
+    private static final String DATA = "test-suite/LinearScanAllocatorTest/data/";
+    private static final int SEEDS = 5;
+
+    @Test
+    public void intervals() throws Exception {
+        check(Files.readAllBytes(Paths.get(DATA + "intervals.txt")), 3);
+    }
+
+    // Each line reads the two variables written just before it, so every variable lives for two lines.
+    @Test
+    public void large() throws Exception {
+        StringBuilder source = new StringBuilder("num_register = 4;\nreturn [v0, v1, v2, v3, v4, v5];\n");
+        for (int i = 0; i < 3000; i++) {
+            source.append("v").append(i % 6).append(" = v").append((i + 4) % 6).append(i % 3 == 0 ? " * " : " + ")
+                    .append("v").append((i + 5) % 6).append(";\n");
+        }
+        check(source.toString().getBytes(StandardCharsets.UTF_8), 4);
+    }
+
+    private static void check(byte[] source, int registers) throws Exception {
+        MachineCodeCompiler compiler = new MachineCodeCompiler(PrintMachineCodeVisitor.Allocator.LINEAR_SCAN, false, null);
+        for (MachineInstruction instruction : MachineSimulator.load(compiler.compile(source))) {
+            assertTrue(instruction.toString(), Math.max(instruction.ASSIGN, Math.max(instruction.LEFT, instruction.RIGHT)) < registers);
+        }
+        for (int seed = 0; seed < SEEDS; seed++) {
+            MachineSimulator.check(source, compiler, seed, new LatencyModel(), new CacheModel());
+        }
+    }
+}
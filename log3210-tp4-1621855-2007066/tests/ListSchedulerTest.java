@@ -0,0 +1,52 @@
+package analyzer.tests;
+
+import analyzer.visitors.CacheModel;
+import analyzer.visitors.LatencyModel;
+import analyzer.visitors.MachineCodeCompiler;
+import analyzer.visitors.MachineInstruction;
+import analyzer.visitors.MachineSimulator;
+import analyzer.visitors.PrintMachineCodeVisitor;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Compile a source with long latencies and independent work with -schedule, then check its code, that it only
+ * reorders the instructions and that it runs in fewer cycles than the unscheduled code.
+ */
+public class ListSchedulerTest {
+    private static final String DATA = "test-suite/ListSchedulerTest/data/";
+    private static final int SEEDS = 5;
+
+    @Test
+    public void latency() throws Exception {
+        byte[] source = Files.readAllBytes(Paths.get(DATA + "latency.txt"));
+        LatencyModel model = LatencyModel.parse("LD=3,DIV=10");
+        for (PrintMachineCodeVisitor.Allocator allocator : PrintMachineCodeVisitor.Allocator.values()) {
+            MachineCodeCompiler unscheduled = new MachineCodeCompiler(allocator, false, null);
+            MachineCodeCompiler scheduled = new MachineCodeCompiler(allocator, false, model);
+            assertEquals(allocator.name(), sorted(unscheduled.compile(source)), sorted(scheduled.compile(source)));
+
+            for (int seed = 0; seed < SEEDS; seed++) {
+                long before = MachineSimulator.check(source, unscheduled, seed, model, new CacheModel()).CYCLES;
+                long after = MachineSimulator.check(source, scheduled, seed, model, new CacheModel()).CYCLES;
+                assertTrue(allocator + ": " + after + " cycles of " + before, after < before);
+            }
+        }
+    }
+
+    private static List<String> sorted(byte[] output) throws Exception {
+        ArrayList<String> lines = new ArrayList<>();
+        for (MachineInstruction instruction : MachineSimulator.load(output)) lines.add(instruction.toString());
+        Collections.sort(lines);
+        return lines;
+    }
+}
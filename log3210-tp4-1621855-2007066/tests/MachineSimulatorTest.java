@@ -0,0 +1,74 @@
+package analyzer.tests;
+
+import analyzer.ast.Parser;
+import analyzer.visitors.CacheModel;
+import analyzer.visitors.LatencyModel;
+import analyzer.visitors.MachineInstruction;
+import analyzer.visitors.MachineSimulator;
+import analyzer.visitors.PrintMachineCodeVisitor;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Compile each source of the corpus with every allocator and check its code on the memory images of a few seeds, like
+ * MachineSimulator -check.
+ */
+public class MachineSimulatorTest {
+    private static final String DATA = "test-suite/MachineSimulatorTest/data/";
+    private static final int SEEDS = 5;
+
+    @Test
+    public void example() throws Exception {
+        checkAllocators("example.txt");
+    }
+
+    @Test
+    public void pressure() throws Exception {
+        checkAllocators("pressure.txt");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void missingStore() throws Exception {
+        byte[] source = read("example.txt");
+        StringWriter output = new StringWriter();
+        PrintWriter writer = new PrintWriter(output);
+        PrintMachineCodeVisitor visitor = new PrintMachineCodeVisitor(writer);
+        visitor.visitStatements(new Parser(new ByteArrayInputStream(source)));
+        writer.flush();
+
+        // Without its last ST, a returned variable keeps its value of the memory image.
+        List<MachineInstruction> code = MachineSimulator.load(new StringReader(output.toString()));
+        for (int i = code.size() - 1; i >= 0; i--) {
+            if (code.get(i).isStore()) {
+                code.remove(i);
+                break;
+            }
+        }
+        new MachineSimulator().check(visitor.threeAddressCode(), code, MachineSimulator.image(visitor.threeAddressCode(), 0));
+    }
+
+    private static void checkAllocators(String file) throws Exception {
+        byte[] source = read(file);
+        for (PrintMachineCodeVisitor.Allocator allocator : PrintMachineCodeVisitor.Allocator.values()) {
+            for (int seed = 0; seed < SEEDS; seed++) {
+                MachineSimulator simulator = MachineSimulator.check(source, allocator, seed, new LatencyModel(), new CacheModel());
+                assertTrue(allocator + " runs no cycle", simulator.CYCLES > 0);
+            }
+        }
+    }
+
+    private static byte[] read(String file) throws IOException {
+        return Files.readAllBytes(Paths.get(DATA + file));
+    }
+}
@@ -0,0 +1,50 @@
+package analyzer.tests;
+
+import analyzer.ast.Parser;
+import analyzer.visitors.CacheModel;
+import analyzer.visitors.LatencyModel;
+import analyzer.visitors.MachineInstruction;
+import analyzer.visitors.MachineSimulator;
+import analyzer.visitors.PrintMachineCodeVisitor;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Compile a chain of copies with the NEXT_USE allocator: the copies whose source dies take over its register and
+ * disappear, the one whose source stays live is printed as an ADD move. Then check the code.
+ */
+public class MoveCoalescingTest {
+    private static final String DATA = "test-suite/MoveCoalescingTest/data/";
+    private static final int SEEDS = 5;
+
+    @Test
+    public void copies() throws Exception {
+        byte[] source = Files.readAllBytes(Paths.get(DATA + "copies.txt"));
+        StringWriter output = new StringWriter();
+        PrintWriter writer = new PrintWriter(output);
+        PrintMachineCodeVisitor visitor = new PrintMachineCodeVisitor(writer);
+        visitor.visitStatements(new Parser(new ByteArrayInputStream(source)));
+        writer.flush();
+
+        // c = b and d = c are coalesced, e = d is not since d is read again.
+        assertEquals(2, visitor.COALESCED);
+        int moves = 0;
+        for (MachineInstruction instruction : MachineSimulator.load(new StringReader(output.toString()))) {
+            if (instruction.isMove()) moves++;
+        }
+        assertEquals(output.toString(), 1, moves);
+
+        for (int seed = 0; seed < SEEDS; seed++) {
+            MachineSimulator.check(source, PrintMachineCodeVisitor.Allocator.NEXT_USE, seed, new LatencyModel(), new CacheModel());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package analyzer.tests;
+
+import analyzer.visitors.CacheModel;
+import analyzer.visitors.LatencyModel;
+import analyzer.visitors.Liveness;
+import analyzer.visitors.MachineSimulator;
+import analyzer.visitors.NextUseTable;
+import analyzer.visitors.PrintMachineCodeVisitor;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Compute the next uses of a block by hand, then compile a source whose variables are redefined before they are read
+ * again and check its code.
+ */
+public class NextUseTableTest {
+    private static final String DATA = "test-suite/NextUseTableTest/data/";
+    private static final int SEEDS = 5;
+    private static final int NONE = NextUseTable.NONE;
+
+    // a = b + c; b = a * a; d = b + a; with d returned.
+    @Test
+    public void table() {
+        int a = 0, b = 1, c = 2, d = 3;
+        int[] assign = {a, b, d};
+        int[] left = {b, a, b};
+        int[] right = {c, a, a};
+        long[] exit = Liveness.newSet(4);
+        Liveness.add(exit, d);
+        Liveness liveness = new Liveness(4, assign, left, right, new int[]{0}, new int[][]{{}}, exit);
+        liveness.solve();
+        NextUseTable table = new NextUseTable(4, assign, left, right, liveness);
+        table.compute();
+
+        int[] upcoming = new int[4];
+        table.enter(0, upcoming);
+        assertEquals(NONE, upcoming[a]);
+        assertEquals(0, upcoming[b]);
+        assertEquals(0, upcoming[c]);
+        assertEquals(NONE, upcoming[d]);
+
+        table.advance(0, upcoming);
+        assertEquals(1, upcoming[a]);
+        // b is assigned on line 1 before it is read again.
+        assertEquals(NONE, upcoming[b]);
+        assertEquals(NONE, upcoming[c]);
+
+        table.advance(1, upcoming);
+        assertEquals(2, upcoming[a]);
+        assertEquals(2, upcoming[b]);
+
+        table.advance(2, upcoming);
+        assertEquals(NONE, upcoming[a]);
+        // d is live at the exit, which ranks at the end of the block.
+        assertEquals(3, upcoming[d]);
+
+        assertEquals(NONE, table.after(0, b));
+        assertEquals(2, table.after(1, a));
+        assertEquals(NONE, table.after(2, a));
+    }
+
+    @Test
+    public void compile() throws Exception {
+        byte[] source = Files.readAllBytes(Paths.get(DATA + "reuse.txt"));
+        for (int seed = 0; seed < SEEDS; seed++) {
+            MachineSimulator.check(source, PrintMachineCodeVisitor.Allocator.NEXT_USE, seed, new LatencyModel(), new CacheModel());
+        }
+    }
+}
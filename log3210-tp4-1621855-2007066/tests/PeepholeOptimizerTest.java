@@ -0,0 +1,72 @@
+package analyzer.tests;
+
+import analyzer.visitors.CacheModel;
+import analyzer.visitors.LatencyModel;
+import analyzer.visitors.MachineCodeCompiler;
+import analyzer.visitors.MachineInstruction;
+import analyzer.visitors.MachineSimulator;
+import analyzer.visitors.PeepholeOptimizer;
+import analyzer.visitors.PrintMachineCodeVisitor;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Apply every rule of the peephole pass to a fixed piece of machine code, then compile a source with -peephole and
+ * check its code.
+ */
+public class PeepholeOptimizerTest {
+    private static final String DATA = "test-suite/PeepholeOptimizerTest/data/";
+    private static final int SEEDS = 5;
+
+    @Test
+    public void rules() throws Exception {
+        List<MachineInstruction> code = MachineSimulator.load(new StringReader(String.join("\n",
+                "LD R0, a",
+                "LD R1, a",
+                "ADD R2, R1, R1",
+                "ST a, R0",
+                "ADD R3, #0, R3",
+                "ST b, R2",
+                "ADD R2, R2, #1",
+                "ST b, R2")));
+        PeepholeOptimizer optimizer = new PeepholeOptimizer();
+        List<MachineInstruction> optimized = optimizer.optimize(code);
+
+        ArrayList<String> lines = new ArrayList<>();
+        for (MachineInstruction instruction : optimized) lines.add(instruction.toString());
+        assertEquals(List.of("LD R0, a", "ADD R2, R0, R0", "ADD R2, R2, #1", "ST b, R2"), lines);
+        for (PeepholeOptimizer.Rule rule : PeepholeOptimizer.Rule.values()) {
+            assertTrue(optimizer.metrics(), optimizer.APPLIED[rule.ordinal()] > 0);
+        }
+
+        HashMap<String, Integer> memory = new HashMap<>();
+        memory.put("a", 7);
+        new MachineSimulator().run(optimized, memory);
+        assertEquals(15, (int) memory.get("b"));
+    }
+
+    @Test
+    public void compile() throws Exception {
+        byte[] source = Files.readAllBytes(Paths.get(DATA + "reload.txt"));
+        for (PrintMachineCodeVisitor.Allocator allocator : PrintMachineCodeVisitor.Allocator.values()) {
+            MachineCodeCompiler peephole = new MachineCodeCompiler(allocator, true, null);
+            for (int seed = 0; seed < SEEDS; seed++) {
+                MachineSimulator.check(source, peephole, seed, new LatencyModel(), new CacheModel());
+            }
+        }
+        // The allocator stores a back from the register it was loaded into.
+        int before = MachineSimulator.load(new MachineCodeCompiler(PrintMachineCodeVisitor.Allocator.NEXT_USE, false, null).compile(source)).size();
+        int after = MachineSimulator.load(new MachineCodeCompiler(PrintMachineCodeVisitor.Allocator.NEXT_USE, true, null).compile(source)).size();
+        assertTrue(after + " instructions of " + before, after < before);
+    }
+}
@@ -0,0 +1,65 @@
+package analyzer.tests;
+
+import analyzer.visitors.CacheModel;
+import analyzer.visitors.LatencyModel;
+import analyzer.visitors.MachineSimulator;
+import analyzer.visitors.NextUseTable;
+import analyzer.visitors.PrintMachineCodeVisitor;
+import analyzer.visitors.RegisterFile;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Drive the register and address descriptors by hand, then compile a source that spills on every line and check its
+ * code.
+ */
+public class RegisterFileTest {
+    private static final String DATA = "test-suite/RegisterFileTest/data/";
+    private static final int SEEDS = 5;
+
+    @Test
+    public void descriptors() {
+        RegisterFile registers = new RegisterFile(3, 5);
+        assertEquals(0, registers.allocate(0, 4));
+        assertEquals(1, registers.allocate(1, 9));
+        assertEquals(2, registers.allocate(2, NextUseTable.NONE));
+        assertTrue(registers.isFull());
+
+        // The furthest next use is evicted first, a dead variable before any other.
+        assertEquals(2, registers.victim());
+        registers.setNextUse(2, 1);
+        assertEquals(1, registers.victim());
+        // Ties go to the lowest register.
+        registers.setNextUse(0, 9);
+        assertEquals(0, registers.victim());
+
+        registers.setDirty(1, true);
+        registers.replace(1, 3, 2);
+        assertEquals(3, registers.variableOf(1));
+        assertEquals(1, registers.registerOf(3));
+        assertEquals(-1, registers.registerOf(1));
+        assertFalse(registers.isDirty(1));
+
+        // A released register is handed out again before a new one.
+        registers.release(2);
+        assertFalse(registers.isFull());
+        assertEquals(-1, registers.registerOf(2));
+        assertEquals(2, registers.allocate(4, 5));
+        assertEquals(3, registers.used());
+    }
+
+    @Test
+    public void spill() throws Exception {
+        byte[] source = Files.readAllBytes(Paths.get(DATA + "spill.txt"));
+        for (int seed = 0; seed < SEEDS; seed++) {
+            MachineSimulator.check(source, PrintMachineCodeVisitor.Allocator.NEXT_USE, seed, new LatencyModel(), new CacheModel());
+        }
+    }
+}
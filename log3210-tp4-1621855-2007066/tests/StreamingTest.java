@@ -0,0 +1,96 @@
+package analyzer.tests;
+
+import analyzer.ast.Parser;
+import analyzer.visitors.CacheModel;
+import analyzer.visitors.LatencyModel;
+import analyzer.visitors.MachineCodeCompiler;
+import analyzer.visitors.MachineSimulator;
+import analyzer.visitors.PrintMachineCodeVisitor;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Compile a source a statement at a time and a window at a time, as with -window, and compare the code with the
+ * buffered compile, or check it when the windows make it differ.
+ */
+public class StreamingTest {
+    private static final String DATA = "test-suite/StreamingTest/data/";
+    private static final int SEEDS = 5;
+
+    // Visiting each statement as it is parsed prints the same code as visiting the whole tree.
+    @Test
+    public void statementAtATime() throws Exception {
+        byte[] source = read();
+        for (PrintMachineCodeVisitor.Allocator allocator : PrintMachineCodeVisitor.Allocator.values()) {
+            StringWriter output = new StringWriter();
+            PrintWriter writer = new PrintWriter(output);
+            Parser.ParseTree(new ByteArrayInputStream(source)).jjtAccept(new PrintMachineCodeVisitor(writer, allocator), null);
+            writer.flush();
+            assertArrayEquals(allocator.name(), output.toString().getBytes(StandardCharsets.UTF_8),
+                    new MachineCodeCompiler(allocator, false, null).compile(source));
+        }
+    }
+
+    // A single window that holds the whole program is the buffered compile.
+    @Test
+    public void wholeProgramWindow() throws Exception {
+        byte[] source = read();
+        byte[] buffered = new MachineCodeCompiler(PrintMachineCodeVisitor.Allocator.NEXT_USE, false, null).compile(source);
+        for (int lookahead : new int[]{0, 4}) {
+            MachineCodeCompiler streamed = new MachineCodeCompiler(PrintMachineCodeVisitor.Allocator.NEXT_USE, false, null,
+                    Collections.emptyMap(), 64, lookahead);
+            assertArrayEquals("look-ahead " + lookahead, buffered, streamed.compile(source));
+        }
+    }
+
+    @Test
+    public void smallWindows() throws Exception {
+        byte[] source = read();
+        for (int window : new int[]{1, 2, 3, 5}) {
+            for (int lookahead : new int[]{0, 2}) {
+                MachineCodeCompiler streamed = new MachineCodeCompiler(PrintMachineCodeVisitor.Allocator.NEXT_USE, false, null,
+                        Collections.emptyMap(), window, lookahead);
+                for (int seed = 0; seed < SEEDS; seed++) {
+                    MachineSimulator.check(source, streamed, seed, new LatencyModel(), new CacheModel());
+                }
+            }
+        }
+    }
+
+    // Neither the lines nor the variables held grow with a long program of distinct variables.
+    @Test
+    public void boundedMemory() throws Exception {
+        StringBuilder program = new StringBuilder("num_register = 4;\nreturn [v0, v1, v2, v3];\n");
+        for (int i = 0; i < 2000; i++) {
+            program.append("v").append(i % 4).append(" = v").append((i + 1) % 4).append(" + x").append(i).append(";\n");
+        }
+        byte[] source = program.toString().getBytes(StandardCharsets.UTF_8);
+        int window = 8;
+        int lookahead = 4;
+        PrintMachineCodeVisitor visitor = new PrintMachineCodeVisitor(new PrintWriter(Writer.nullWriter()));
+        visitor.setWindow(window, lookahead);
+        visitor.visitStatements(new Parser(new ByteArrayInputStream(source)));
+        assertTrue(visitor.PEAK_LINES + " lines", visitor.PEAK_LINES <= window + lookahead + 1);
+        assertTrue(visitor.PEAK_VARIABLES + " variables", visitor.PEAK_VARIABLES <= 4 + 2 * (window + lookahead));
+
+        MachineCodeCompiler streamed = new MachineCodeCompiler(PrintMachineCodeVisitor.Allocator.NEXT_USE, false, null,
+                Collections.emptyMap(), window, lookahead);
+        MachineSimulator.check(source, streamed, 0, new LatencyModel(), new CacheModel());
+    }
+
+    private static byte[] read() throws Exception {
+        return Files.readAllBytes(Paths.get(DATA + "program.txt"));
+    }
+}